@@ -0,0 +1,145 @@
+package org.legend.benchmarks;
+
+import org.geotools.api.style.Style;
+import org.geotools.map.FeatureLayer;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.LeasedFeatureLayer;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.vector.DataStoreRegistry;
+import org.legend.utils.vector.FeatureSourceType;
+import org.legend.utils.vector.FeatureSourceUtils;
+import org.legend.utils.vector.StyleConverterUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The data of the benchmarks: the shapefiles, SLD and MapBox styles bundled under <code>data</code>.
+ *
+ * <p>The data directory is given by the <code>legend.data</code> system property, by default
+ * <code>data</code> or <code>../data</code> relative to the working directory, so the benchmarks
+ * run from the root of the project or from the <code>benchmarks</code> directory.
+ */
+final class BenchmarkData {
+
+    static final String DATA_PROPERTY = "legend.data";
+
+    static final String LANDCOVER_SHP = "shp/landcover2000/landcover2000.shp";
+
+    static final String HEDGEROW_SHP = "shp/hedgerow/hedgerow.shp";
+
+    /**
+     * 18 polygon rules
+     */
+    static final String LCZ_SLD = "sld/rsu_lcz_primary.sld";
+
+    /**
+     * 11 polygon rules
+     */
+    static final String TYPO_SLD = "sld/building_urban_typo.sld";
+
+    /**
+     * 50 fill layers of a single source layer
+     */
+    static final String MAPBOX_STYLE = "mbstyle/ankang-style.json";
+
+    /**
+     * A layer of {@link #MAPBOX_STYLE}
+     */
+    static final String MAPBOX_LAYER = "r0_sy0_st0";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Resolves a file of the data directory.
+     *
+     * @param relativePath the path of the file in the data directory
+     * @return the path of the file
+     */
+    static Path resolve(String relativePath) {
+        String configured = System.getProperty(DATA_PROPERTY);
+        Path dir = Paths.get(configured != null ? configured : "data");
+        if (configured == null && !Files.isDirectory(dir)) {
+            dir = Paths.get("..", "data");
+        }
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalStateException("No data directory at " + dir.toAbsolutePath()
+                    + ", set it with -D" + DATA_PROPERTY + "=<path>");
+        }
+        return dir.resolve(relativePath);
+    }
+
+    /**
+     * Options of a vertical legend with 24x24 icons, showing all the rules.
+     *
+     * @return the legend options
+     */
+    static LegendOptions buildOptions() {
+        return LegendOptions.builder()
+                .width(24)
+                .height(24)
+                .transparent(false)
+                .bgColor("#FFFFFF")
+                .layout(LegendUtils.LegendLayout.VERTICAL)
+                .fontName("Sans-Serif")
+                .fontStyle("bold")
+                .fontColor("#000000")
+                .fontSize(12)
+                .titleOffsetX(0)
+                .labelOffsetX(5)
+                .ruleOffsetY(2)
+                .maxHeight(0)
+                .isShowAllRules(true)
+                .build();
+    }
+
+    /**
+     * The layers of the benchmarks. Every layer owns the lease of its shapefile store, so the stores
+     * are not disposed by the idle timeout of the registry during a long run.
+     */
+    static final class Layers implements Closeable {
+
+        private final List<FeatureLayer> featureLayers = new ArrayList<>();
+
+        Layers() throws IOException {
+            try {
+                featureLayers.add(layer(LANDCOVER_SHP, LCZ_SLD, "Land cover"));
+                featureLayers.add(layer(HEDGEROW_SHP, TYPO_SLD, "Hedgerows"));
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private FeatureLayer layer(String shp, String sld, String title) throws IOException {
+            Style style = StyleConverterUtil.getSldStyle(resolve(sld).toString());
+            DataStoreRegistry.Lease lease = FeatureSourceUtils.openFeatureSource(resolve(shp).toFile(), FeatureSourceType.SHP);
+            try {
+                FeatureLayer featureLayer = new LeasedFeatureLayer(lease, style);
+                featureLayer.setTitle(title);
+                return featureLayer;
+            } catch (IOException | RuntimeException e) {
+                lease.close();
+                throw e;
+            }
+        }
+
+        List<FeatureLayer> getFeatureLayers() {
+            return featureLayers;
+        }
+
+        @Override
+        public void close() {
+            for (FeatureLayer featureLayer : featureLayers) {
+                featureLayer.dispose();
+            }
+            featureLayers.clear();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.legend.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler for an increasing number of threads, writing the
+ * results of every thread count to {@code target/jmh-threads-<count>.json}.
+ *
+ * <p>Usage: {@code java -cp target/benchmarks.jar org.legend.benchmarks.BenchmarkRunner [regex] [threads...]},
+ * by default every benchmark for 1, 2, 4 and 8 threads.
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] DEFAULT_THREADS = {1, 2, 4, 8};
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "org\\.legend\\.benchmarks\\..*";
+        int[] threadCounts = DEFAULT_THREADS;
+        if (args.length > 1) {
+            threadCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threadCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-threads-" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.legend.benchmarks;
+
+import org.geotools.api.feature.Feature;
+import org.geotools.api.feature.type.FeatureType;
+import org.geotools.api.style.Rule;
+import org.geotools.map.FeatureLayer;
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.renderer.style.SLDStyleFactory;
+import org.geotools.util.NumberRange;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.ImageUtils;
+import org.legend.utils.legend.LegendMerger;
+import org.legend.utils.legend.LegendRenderContext;
+import org.legend.utils.legend.PngEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of a legend, each one timed on its own, and the whole legend for reference.
+ *
+ * <p>The inputs of a stage are computed once at setup from the bundled shapefiles and SLD files:
+ * the rules, the sample features, the rendered icons and the rendered legend. They are only read by
+ * the benchmarks, so they are shared by all the benchmark threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    private static final double MINIMUM_SYMBOL_SIZE = 3.0;
+
+    private BenchmarkData.Layers layers;
+
+    private LegendOptions legendOptions;
+
+    private StageBuilder builder;
+
+    private final List<FeatureType> featureTypes = new ArrayList<>();
+
+    private final List<Feature> sampleFeatures = new ArrayList<>();
+
+    private final List<Rule[]> rules = new ArrayList<>();
+
+    private final List<List<RenderedImage>> icons = new ArrayList<>();
+
+    /**
+     * For every layer its title image followed by its merged rules, the input of mergeGroups
+     */
+    private final List<RenderedImage> layerImages = new ArrayList<>();
+
+    private BufferedImage legend;
+
+    private PngEncoder pngEncoder;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        layers = new BenchmarkData.Layers();
+        legendOptions = BenchmarkData.buildOptions();
+        // every stage is timed on its own, nothing is cached between the invocations
+        builder = new StageBuilder(LegendBuilderOptions.builder().iconCanvasPool(null).labelRasterCache(null).build());
+        pngEncoder = PngEncoder.getDefault();
+        for (FeatureLayer featureLayer : layers.getFeatureLayers()) {
+            FeatureType featureType = featureLayer.getFeatureSource().getSchema();
+            Feature sampleFeature = builder.createSampleFeature(featureType);
+            Rule[] layerRules = builder.getLegendRules(featureLayer, legendOptions);
+            List<RenderedImage> layerIcons = builder.renderRules(legendOptions, sampleFeature, layerRules);
+            featureTypes.add(featureType);
+            sampleFeatures.add(sampleFeature);
+            rules.add(layerRules);
+            icons.add(layerIcons);
+
+            BufferedImage title = ImageUtils.createImage(24, 24, null, false);
+            layerImages.add(LegendMerger.getRenderedLabel(title, featureLayer.getTitle(), legendOptions));
+            layerImages.add(mergeLegends(layerRules, layerIcons));
+        }
+        legend = builder.buildLegendGraphic(layers.getFeatureLayers(), legendOptions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        layers.close();
+    }
+
+    @Benchmark
+    public void createSampleFeature(Blackhole blackhole) throws Exception {
+        for (FeatureType featureType : featureTypes) {
+            blackhole.consume(builder.createSampleFeature(featureType));
+        }
+    }
+
+    @Benchmark
+    public void calcSymbolSize(Blackhole blackhole) {
+        for (int i = 0; i < rules.size(); i++) {
+            blackhole.consume(builder.calcSymbolSize(24, MINIMUM_SYMBOL_SIZE, sampleFeatures.get(i), rules.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void renderRules(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < rules.size(); i++) {
+            blackhole.consume(builder.renderRules(legendOptions, sampleFeatures.get(i), rules.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void mergeLegends(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < rules.size(); i++) {
+            blackhole.consume(mergeLegends(rules.get(i), icons.get(i)));
+        }
+    }
+
+    @Benchmark
+    public BufferedImage mergeGroups() throws Exception {
+        LegendMerger.MergeOptions options = LegendMerger.MergeOptions.createFromOptions(layerImages, 0, true, false,
+                legendOptions);
+        return LegendMerger.mergeGroups(null, options, legendOptions);
+    }
+
+    @Benchmark
+    public byte[] encodePng() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pngEncoder.encode(legend, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public BufferedImage buildLegendGraphic() throws Exception {
+        return builder.buildLegendGraphic(layers.getFeatureLayers(), legendOptions);
+    }
+
+    private BufferedImage mergeLegends(Rule[] layerRules, List<RenderedImage> layerIcons) throws Exception {
+        LegendMerger.MergeOptions options = LegendMerger.MergeOptions.createFromOptions(layerIcons, 0, true, false,
+                legendOptions);
+        return LegendMerger.mergeLegends(layerRules, options, legendOptions);
+    }
+
+    /**
+     * Opens the protected stages of the builder to the benchmarks.
+     */
+    static final class StageBuilder extends BufferedImageLegendGraphicBuilder {
+
+        StageBuilder(LegendBuilderOptions builderOptions) {
+            super(builderOptions);
+        }
+
+        @Override
+        protected Feature createSampleFeature(FeatureType featureType) throws Exception {
+            return super.createSampleFeature(featureType);
+        }
+
+        @Override
+        protected double[] calcSymbolSize(double defaultMaxSize, double defaultMinSize, Feature feature, Rule[] rules) {
+            return super.calcSymbolSize(defaultMaxSize, defaultMinSize, feature, rules);
+        }
+
+        @Override
+        protected Rule[] getLegendRules(FeatureLayer featureLayer, LegendOptions legendOptions) throws IOException {
+            return super.getLegendRules(featureLayer, legendOptions);
+        }
+
+        /**
+         * Paints the icons of the rules of a layer on the calling thread, as the builder does for a
+         * layer with fewer rules than the parallel threshold.
+         */
+        List<RenderedImage> renderRules(LegendOptions legendOptions, Feature sampleFeature, Rule[] rules) throws Exception {
+            LegendRenderContext context = new LegendRenderContext(legendOptions);
+            MetaBufferEstimator estimator = new MetaBufferEstimator(sampleFeature);
+            SLDStyleFactory styleFactory = new SLDStyleFactory();
+            NumberRange<Double> scaleRange = NumberRange.create(-1.0, -1.0);
+            List<RenderedImage> ruleIcons = new ArrayList<>(rules.length);
+            for (Rule rule : rules) {
+                if (!hasVectorSymbolizer(rule)) {
+                    continue;
+                }
+                BufferedImage image = ImageUtils.createImage(context.getWidth(), context.getHeight(), null,
+                        context.isTransparent());
+                Graphics2D graphics = ImageUtils.prepareTransparency(context.isTransparent(),
+                        context.getProfile().getBackgroundColor(), image, null);
+                graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                try {
+                    paintRule(context, graphics, rule, estimator, sampleFeature, scaleRange, styleFactory,
+                            MINIMUM_SYMBOL_SIZE, false, null);
+                } finally {
+                    graphics.dispose();
+                }
+                ruleIcons.add(image);
+            }
+            return ruleIcons;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.legend.benchmarks;
+
+import org.geotools.api.style.Style;
+import org.geotools.api.style.StyleFactory;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.xml.styling.SLDParser;
+import org.legend.utils.vector.MapboxStyleConverter;
+import org.legend.utils.vector.SldNormalizer;
+import org.legend.utils.vector.StyleConverterUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of the styles: parsing a SLD file, getting it through the style cache and converting a
+ * MapBox style.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StyleBenchmark {
+
+    @Param({BenchmarkData.LCZ_SLD, BenchmarkData.TYPO_SLD})
+    public String sld;
+
+    private Path sldPath;
+
+    private String mapboxPath;
+
+    @Setup
+    public void setup() {
+        sldPath = BenchmarkData.resolve(sld);
+        mapboxPath = BenchmarkData.resolve(BenchmarkData.MAPBOX_STYLE).toString();
+    }
+
+    /**
+     * Parses the SLD file the way the style cache does on a miss, without going through the cache.
+     */
+    @Benchmark
+    public Style parseSld() throws IOException {
+        StyleFactory styleFactory = CommonFactoryFinder.getStyleFactory();
+        try (InputStream in = Files.newInputStream(sldPath)) {
+            return new SLDParser(styleFactory).readDOM(SldNormalizer.normalize(in))[0];
+        }
+    }
+
+    /**
+     * Gets the style of the SLD file through the style cache: a file check and a copy of the style.
+     */
+    @Benchmark
+    public Style loadCachedSld() throws IOException {
+        return StyleConverterUtil.getSldStyle(sldPath.toString());
+    }
+
+    /**
+     * Parses the MapBox style and transforms all its layers, without going through the cache.
+     */
+    @Benchmark
+    public Style convertMapboxStyle() throws IOException {
+        return new MapboxStyleConverter().getStyle(Paths.get(mapboxPath));
+    }
+
+    /**
+     * Gets all the layers of the MapBox style through the converter cache.
+     */
+    @Benchmark
+    public Style loadCachedMapboxStyle() {
+        return StyleConverterUtil.convertMapboxStyleString2Style(mapboxPath);
+    }
+
+    /**
+     * Gets a single layer of the MapBox style through the converter cache.
+     */
+    @Benchmark
+    public Style loadCachedMapboxLayer() {
+        return StyleConverterUtil.convertMapboxStyleString2Style(mapboxPath, BenchmarkData.MAPBOX_LAYER);
+    }
+}
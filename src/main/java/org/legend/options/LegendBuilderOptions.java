@@ -0,0 +1,78 @@
+package org.legend.options;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.legend.utils.legend.IconCanvasPool;
+import org.legend.utils.legend.LabelRasterCache;
+import org.legend.utils.legend.LegendCache;
+import org.legend.utils.legend.LegendRequestCoalescer;
+import org.legend.utils.legend.PngEncoder;
+import org.legend.utils.legend.RuleIconCache;
+import org.legend.utils.legend.RulePresenceIndex;
+
+/**
+ * 图例构建器的配置，与单次请求的 {@link LegendOptions} 不同，它在构建器创建时确定，之后不可修改，
+ * 因此同一个构建器可以被多个线程共享
+ */
+@Getter
+@Builder
+public class LegendBuilderOptions {
+    /**
+     * 默认的并行渲染图例项的最小规则数
+     */
+    public static final int DEFAULT_PARALLEL_RULE_THRESHOLD = 64;
+
+    /**
+     * 图层的规则数达到该值时，若请求提供了线程池，则分块并行渲染图例项；低于该值时保持串行，避免小图例承担任务调度的开销
+     */
+    @Builder.Default
+    private int parallelRuleThreshold = DEFAULT_PARALLEL_RULE_THRESHOLD;
+
+    /**
+     * 图例项图标缓存，为空时不缓存；同一个缓存可以被多个构建器共享
+     */
+    private RuleIconCache iconCache;
+
+    /**
+     * 整个图例的缓存（PNG 字节），为空时不缓存；同一个缓存可以被多个构建器共享
+     */
+    private LegendCache legendCache;
+
+    /**
+     * 相同请求的合并器：同一时刻到达的相同请求（指纹相同）只渲染一次，其余请求等待并共享结果，
+     * 为空时每个请求都独立渲染
+     */
+    private LegendRequestCoalescer requestCoalescer;
+
+    /**
+     * 只显示数据中存在的图例项时（{@link LegendOptions#isShowAllRules()} 为 false），用于判断规则是否命中要素的索引，
+     * 为空时使用全局共享的 {@link RulePresenceIndex#getDefault()}
+     */
+    private RulePresenceIndex rulePresenceIndex;
+
+    /**
+     * 是否使用单次布局引擎：先计算整个图例的几何，再直接绘制到唯一的输出图像；为 false（默认）时使用 LegendMerger 逐级合并中间图像。
+     * 两者的几何相同，但文字的抗锯齿像素可能不同，因此需要显式开启
+     */
+    private boolean singlePassLayout;
+
+    /**
+     * 图例的 PNG 编码器（压缩级别、行过滤策略），为空时使用默认配置的 {@link PngEncoder#getDefault()}；
+     * 颜色数不超过 256 的图例会被编码为 8 位调色板 PNG
+     */
+    private PngEncoder pngEncoder;
+
+    /**
+     * 图例项图标画布池，按 (宽, 高, 类型) 在所有线程间复用图标画布，图例合成完毕后画布才归还到池中；
+     * 为空时每个图例项都创建新的图像
+     */
+    @Builder.Default
+    private IconCanvasPool iconCanvasPool = IconCanvasPool.getDefault();
+
+    /**
+     * 图例项标签的栅格缓存，按 (文本, 字体, 颜色, 文字抗锯齿, 标题偏移) 复用已绘制的标签，按占用的字节数淘汰；
+     * 仅用于 LegendMerger 逐级合并（{@link #singlePassLayout} 为 false），单次布局引擎直接绘制文字，不使用该缓存；
+     * 为空（默认）时每次都重新绘制标签，可以使用共享的 {@link LabelRasterCache#getDefault()}
+     */
+    private LabelRasterCache labelRasterCache;
+}
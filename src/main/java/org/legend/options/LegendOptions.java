@@ -86,8 +86,8 @@ public class LegendOptions {
     private String title;
 
     /**
-     * 不显示全量图例，只保留属性表中有的图例
+     * 是否显示全量图例；为 false 时只保留数据中至少有一个要素命中其过滤条件的图例项
      */
     @Builder.Default
-    private boolean isShowAllRules = false;
+    private boolean isShowAllRules = true;
 }
@@ -0,0 +1,61 @@
+package org.legend.options;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.Map;
+
+/**
+ * 内置 HTTP 图例服务（{@link org.legend.server.LegendHttpServer}）的配置，在服务启动时确定，之后不可修改
+ */
+@Getter
+@Builder
+public class LegendServerOptions {
+    /**
+     * 默认的连接等待队列长度
+     */
+    public static final int DEFAULT_BACKLOG = 1024;
+
+    /**
+     * 监听的主机名或地址，默认只监听本机
+     */
+    @Builder.Default
+    private String host = "localhost";
+
+    /**
+     * 监听的端口，为 0 时由系统分配空闲端口
+     */
+    @Builder.Default
+    private int port = 8080;
+
+    /**
+     * 尚未被接受的连接的等待队列长度，突发的大量连接超出该长度时会被系统拒绝
+     */
+    @Builder.Default
+    private int backlog = DEFAULT_BACKLOG;
+
+    /**
+     * 数据根目录：请求中的图层和样式路径都相对于该目录解析，不能指向目录之外的文件
+     */
+    @Builder.Default
+    private String dataDirectory = "data";
+
+    /**
+     * 样式 ID 到样式文件路径（相对于数据根目录）的映射，请求可以用 ID 代替路径引用样式
+     */
+    @Singular
+    private Map<String, String> styles;
+
+    /**
+     * 同时渲染的图例数上限，每个请求运行在独立的虚拟线程上，超出的请求排队等待，避免大量并发请求耗尽内存；
+     * 默认为处理器数的两倍
+     */
+    @Builder.Default
+    private int maxConcurrentRenders = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * 渲染图例使用的构建器配置，为空时使用默认配置
+     */
+    private LegendBuilderOptions builderOptions;
+}
@@ -0,0 +1,484 @@
+package org.legend.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.geotools.api.style.Style;
+import org.geotools.map.FeatureLayer;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.options.LegendServerOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.JsonLegendGraphicBuilder;
+import org.legend.utils.legend.LegendFingerprint;
+import org.legend.utils.legend.LegendRequestCoalescer;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.legend.SvgLegendGraphicBuilder;
+import org.legend.utils.vector.DataStoreRegistry;
+import org.legend.utils.vector.FeatureSourceType;
+import org.legend.utils.vector.FeatureSourceUtils;
+import org.legend.utils.vector.StyleConverterUtil;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A GetLegendGraphic HTTP service built on the JDK {@link HttpServer}.
+ *
+ * <p>Every exchange is handled on its own virtual thread, so waiting connections do not hold
+ * platform threads; the renderings themselves are bounded by
+ * {@link LegendServerOptions#getMaxConcurrentRenders()}. The service answers
+ * {@code GET /legend} with the following parameters, the names being case insensitive:
+ *
+ * <ul>
+ *   <li>{@code layer}: path of a data file (shp, geojson or mbtiles) relative to the data
+ *       directory, repeated for a legend of several layers
+ *   <li>{@code style}: ID of a configured style, or path of a SLD file or a MapBox style (json)
+ *       relative to the data directory; one per layer, or one for all the layers
+ *   <li>{@code styleLayer}: optional ID or source layer of the layers of the MapBox styles to
+ *       convert, repeated for several layers; all the visible layers otherwise
+ *   <li>{@code layerTitle}: optional title of every layer, the name of its file otherwise
+ *   <li>{@code format}: {@code png} (default), {@code svg} or {@code json}, or their MIME types
+ *   <li>the fields of {@link LegendOptions}: {@code width}, {@code height}, {@code transparent},
+ *       {@code bgColor}, {@code layout}, {@code fontName}, {@code fontStyle}, {@code fontColor},
+ *       {@code fontSize}, {@code titleOffsetX}, {@code labelOffsetX}, {@code maxHeight},
+ *       {@code ruleOffsetY}, {@code title} and {@code showAllRules}
+ * </ul>
+ *
+ * <p>Responses carry an ETag computed from the {@link LegendFingerprint} of the request, which
+ * changes with the content of the styles. A request whose {@code If-None-Match} header matches it
+ * gets a 304 response without rendering anything, and the identical requests arriving while a
+ * legend renders share its result.
+ */
+public final class LegendHttpServer implements AutoCloseable {
+
+    /**
+     * Path of the GetLegendGraphic endpoint
+     */
+    public static final String LEGEND_PATH = "/legend";
+
+    private static final Logger LOGGER = Logger.getLogger(LegendHttpServer.class.getName());
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Path dataDirectory;
+
+    private final Map<String, String> styles;
+
+    private final Semaphore renderPermits;
+
+    /**
+     * Coalesces the identical requests, before they wait for a render permit
+     */
+    private final LegendRequestCoalescer coalescer = new LegendRequestCoalescer();
+
+    private final BufferedImageLegendGraphicBuilder pngBuilder;
+
+    private final SvgLegendGraphicBuilder svgBuilder;
+
+    private final JsonLegendGraphicBuilder jsonBuilder;
+
+    private LegendHttpServer(LegendServerOptions options, Path dataDirectory, HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+        this.dataDirectory = dataDirectory;
+        this.styles = options.getStyles() != null ? new HashMap<>(options.getStyles()) : Collections.emptyMap();
+        this.renderPermits = new Semaphore(Math.max(1, options.getMaxConcurrentRenders()));
+        LegendBuilderOptions builderOptions = options.getBuilderOptions() != null
+                ? options.getBuilderOptions() : LegendBuilderOptions.builder().build();
+        this.pngBuilder = new BufferedImageLegendGraphicBuilder(builderOptions);
+        this.svgBuilder = new SvgLegendGraphicBuilder(builderOptions);
+        this.jsonBuilder = new JsonLegendGraphicBuilder(builderOptions);
+    }
+
+    /**
+     * Starts a legend service.
+     *
+     * @param options the options of the service
+     * @return the running service, to be closed to stop it
+     * @throws IOException if the data directory does not exist or if the server could not be bound
+     */
+    public static LegendHttpServer start(LegendServerOptions options) throws IOException {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        // the real path, the requested files are checked once their links are followed
+        Path dataDirectory = Paths.get(options.getDataDirectory()).toRealPath();
+        HttpServer server = HttpServer.create(new InetSocketAddress(options.getHost(), options.getPort()),
+                options.getBacklog());
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        LegendHttpServer legendServer = new LegendHttpServer(options, dataDirectory, server, executor);
+        server.createContext(LEGEND_PATH, legendServer::handle);
+        server.setExecutor(executor);
+        server.start();
+        return legendServer;
+    }
+
+    /**
+     * @return the address the service listens to, with the actual port when the port 0 was configured
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops the service, the exchanges in progress are closed.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendError(exchange, 405, "Method not allowed: " + method);
+                return;
+            }
+            serveLegend(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (FileNotFoundException e) {
+            sendError(exchange, 404, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "The service is stopping");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not render the legend of " + exchange.getRequestURI(), e);
+            sendError(exchange, 500, "Could not render the legend");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void serveLegend(HttpExchange exchange, Map<String, List<String>> parameters) throws Exception {
+        Format format = Format.parse(getParameter(parameters, "format"));
+        LegendOptions legendOptions = parseLegendOptions(parameters);
+        List<String> layerPaths = getParameters(parameters, "layer");
+        List<String> stylePaths = getParameters(parameters, "style");
+        List<String> layerTitles = getParameters(parameters, "layertitle");
+        String[] styleLayers = getParameters(parameters, "stylelayer").toArray(new String[0]);
+        if (layerPaths.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: layer");
+        }
+        if (stylePaths.size() != 1 && stylePaths.size() != layerPaths.size()) {
+            throw new IllegalArgumentException("Expected one style, or one style per layer");
+        }
+        if (!layerTitles.isEmpty() && layerTitles.size() != layerPaths.size()) {
+            throw new IllegalArgumentException("Expected one title per layer");
+        }
+
+        List<DataStoreRegistry.Lease> leases = new ArrayList<>(layerPaths.size());
+        try {
+            List<FeatureLayer> featureLayers = new ArrayList<>(layerPaths.size());
+            for (int i = 0; i < layerPaths.size(); i++) {
+                Path layerPath = resolve(layerPaths.get(i));
+                DataStoreRegistry.Lease lease = FeatureSourceUtils.openFeatureSource(layerPath.toFile(),
+                        getFeatureSourceType(layerPath));
+                leases.add(lease);
+                FeatureLayer featureLayer = new FeatureLayer(lease.getFeatureSource(),
+                        loadStyle(stylePaths.get(stylePaths.size() == 1 ? 0 : i), styleLayers));
+                featureLayer.setTitle(layerTitles.isEmpty() ? getBaseName(layerPath) : layerTitles.get(i));
+                featureLayers.add(featureLayer);
+            }
+
+            String etag = "\"" + pngBuilder.getFingerprint(featureLayers, legendOptions).getKey() + "-" + format.name()
+                    .toLowerCase(Locale.ROOT) + "\"";
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            // the legend may be cached, but must be revalidated with its ETag
+            headers.set("Cache-Control", "no-cache");
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            // the body is shared by the coalesced requests, it is only written
+            byte[] body = coalescer.execute(etag, () -> {
+                renderPermits.acquire();
+                try {
+                    return render(format, featureLayers, legendOptions);
+                } finally {
+                    renderPermits.release();
+                }
+            });
+            headers.set("Content-Type", format.contentType);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            for (DataStoreRegistry.Lease lease : leases) {
+                lease.close();
+            }
+        }
+    }
+
+    private byte[] render(Format format, List<FeatureLayer> featureLayers, LegendOptions legendOptions) throws Exception {
+        switch (format) {
+            case SVG:
+                return svgBuilder.buildLegendSvg(featureLayers, legendOptions);
+            case JSON:
+                return jsonBuilder.buildLegendJson(featureLayers, legendOptions);
+            default:
+                return pngBuilder.buildLegendPng(featureLayers, legendOptions);
+        }
+    }
+
+    /**
+     * Loads a style from its ID or its path. The SLD files are served by the style cache of
+     * {@link StyleConverterUtil}, the MapBox styles by its MapBox style converter.
+     *
+     * @param style       the ID or the path of the style
+     * @param styleLayers the layers of a MapBox style to convert, all if empty
+     * @return the style
+     */
+    private Style loadStyle(String style, String[] styleLayers) throws IOException {
+        String configuredPath = styles.get(style);
+        Path stylePath = resolve(configuredPath != null ? configuredPath : style);
+        if (stylePath.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")) {
+            try {
+                return StyleConverterUtil.getMapboxStyleConverter().getStyle(stylePath, styleLayers);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not convert the MapBox style " + style, e);
+            }
+        }
+        return StyleConverterUtil.getSldStyle(stylePath.toString());
+    }
+
+    /**
+     * Resolves a path of the request against the data directory. The path is checked before and
+     * after its symbolic links are followed, so a link of the data directory can not serve a file
+     * outside of it.
+     *
+     * @param path the path of the request
+     * @return the real path of an existing file of the data directory
+     * @throws IllegalArgumentException if the path is outside the data directory
+     * @throws FileNotFoundException    if the file does not exist
+     */
+    private Path resolve(String path) throws IOException {
+        Path resolved;
+        try {
+            resolved = dataDirectory.resolve(path).normalize();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid path: " + path);
+        }
+        if (!resolved.startsWith(dataDirectory)) {
+            throw new IllegalArgumentException("Path outside the data directory: " + path);
+        }
+        Path real;
+        try {
+            real = resolved.toRealPath();
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("No such file: " + path);
+        }
+        if (!real.startsWith(dataDirectory)) {
+            throw new IllegalArgumentException("Path outside the data directory: " + path);
+        }
+        if (!Files.isRegularFile(real)) {
+            throw new FileNotFoundException("No such file: " + path);
+        }
+        return real;
+    }
+
+    private static FeatureSourceType getFeatureSourceType(Path path) {
+        String fileName = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (fileName.endsWith(".shp")) {
+            return FeatureSourceType.SHP;
+        } else if (fileName.endsWith(".geojson") || fileName.endsWith(".json")) {
+            return FeatureSourceType.GEOJSON;
+        } else if (fileName.endsWith(".mbtiles")) {
+            return FeatureSourceType.MBTILES;
+        }
+        throw new IllegalArgumentException("Unsupported data file: " + path.getFileName());
+    }
+
+    private static String getBaseName(Path path) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static LegendOptions parseLegendOptions(Map<String, List<String>> parameters) {
+        LegendOptions.LegendOptionsBuilder builder = LegendOptions.builder();
+        String value;
+        if ((value = getParameter(parameters, "width")) != null) {
+            builder.width(Integer.valueOf(value));
+        }
+        if ((value = getParameter(parameters, "height")) != null) {
+            builder.height(Integer.valueOf(value));
+        }
+        if ((value = getParameter(parameters, "transparent")) != null) {
+            builder.transparent(Boolean.parseBoolean(value));
+        }
+        builder.bgColor(getParameter(parameters, "bgcolor"));
+        if ((value = getParameter(parameters, "layout")) != null) {
+            builder.layout(LegendUtils.LegendLayout.valueOf(value.toUpperCase(Locale.ROOT)));
+        }
+        if ((value = getParameter(parameters, "fontname")) != null) {
+            builder.fontName(value);
+        }
+        if ((value = getParameter(parameters, "fontstyle")) != null) {
+            builder.fontStyle(value);
+        }
+        builder.fontColor(getParameter(parameters, "fontcolor"));
+        if ((value = getParameter(parameters, "fontsize")) != null) {
+            builder.fontSize(Integer.valueOf(value));
+        }
+        if ((value = getParameter(parameters, "titleoffsetx")) != null) {
+            builder.titleOffsetX(Integer.valueOf(value));
+        }
+        if ((value = getParameter(parameters, "labeloffsetx")) != null) {
+            builder.labelOffsetX(Integer.valueOf(value));
+        }
+        if ((value = getParameter(parameters, "maxheight")) != null) {
+            builder.maxHeight(Integer.valueOf(value));
+        }
+        if ((value = getParameter(parameters, "ruleoffsety")) != null) {
+            builder.ruleOffsetY(Integer.valueOf(value));
+        }
+        builder.title(getParameter(parameters, "title"));
+        if ((value = getParameter(parameters, "showallrules")) != null) {
+            builder.isShowAllRules(Boolean.parseBoolean(value));
+        }
+        LegendOptions legendOptions = builder.build();
+        if (legendOptions.getWidth() <= 0 || legendOptions.getHeight() <= 0) {
+            throw new IllegalArgumentException("The width and the height must be positive");
+        }
+        return legendOptions;
+    }
+
+    /**
+     * Decodes a query string, the parameter names are lower cased.
+     *
+     * @param rawQuery the raw query of the request URI, may be null
+     * @return the values of every parameter, in the order of the query
+     */
+    static Map<String, List<String>> parseQuery(String rawQuery) {
+        Map<String, List<String>> parameters = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals >= 0 ? pair.substring(0, equals) : pair, StandardCharsets.UTF_8);
+            String value = equals >= 0 ? URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8) : "";
+            parameters.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(value);
+        }
+        return parameters;
+    }
+
+    private static List<String> getParameters(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return values != null ? values : Collections.emptyList();
+    }
+
+    private static String getParameter(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        if (values == null || values.isEmpty() || values.get(0).isEmpty()) {
+            return null;
+        }
+        if (values.size() > 1) {
+            throw new IllegalArgumentException("Parameter given more than once: " + name);
+        }
+        return values.get(0);
+    }
+
+    /**
+     * Checks an If-None-Match header against the ETag of the response, ignoring the weak
+     * validators prefix.
+     *
+     * @param ifNoneMatch the header, may be null
+     * @param etag        the ETag of the response
+     * @return true if the client already has the response
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message != null ? message : "").getBytes(StandardCharsets.UTF_8);
+        Headers headers = exchange.getResponseHeaders();
+        headers.remove("ETag");
+        headers.remove("Cache-Control");
+        headers.set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, "HEAD".equals(exchange.getRequestMethod()) ? -1 : body.length);
+        if (!"HEAD".equals(exchange.getRequestMethod())) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * The formats of the legend.
+     */
+    private enum Format {
+        PNG("image/png"),
+        SVG("image/svg+xml"),
+        JSON("application/json");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        private static Format parse(String value) {
+            if (value == null) {
+                return PNG;
+            }
+            String lowerCase = value.toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                if (format.name().toLowerCase(Locale.ROOT).equals(lowerCase) || format.contentType.equals(lowerCase)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported format: " + value);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * Finds the pixels of an image differing from a background color, reading the data buffer of the
+ * image directly.
+ *
+ * <p>The images of the legends ({@link BufferedImage#TYPE_INT_RGB}, {@link
+ * BufferedImage#TYPE_INT_ARGB}, {@link BufferedImage#TYPE_3BYTE_BGR} and {@link
+ * BufferedImage#TYPE_4BYTE_ABGR}) are compared sample by sample against the background resolved
+ * once, without converting every pixel through the color model; the other images go through
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} a row at a time. The scans stop
+ * at the first differing pixel.
+ *
+ * <p>A pixel matches the background when its ARGB value, as returned by {@link
+ * BufferedImage#getRGB(int, int)}, is equal to it.
+ *
+ * @author Adrien Bessy
+ */
+public final class BlankDetector {
+
+    private BlankDetector() {
+    }
+
+    /**
+     * Checks whether every pixel of an image has the given color.
+     *
+     * @param image the image
+     * @param argb  the background color, as an ARGB value
+     * @return true if no pixel differs from the background
+     */
+    public static boolean isUniform(BufferedImage image, int argb) {
+        RowScanner scanner = RowScanner.of(image, argb);
+        int width = image.getWidth();
+        for (int y = 0; y < image.getHeight(); y++) {
+            if (scanner.firstMismatch(y, 0, width) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the bounds of the content of an image, to trim the background around it.
+     *
+     * @param image the image
+     * @param argb  the background color, as an ARGB value
+     * @return the smallest rectangle holding all the pixels differing from the background, null if
+     * the image is uniform
+     */
+    public static Rectangle getContentBounds(BufferedImage image, int argb) {
+        RowScanner scanner = RowScanner.of(image, argb);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int top = 0;
+        while (top < height && scanner.firstMismatch(top, 0, width) < 0) {
+            top++;
+        }
+        if (top == height) {
+            return null;
+        }
+        int bottom = height - 1;
+        while (scanner.firstMismatch(bottom, 0, width) < 0) {
+            bottom--;
+        }
+        int left = width;
+        int right = -1;
+        for (int y = top; y <= bottom; y++) {
+            // only the part of the row outside of the current bounds can widen them
+            if (left > 0) {
+                int x = scanner.firstMismatch(y, 0, left);
+                if (x >= 0) {
+                    left = x;
+                }
+            }
+            if (right < width - 1) {
+                int x = scanner.lastMismatch(y, Math.max(right + 1, left), width);
+                if (x >= 0) {
+                    right = x;
+                }
+            }
+        }
+        return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    /**
+     * Compares the pixels of the rows of an image with a color.
+     */
+    private abstract static class RowScanner {
+
+        static RowScanner of(BufferedImage image, int argb) {
+            WritableRaster raster = image.getRaster();
+            SampleModel sampleModel = raster.getSampleModel();
+            switch (image.getType()) {
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_ARGB:
+                    if (sampleModel instanceof SinglePixelPackedSampleModel && raster.getDataBuffer() instanceof DataBufferInt) {
+                        return new IntRowScanner(raster, (SinglePixelPackedSampleModel) sampleModel, argb,
+                                image.getType() == BufferedImage.TYPE_INT_RGB);
+                    }
+                    break;
+                case BufferedImage.TYPE_3BYTE_BGR:
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    if (sampleModel instanceof PixelInterleavedSampleModel && raster.getDataBuffer() instanceof DataBufferByte) {
+                        return new ByteRowScanner(raster, (PixelInterleavedSampleModel) sampleModel, argb);
+                    }
+                    break;
+                default:
+            }
+            return new RgbRowScanner(image, argb);
+        }
+
+        /**
+         * @return the abscissa of the first pixel of [from, to) on row y not matching the color, -1 if there is none
+         */
+        abstract int firstMismatch(int y, int from, int to);
+
+        /**
+         * @return the abscissa of the last pixel of [from, to) on row y not matching the color, -1 if there is none
+         */
+        abstract int lastMismatch(int y, int from, int to);
+    }
+
+    /**
+     * Packed int pixels: one int per pixel.
+     */
+    private static final class IntRowScanner extends RowScanner {
+        private final int[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int argb;
+        private final int alphaMask;
+
+        private IntRowScanner(WritableRaster raster, SinglePixelPackedSampleModel sampleModel, int argb, boolean opaque) {
+            this.data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.offset = raster.getDataBuffer().getOffset()
+                    - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX();
+            // an RGB pixel is read as opaque whatever its unused high byte
+            this.alphaMask = opaque ? 0xFF000000 : 0;
+            this.argb = argb;
+        }
+
+        @Override
+        int firstMismatch(int y, int from, int to) {
+            int row = offset + y * scanlineStride;
+            for (int x = from; x < to; x++) {
+                if ((data[row + x] | alphaMask) != argb) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int lastMismatch(int y, int from, int to) {
+            int row = offset + y * scanlineStride;
+            for (int x = to - 1; x >= from; x--) {
+                if ((data[row + x] | alphaMask) != argb) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Interleaved byte pixels: 3 (BGR) or 4 (ABGR) bytes per pixel.
+     */
+    private static final class ByteRowScanner extends RowScanner {
+        private final byte[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int[] bandOffsets;
+        /**
+         * the color as the samples of a pixel, in the order of the bands
+         */
+        private final byte[] samples;
+        /**
+         * true if no pixel can match the color: a translucent color on an image without alpha
+         */
+        private final boolean noMatch;
+
+        private ByteRowScanner(WritableRaster raster, PixelInterleavedSampleModel sampleModel, int argb) {
+            this.data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.pixelStride = sampleModel.getPixelStride();
+            this.bandOffsets = sampleModel.getBandOffsets();
+            this.offset = raster.getDataBuffer().getOffset()
+                    - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX() * pixelStride;
+            // the bands are red, green, blue, then alpha if any
+            int bands = sampleModel.getNumBands();
+            this.samples = new byte[bands];
+            samples[0] = (byte) (argb >> 16);
+            samples[1] = (byte) (argb >> 8);
+            samples[2] = (byte) argb;
+            if (bands > 3) {
+                samples[3] = (byte) (argb >>> 24);
+            }
+            this.noMatch = bands == 3 && (argb >>> 24) != 0xFF;
+        }
+
+        private boolean matches(int pixel) {
+            for (int b = 0; b < samples.length; b++) {
+                if (data[pixel + bandOffsets[b]] != samples[b]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int firstMismatch(int y, int from, int to) {
+            if (noMatch) {
+                return from < to ? from : -1;
+            }
+            int row = offset + y * scanlineStride;
+            for (int x = from; x < to; x++) {
+                if (!matches(row + x * pixelStride)) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int lastMismatch(int y, int from, int to) {
+            if (noMatch) {
+                return from < to ? to - 1 : -1;
+            }
+            int row = offset + y * scanlineStride;
+            for (int x = to - 1; x >= from; x--) {
+                if (!matches(row + x * pixelStride)) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Any other image, read a row at a time through its color model.
+     */
+    private static final class RgbRowScanner extends RowScanner {
+        private final BufferedImage image;
+        private final int argb;
+        private final int[] row;
+        private int rowY = -1;
+
+        private RgbRowScanner(BufferedImage image, int argb) {
+            this.image = image;
+            this.argb = argb;
+            this.row = new int[image.getWidth()];
+        }
+
+        private int[] row(int y) {
+            if (y != rowY) {
+                image.getRGB(0, y, row.length, 1, row, 0, row.length);
+                rowY = y;
+            }
+            return row;
+        }
+
+        @Override
+        int firstMismatch(int y, int from, int to) {
+            int[] pixels = row(y);
+            for (int x = from; x < to; x++) {
+                if (pixels[x] != argb) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int lastMismatch(int y, int from, int to) {
+            int[] pixels = row(y);
+            for (int x = to - 1; x >= from; x--) {
+                if (pixels[x] != argb) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -25,21 +25,39 @@ import org.geotools.api.feature.type.FeatureType;
 import org.geotools.api.filter.expression.Expression;
 import org.geotools.api.filter.expression.Literal;
 import org.geotools.api.style.*;
-import org.geotools.geometry.jts.LiteShape2;
 import org.geotools.map.FeatureLayer;
 import org.geotools.renderer.lite.MetaBufferEstimator;
-import org.geotools.renderer.lite.StyledShapePainter;
 import org.geotools.renderer.style.SLDStyleFactory;
-import org.geotools.renderer.style.Style2D;
 import org.geotools.styling.visitor.RescaleStyleVisitor;
 import org.geotools.util.NumberRange;
+import org.legend.options.LegendBuilderOptions;
 import org.legend.options.LegendOptions;
+import org.legend.utils.metrics.LayerRenderEvent;
+import org.legend.utils.metrics.LegendBuildEvent;
+import org.legend.utils.metrics.LegendMergeEvent;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+import org.legend.utils.metrics.RuleRenderEvent;
 
+import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
@@ -63,19 +81,30 @@ import java.util.function.Function;
 public class BufferedImageLegendGraphicBuilder extends LegendGraphicBuilder {
 
     /**
-     * Singleton shape painter to serve all legend requests. We can use a single shape painter
-     * instance as long as it remains thread safe.
+     * Minimum number of rules rendered by a task when the rules of a layer are rendered in parallel.
      */
-    private static final StyledShapePainter shapePainter = new StyledShapePainter();
+    private static final int MIN_RULES_PER_CHUNK = 16;
 
     /**
      * Default constructor. Subclasses may provide its own with a String parameter to establish its
      * desired output format, if they support more than one (e.g. a JAI based one)
+     *
+     * <p>The builder is immutable: all the state of a request lives in a {@link LegendRenderContext},
+     * so a single instance can be shared by concurrent requests.
      */
     public BufferedImageLegendGraphicBuilder() {
         super();
     }
 
+    /**
+     * Creates a builder with the given configuration.
+     *
+     * @param builderOptions the configuration of the builder, like the rule count from which rules are rendered in parallel
+     */
+    public BufferedImageLegendGraphicBuilder(LegendBuilderOptions builderOptions) {
+        super(builderOptions);
+    }
+
     /**
      * Takes a featureLayerList and legendOptions and produces a BufferedImage.
      *
@@ -85,226 +114,926 @@ public class BufferedImageLegendGraphicBuilder extends LegendGraphicBuilder {
      * @throws Exception if there are problems creating a "sample" feature instance for the FeatureType returns as the required layer (which should not occur).
      */
     public BufferedImage buildLegendGraphic(List<FeatureLayer> featureLayerList, LegendOptions legendOptions) throws Exception {
-        setup(legendOptions);
-        // list of images to be rendered for the layers (more than one if a layer list is given)
-        List<RenderedImage> layersImages = new ArrayList<>();
+        return buildLegendGraphic(featureLayerList, legendOptions, null);
+    }
 
-        for (FeatureLayer featureLayer : featureLayerList) {
-            // style and rule to use for the current layer
-            Style gt2Style = featureLayer.getStyle();
-            if (gt2Style == null) {
-                throw new NullPointerException("There is no style in featureLayer");
+    /**
+     * Takes a featureLayerList and legendOptions and produces a BufferedImage, rendering the
+     * sub-legend of every layer as a separate task of the given executor.
+     *
+     * <p>The sub-legends are merged in the order of <code>featureLayerList</code>, so the result is
+     * identical to the one of the sequential {@link #buildLegendGraphic(List, LegendOptions)}. A
+     * {@link java.util.concurrent.ForkJoinPool} or a virtual-thread executor is a good fit, the
+     * calling thread waits for the layer tasks to complete.
+     *
+     * <p>When the builder has a {@link LegendCache} and the same request has already been served,
+     * the cached legend is decoded instead of being rendered again. When the builder has a {@link
+     * LegendRequestCoalescer} and the same request is being rendered, the legend of that request is
+     * copied instead of being rendered again.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options map that can contain information like icon width, icon height, forceRuleLabelsOff, ...)
+     * @param executor         the executor rendering the layers, if null the layers are rendered by the calling thread
+     * @return the buffered image
+     * @throws Exception if there are problems creating a "sample" feature instance for the FeatureType returns as the required layer (which should not occur).
+     */
+    public BufferedImage buildLegendGraphic(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                                           ExecutorService executor) throws Exception {
+        final LegendCache legendCache = builderOptions.getLegendCache();
+        final LegendRequestCoalescer coalescer = builderOptions.getRequestCoalescer();
+        if (legendCache == null && coalescer == null) {
+            return renderLegendGraphic(featureLayerList, legendOptions, executor, null);
+        }
+        LegendFingerprint fingerprint = getFingerprint(featureLayerList, legendOptions);
+        if (legendCache != null) {
+            byte[] png = getCachedPng(legendCache, fingerprint);
+            if (png != null) {
+                return toRgb(ImageIO.read(new ByteArrayInputStream(png)));
+            }
+        }
+        Callable<BufferedImage> render = () -> {
+            BufferedImage legend = renderLegendGraphic(featureLayerList, legendOptions, executor, null);
+            if (legendCache != null) {
+                legendCache.put(fingerprint, encodePng(legend));
+            }
+            return legend;
+        };
+        if (coalescer == null) {
+            return render.call();
+        }
+        // the legend is shared by the coalesced requests, every caller gets its own copy
+        return copyImage(coalescer.execute(fingerprint.getKey() + "/image", render));
+    }
+
+    /**
+     * Takes a featureLayerList and legendOptions and produces the legend encoded as PNG.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @return the PNG bytes of the legend
+     * @throws Exception if the legend could not be rendered
+     */
+    public byte[] buildLegendPng(List<FeatureLayer> featureLayerList, LegendOptions legendOptions) throws Exception {
+        return buildLegendPng(featureLayerList, legendOptions, null);
+    }
+
+    /**
+     * Takes a featureLayerList and legendOptions and produces the legend encoded as PNG. When the
+     * builder has a {@link LegendCache} and the same request has already been served, the cached
+     * PNG is returned without rendering anything. When the builder has a {@link
+     * LegendRequestCoalescer} and the same request is being rendered, its PNG is returned.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @param executor         the executor rendering the layers, if null the layers are rendered by the calling thread
+     * @return the PNG bytes of the legend
+     * @throws Exception if the legend could not be rendered
+     */
+    public byte[] buildLegendPng(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                                 ExecutorService executor) throws Exception {
+        if (builderOptions.getLegendCache() == null && builderOptions.getRequestCoalescer() == null) {
+            return encodePng(renderLegendGraphic(featureLayerList, legendOptions, executor, null));
+        }
+        // the cached or coalesced bytes are shared, the caller gets its own copy
+        return getSharedPng(featureLayerList, legendOptions, executor, null).clone();
+    }
+
+    /**
+     * Takes a featureLayerList and legendOptions and writes the legend encoded as PNG to a stream.
+     * Without {@link LegendCache} nor {@link LegendRequestCoalescer} the PNG is streamed as it is
+     * encoded. The stream is flushed but not closed.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @param executor         the executor rendering the layers, if null the layers are rendered by the calling thread
+     * @param out              the stream receiving the PNG
+     * @throws Exception if the legend could not be rendered
+     */
+    public void buildLegendPng(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                               ExecutorService executor, OutputStream out) throws Exception {
+        LegendUtils.ensureNotNull(out, "out");
+        if (builderOptions.getLegendCache() == null && builderOptions.getRequestCoalescer() == null) {
+            BufferedImage legend = renderLegendGraphic(featureLayerList, legendOptions, executor, null);
+            final long start = System.nanoTime();
+            getPngEncoder().encode(legend, out);
+            LegendMetricsRegistry.getMetrics().recordSince(LegendMetrics.Stage.ENCODE, start);
+            return;
+        }
+        out.write(getSharedPng(featureLayerList, legendOptions, executor, null));
+        out.flush();
+    }
+
+    /**
+     * Produces the legend encoded as PNG through the legend cache and the request coalescer of the
+     * builder, at least one of them being set.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @param executor         the executor rendering the layers, if null the layers are rendered by the calling thread
+     * @param batch            the resources of the batch of the request, null outside of a batch
+     * @return the PNG bytes, shared with the cache and the coalesced requests: they must not be modified
+     */
+    private byte[] getSharedPng(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                                ExecutorService executor, LegendBatchResources batch) throws Exception {
+        final LegendCache legendCache = builderOptions.getLegendCache();
+        final LegendRequestCoalescer coalescer = builderOptions.getRequestCoalescer();
+        LegendFingerprint fingerprint = getFingerprint(featureLayerList, legendOptions);
+        if (legendCache != null) {
+            byte[] png = getCachedPng(legendCache, fingerprint);
+            if (png != null) {
+                return png;
+            }
+        }
+        Callable<byte[]> render = () -> {
+            byte[] png = encodePng(renderLegendGraphic(featureLayerList, legendOptions, executor, batch));
+            if (legendCache != null) {
+                legendCache.put(fingerprint, png);
+            }
+            return png;
+        };
+        return coalescer != null ? coalescer.execute(fingerprint.getKey() + "/png", render) : render.call();
+    }
+
+    /**
+     * Renders the legends of many requests, as PNG, sharing the rendering resources between them:
+     * the style factory of every thread, the sample feature of every schema and the rules of every
+     * style. Every legend is given to the listener as soon as it is rendered, and the method returns
+     * once all the jobs are done.
+     *
+     * <p>Every job is rendered by a single task of the executor, its layers are not split in other
+     * tasks. A failed job is given to {@link LegendBatchListener#onFailure} and does not stop the
+     * batch. The legend cache and the request coalescer of the builder, if any, serve the jobs as
+     * they serve single requests. The styles of the jobs must not be modified while the batch runs.
+     *
+     * @param jobs     the legends to render
+     * @param executor the executor rendering the jobs, if null the jobs are rendered by the calling thread
+     * @param listener receives the legends
+     * @return the counts and the throughput of the batch
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the jobs,
+     *                              the jobs not started yet are cancelled
+     */
+    public LegendBatchReport buildLegendBatch(List<LegendBatchJob> jobs, ExecutorService executor,
+                                              LegendBatchListener listener) throws InterruptedException {
+        LegendUtils.ensureNotNull(jobs, "jobs");
+        LegendUtils.ensureNotNull(listener, "listener");
+        final long start = System.nanoTime();
+        final LegendBatchResources batch = new LegendBatchResources();
+        final AtomicInteger successCount = new AtomicInteger();
+        final AtomicInteger failureCount = new AtomicInteger();
+        final AtomicLong totalBytes = new AtomicLong();
+        List<Runnable> tasks = new ArrayList<>(jobs.size());
+        for (LegendBatchJob job : jobs) {
+            tasks.add(() -> {
+                try {
+                    byte[] png = buildBatchPng(job, batch);
+                    listener.onLegend(job, png);
+                    successCount.incrementAndGet();
+                    totalBytes.addAndGet(png.length);
+                } catch (Exception e) {
+                    failureCount.incrementAndGet();
+                    listener.onFailure(job, e);
+                }
+            });
+        }
+
+        if (executor == null) {
+            for (Runnable task : tasks) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                task.run();
+            }
+        } else {
+            List<Future<?>> futures = new ArrayList<>(tasks.size());
+            try {
+                for (Runnable task : tasks) {
+                    futures.add(executor.submit(task));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // only an error escapes a task, the exceptions are given to the listener
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            } finally {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
             }
+        }
+        return new LegendBatchReport(jobs.size(), successCount.get(), failureCount.get(), totalBytes.get(),
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Renders the legend of a job of a batch as PNG.
+     *
+     * @param job   the job
+     * @param batch the resources of the batch
+     * @return the PNG bytes, owned by the caller
+     */
+    private byte[] buildBatchPng(LegendBatchJob job, LegendBatchResources batch) throws Exception {
+        if (builderOptions.getLegendCache() == null && builderOptions.getRequestCoalescer() == null) {
+            return encodePng(renderLegendGraphic(job.getFeatureLayers(), job.getLegendOptions(), null, batch));
+        }
+        return getSharedPng(job.getFeatureLayers(), job.getLegendOptions(), null, batch).clone();
+    }
+
+    /**
+     * Renders the icons of all the rules of the layers and packs them into a {@link SpriteAtlas}
+     * instead of stacking them in a legend.
+     *
+     * <p>An icon is named after the label of its rule (its title, otherwise its name), or after the
+     * layer and the position of the rule when the rule has no label. A suffix is added to the names
+     * used more than once.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options, giving the size of the icons
+     * @return the atlas of the icons
+     * @throws Exception if the icons could not be rendered
+     */
+    public SpriteAtlas buildSpriteAtlas(List<FeatureLayer> featureLayerList, LegendOptions legendOptions) throws Exception {
+        final LegendRenderContext context = setup(legendOptions, null);
+        try {
+            Map<String, RenderedImage> icons = new LinkedHashMap<>();
+            for (FeatureLayer featureLayer : featureLayerList) {
+                LayerLegend layerLegend = renderLayer(context, featureLayer);
+                String layerName = featureLayer.getFeatureSource().getSchema().getName().getLocalPart();
+                for (int i = 0; i < layerLegend.icons.size(); i++) {
+                    String name = LegendUtils.getRuleLabel(layerLegend.rules.get(i));
+                    if (name.isEmpty()) {
+                        name = layerName + "-" + i;
+                    }
+                    String uniqueName = name;
+                    for (int n = 2; icons.containsKey(uniqueName); n++) {
+                        uniqueName = name + "-" + n;
+                    }
+                    icons.put(uniqueName, layerLegend.icons.get(i));
+                }
+            }
+            return SpriteAtlas.pack(icons);
+        } finally {
+            // the icons have been drawn into the atlas, or the packing failed. The icons are all
+            // painted by the calling thread, none is still being painted
+            context.releaseCanvases();
+        }
+    }
+
+    /**
+     * Converts a decoded legend, which may be paletted, to the RGB type of a rendered legend.
+     *
+     * @param legend the decoded legend
+     * @return the legend as a TYPE_INT_RGB image
+     */
+    private static BufferedImage toRgb(BufferedImage legend) {
+        if (legend.getType() == BufferedImage.TYPE_INT_RGB) {
+            return legend;
+        }
+        BufferedImage rgb = new BufferedImage(legend.getWidth(), legend.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(legend, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+
+    /**
+     * Copies a legend shared by coalesced requests.
+     *
+     * @param legend the shared legend
+     * @return a copy of the legend, of the same type
+     */
+    private static BufferedImage copyImage(BufferedImage legend) {
+        return new BufferedImage(legend.getColorModel(), legend.copyData(null), legend.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Encodes a legend as PNG.
+     *
+     * @param legend the legend
+     * @return the PNG bytes
+     */
+    private byte[] encodePng(BufferedImage legend) throws IOException {
+        final long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        getPngEncoder().encode(legend, out);
+        LegendMetricsRegistry.getMetrics().recordSince(LegendMetrics.Stage.ENCODE, start);
+        return out.toByteArray();
+    }
+
+    /**
+     * Looks a legend up in the legend cache, counting the hits and the misses.
+     *
+     * @param legendCache the legend cache
+     * @param fingerprint the fingerprint of the request
+     * @return the cached PNG, or null if the legend is not in the cache
+     */
+    private static byte[] getCachedPng(LegendCache legendCache, LegendFingerprint fingerprint) {
+        byte[] png = legendCache.get(fingerprint);
+        LegendMetricsRegistry.getMetrics().increment(png != null
+                ? LegendMetrics.Counter.LEGEND_CACHE_HITS : LegendMetrics.Counter.LEGEND_CACHE_MISSES);
+        return png;
+    }
+
+    /**
+     * Computes the fingerprint under which the builder caches and coalesces the legend of a request.
+     * Besides the request, it covers the settings of the builder that change the rendered legend:
+     * the layout engine and the PNG encoder.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @return the fingerprint of the request for this builder
+     */
+    public LegendFingerprint getFingerprint(List<FeatureLayer> featureLayerList, LegendOptions legendOptions) throws IOException {
+        return LegendFingerprint.of(featureLayerList, legendOptions,
+                "singlePassLayout=" + builderOptions.isSinglePassLayout() + ", " + getPngEncoder());
+    }
 
-            final FeatureTypeStyle[] ftStyles = gt2Style.featureTypeStyles().toArray(new FeatureTypeStyle[0]);
-            Rule[] rules = LegendUtils.getRules1(ftStyles);
-
-            List<Rule> ruleListNew = new ArrayList<>(Arrays.asList(rules));
-
-//            if (!legendOptions.isShowAllRules()) {
-//                FeatureSource<?, ?> featureSource = featureLayer.getFeatureSource();
-//
-//                FeatureCollection<SimpleFeatureType, SimpleFeature> features = (FeatureCollection<SimpleFeatureType, SimpleFeature>) featureSource.getFeatures();
-//                FeatureIterator<SimpleFeature> featureIterator = features.features();
-//                Set<Object> uniqueTypes = new HashSet<>();
-//                while (featureIterator.hasNext()) {
-//                    SimpleFeature feature = featureIterator.next();
-//                    Object typeValue = feature.getAttribute("Geobody_Name");    // TODO 硬编码，这块太灵活了，不好解决
-//                    if (typeValue != null) {
-//                        uniqueTypes.add(typeValue);
-//                    }
-//                }
-//                featureIterator.close();
-//
-//                Iterator<Rule> iterator = ruleListNew.iterator();
-//                while (iterator.hasNext()) {
-//                    Rule rule = iterator.next();
-//                    if (!uniqueTypes.contains(rule.getName())) {
-//                        iterator.remove();
-//                    }
-//                }
-//            }
-
-
-            rules = ruleListNew.toArray(new Rule[0]);
-
-            RenderedImage titleImage = null;
-            // we put a title on top of each style legend
-            if (!forceTitlesOff) {
-                titleImage = getLayerTitle(featureLayer, width, height, isTransparent, legendOptions);
+    /**
+     * @return the PNG encoder of the builder options, the default one if they do not provide any
+     */
+    private PngEncoder getPngEncoder() {
+        PngEncoder encoder = builderOptions.getPngEncoder();
+        return encoder != null ? encoder : PngEncoder.getDefault();
+    }
+
+    /**
+     * Renders the legend of the layers, without looking at the legend cache.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @param executor         the executor rendering the layers, if null the layers are rendered by the calling thread
+     * @param batch            the resources of the batch of the request, null outside of a batch
+     * @return the buffered image
+     */
+    private BufferedImage renderLegendGraphic(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                                              ExecutorService executor, LegendBatchResources batch) throws Exception {
+        final LegendBuildEvent event = new LegendBuildEvent();
+        event.start();
+        // the rendered rules of every layer, in the order of the layers
+        List<LayerLegend> layerLegends = new ArrayList<>(featureLayerList.size());
+        // the context of the request, resolving its render profile once and leasing its icon canvases
+        final LegendRenderContext requestContext = setup(legendOptions, executor);
+        requestContext.batchResources = batch;
+
+        if (executor == null || featureLayerList.size() < 2) {
+            for (FeatureLayer featureLayer : featureLayerList) {
+                layerLegends.add(renderLayer(requestContext, featureLayer));
             }
+        } else {
+            List<Future<LayerLegend>> layerTasks = new ArrayList<>(featureLayerList.size());
+            try {
+                for (FeatureLayer featureLayer : featureLayerList) {
+                    // every task gets its own fork, the cached sample shapes are not shared between threads
+                    final LegendRenderContext context = requestContext.fork();
+                    layerTasks.add(executor.submit(() -> renderLayer(context, featureLayer)));
+                }
+                for (Future<LayerLegend> layerTask : layerTasks) {
+                    layerLegends.add(getResult(layerTask));
+                }
+            } finally {
+                for (Future<LayerLegend> layerTask : layerTasks) {
+                    layerTask.cancel(true);
+                }
+            }
+        }
 
-            /*
-             * Default minimum size for symbols rendering.
-             */
-            double minimumSymbolSize = 3.0;
-
-            // calculate the symbols rescaling factor necessary for them to be
-            // drawn inside the icon box
-            int defaultSize = Math.min(width, height);
-
-            FeatureType featureType = featureLayer.getFeatureSource().getSchema();
-            Feature sampleFeature = createSampleFeature(featureType);
-            double[] minMax = calcSymbolSize(defaultSize, minimumSymbolSize, sampleFeature, rules);
-            boolean rescalingRequired = false;
-            java.util.function.Function<Double, Double> rescaler = size -> (size / minMax[1]) * defaultSize;
-
-            final SLDStyleFactory styleFactory = new SLDStyleFactory();
-            final double scaleDenominator = -1.0;
-            final NumberRange<Double> scaleRange = NumberRange.create(scaleDenominator, scaleDenominator);
-            final int ruleCount = rules.length;
-            final List<RenderedImage> legendsStack = new ArrayList<>(ruleCount);
-            renderRules(
-                    layersImages,
-                    forceLabelsOn,
-                    forceLabelsOff,
-                    isTransparent,
-                    titleImage,
-                    sampleFeature,
-                    rules,
-                    scaleRange,
-                    ruleCount,
-                    legendsStack,
-                    styleFactory,
-                    minimumSymbolSize,
-                    rescalingRequired,
-                    rescaler, legendOptions);
+        final LegendMetrics metrics = LegendMetricsRegistry.getMetrics();
+        metrics.increment(LegendMetrics.Counter.LAYERS, featureLayerList.size());
+        final long start = System.nanoTime();
+        BufferedImage legend = composeLegend(layerLegends, requestContext);
+        metrics.recordSince(LegendMetrics.Stage.MERGE, start);
+        metrics.increment(LegendMetrics.Counter.OUTPUT_PIXELS, (long) legend.getWidth() * legend.getHeight());
+        // the icons are drawn into the legend, the canvases leased by the request and its forks can be
+        // reused. They are not released when the rendering failed: a cancelled task may still be painting on them
+        requestContext.releaseCanvases();
+        if (event.isEnabled()) {
+            int ruleCount = 0;
+            for (LayerLegend layerLegend : layerLegends) {
+                ruleCount += layerLegend.rules.size();
+            }
+            event.finish(getStyleNames(featureLayerList), featureLayerList.size(), ruleCount, legend.getWidth(),
+                    legend.getHeight());
         }
+        return legend;
+    }
+
+    /**
+     * @param featureLayerList feature layer list
+     * @return the names of the styles of the layers, comma separated
+     */
+    private static String getStyleNames(List<FeatureLayer> featureLayerList) {
+        StringJoiner styleNames = new StringJoiner(",");
+        for (FeatureLayer featureLayer : featureLayerList) {
+            Style style = featureLayer.getStyle();
+            styleNames.add(style != null ? String.valueOf(style.getName()) : "");
+        }
+        return styleNames.toString();
+    }
+
+    /**
+     * Composes the rendered rules of the layers into the legend.
+     *
+     * @param layerLegends the rendered rules of the layers
+     * @param context      the render context of the request
+     * @return the legend, margin included
+     */
+    private BufferedImage composeLegend(List<LayerLegend> layerLegends, LegendRenderContext context) throws Exception {
+        final LegendOptions legendOptions = context.getLegendOptions();
+        final LegendRenderProfile profile = context.getProfile();
+        if (builderOptions.isSinglePassLayout()) {
+            return layoutLegend(layerLegends, legendOptions, profile);
+        }
+
+        // list of images to be rendered for the layers (more than one if a layer list is given)
+        List<RenderedImage> layersImages = new ArrayList<>();
+        for (LayerLegend layerLegend : layerLegends) {
+            layersImages.addAll(mergeLayer(layerLegend, legendOptions, profile));
+        }
+
         // all legend graphics are merged if we have a layer group
-        BufferedImage finalLegend = mergeGroups(layersImages, forceLabelsOn, forceLabelsOff, legendOptions);
+        BufferedImage finalLegend = mergeGroups(layersImages, forceLabelsOn, forceLabelsOff, legendOptions, profile);
         if (finalLegend == null) {
             throw new IllegalArgumentException("no legend passed");
         }
+        return addMarge(finalLegend, profile);
+    }
 
-        // create marge
-        BufferedImage BufferedImageForMarge = new BufferedImage(finalLegend.getWidth() + marge * 2, finalLegend.getHeight() + marge * 2, BufferedImage.TYPE_INT_RGB);
-        Graphics g = BufferedImageForMarge.getGraphics();
-        g.setColor(LegendUtils.getBackgroundColor(legendOptions));
-        g.fillRect(0, 0, finalLegend.getWidth() + marge * 2, finalLegend.getHeight() + marge * 2);
-        g.drawImage(finalLegend, marge, marge, null);
+    /**
+     * Lays out the rendered rules of the layers with the {@link LegendLayoutEngine}, the legend is
+     * drawn in a single image.
+     *
+     * @param layerLegends  the rendered rules of the layers
+     * @param legendOptions the legend options
+     * @param profile       the render profile of the legend options
+     * @return the legend, margin included
+     */
+    private BufferedImage layoutLegend(List<LayerLegend> layerLegends, LegendOptions legendOptions,
+                                       LegendRenderProfile profile) throws Exception {
+        final LegendMergeEvent event = new LegendMergeEvent();
+        event.start();
+        LegendLayoutEngine engine = new LegendLayoutEngine(legendOptions, profile);
+        int entryCount = 0;
+        List<LegendLayoutEngine.Layer<RenderedImage>> layers = new ArrayList<>(layerLegends.size());
+        for (LayerLegend layerLegend : layerLegends) {
+            List<LegendLayoutEngine.Entry<RenderedImage>> entries = new ArrayList<>(layerLegend.icons.size());
+            for (int i = 0; i < layerLegend.icons.size(); i++) {
+                RenderedImage icon = layerLegend.icons.get(i);
+                String label = forceLabelsOff ? null : LegendUtils.getRuleLabel(layerLegend.rules.get(i));
+                entries.add(new LegendLayoutEngine.Entry<>(icon, icon.getWidth(), icon.getHeight(), label,
+                        BlankDetector.isUniform((BufferedImage) icon, profile.getBackgroundRGB())));
+            }
+            layers.add(new LegendLayoutEngine.Layer<>(layerLegend.title, entries));
+            entryCount += entries.size();
+        }
+        BufferedImage legend = engine.render(engine.layout(layers));
+        event.finish("layout", entryCount, entryCount, legend.getWidth(), legend.getHeight());
+        return legend;
+    }
 
-        return BufferedImageForMarge;
+    /**
+     * Merges the rendered rules of a layer into images with {@link LegendMerger}.
+     *
+     * @param layerLegend   the rendered rules of the layer
+     * @param legendOptions the legend options
+     * @param profile       the render profile of the legend options
+     * @return the title image followed by the merged image of the rules, empty if the layer has no icon
+     */
+    private List<RenderedImage> mergeLayer(LayerLegend layerLegend, LegendOptions legendOptions,
+                                           LegendRenderProfile profile) throws Exception {
+        List<RenderedImage> layersImages = new ArrayList<>(2);
+        if (layerLegend.icons.isEmpty()) {
+            return layersImages;
+        }
+        if (layerLegend.title != null) {
+            final BufferedImage image = ImageUtils.createImage(legendOptions.getWidth(), legendOptions.getHeight(), null,
+                    legendOptions.isTransparent());
+            layersImages.add(LegendMerger.getRenderedLabel(image, layerLegend.title, legendOptions,
+                    builderOptions.getLabelRasterCache(), profile));
+        }
+        LegendMerger.MergeOptions options = LegendMerger.MergeOptions.createFromOptions(layerLegend.icons, 0, forceLabelsOn,
+                forceLabelsOff, legendOptions, builderOptions.getLabelRasterCache(), profile);
+        BufferedImage image = LegendMerger.mergeLegends(layerLegend.rules.toArray(new Rule[0]), options, legendOptions);
+        if (image != null) {
+            layersImages.add(image);
+        }
+        return layersImages;
     }
 
     /**
-     * Renders a title for a layer (to be put on top of the layer legend).
+     * Waits for a task and unwraps the exception it may have thrown.
      *
-     * @param featureLayer  FeatureType representing the layer
-     * @param w             width for the image (hint)
-     * @param h             height for the image (hint)
-     * @param transparent   (should the image be transparent)
-     * @param legendOptions legendOptions like horizontalMarginBetweenLayers, ruleLabelMargin, ...
-     * @return the title image
+     * @param task the task
+     * @return the result of the task
      */
-    private RenderedImage getLayerTitle(FeatureLayer featureLayer, int w, int h, boolean transparent,
-                                        LegendOptions legendOptions) {
-        String title;
-        // checks layer title, otherwise style title
-        String inputTitle = legendOptions.getTitle();
-        if (inputTitle != null && !inputTitle.isEmpty()) {
-            title = inputTitle;
-        } else if (featureLayer.getTitle() != null) {
-            title = featureLayer.getTitle();
-        } else {
-            title = "图例";
+    private static <T> T getResult(Future<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Renders the sub-legend of a layer: its title and the icons of its rules.
+     *
+     * @param context      the render context of the current request
+     * @param featureLayer the layer
+     * @return the title and the rendered rules of the layer, without any rule if no rule could be rendered
+     */
+    private LayerLegend renderLayer(final LegendRenderContext context, FeatureLayer featureLayer) throws Exception {
+        final LayerRenderEvent event = new LayerRenderEvent();
+        event.start();
+        final LegendOptions legendOptions = context.getLegendOptions();
+        final int width = context.getWidth();
+        final int height = context.getHeight();
+
+        // rules to use for the current layer
+        final Rule[] rules = getLayerRules(context, featureLayer);
+
+        String title = null;
+        // we put a title on top of each style legend
+        if (!forceTitlesOff) {
+            title = getLayerTitle(featureLayer, legendOptions);
+        }
+
+        /*
+         * Default minimum size for symbols rendering.
+         */
+        double minimumSymbolSize = 3.0;
+
+        // calculate the symbols rescaling factor necessary for them to be
+        // drawn inside the icon box
+        int defaultSize = Math.min(width, height);
+
+        final LegendMetrics metrics = LegendMetricsRegistry.getMetrics();
+        metrics.increment(LegendMetrics.Counter.RULES, rules.length);
+        FeatureType featureType = featureLayer.getFeatureSource().getSchema();
+        long start = System.nanoTime();
+        Feature sampleFeature = getSampleFeature(context, featureType);
+        metrics.recordSince(LegendMetrics.Stage.SAMPLE_FEATURE, start);
+        start = System.nanoTime();
+        double[] minMax = calcSymbolSize(defaultSize, minimumSymbolSize, sampleFeature, rules);
+        metrics.recordSince(LegendMetrics.Stage.SYMBOL_SIZE, start);
+        boolean rescalingRequired = false;
+        java.util.function.Function<Double, Double> rescaler = size -> (size / minMax[1]) * defaultSize;
+
+        final SLDStyleFactory styleFactory = getStyleFactory(context);
+        final double scaleDenominator = -1.0;
+        final NumberRange<Double> scaleRange = NumberRange.create(scaleDenominator, scaleDenominator);
+        final RenderedImage[] ruleImages = renderRules(
+                context,
+                sampleFeature,
+                rules,
+                scaleRange,
+                styleFactory,
+                minimumSymbolSize,
+                rescalingRequired,
+                rescaler);
+
+        // keep the rules aligned with their icons, the labels are computed from them
+        LayerLegend layerLegend = new LayerLegend(title, rules.length);
+        for (int i = 0; i < rules.length; i++) {
+            if (ruleImages[i] != null) {
+                layerLegend.rules.add(rules[i]);
+                layerLegend.icons.add(ruleImages[i]);
+            }
+        }
+        if (event.isEnabled()) {
+            Style style = featureLayer.getStyle();
+            event.finish(style != null ? style.getName() : null, featureLayer.getTitle(), rules.length, width, height);
         }
-        final BufferedImage image = ImageUtils.createImage(w, h, null, transparent);
-        return LegendMerger.getRenderedLabel(image, title, legendOptions);
+        return layerLegend;
     }
 
     /**
-     * Create images and add them in the layersImages.
+     * Returns the rules of a layer to show in the legend. In a batch showing all the rules, the
+     * rules of a style are computed once for all the jobs.
      *
-     * @param legendOptions     legendOptions like horizontalMarginBetweenLayers, ruleLabelMargin, ...
-     * @param layersImages      layersImages
-     * @param forceLabelsOn     forceLabelsOn
-     * @param forceLabelsOff    forceLabelsOff
-     * @param transparent       transparent
-     * @param titleImage        titleImage
+     * @param context      the render context of the current request
+     * @param featureLayer the layer
+     * @return the rules, in the order of the style
+     */
+    private Rule[] getLayerRules(LegendRenderContext context, FeatureLayer featureLayer) throws IOException {
+        final LegendOptions legendOptions = context.getLegendOptions();
+        final LegendBatchResources batch = context.batchResources;
+        final Style style = featureLayer.getStyle();
+        // the rules present in the data depend on the layer, not only on its style
+        if (batch == null || style == null || !legendOptions.isShowAllRules()) {
+            return getLegendRules(featureLayer, legendOptions);
+        }
+        Rule[] rules = batch.getRules(style);
+        if (rules == null) {
+            rules = getLegendRules(featureLayer, legendOptions);
+            batch.putRules(style, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * Returns the sample feature of a schema, created once for all the jobs of a batch.
+     *
+     * @param context     the render context of the current request
+     * @param featureType the schema of the layer
+     * @return the sample feature, null if the schema has a generic geometry
+     */
+    private Feature getSampleFeature(LegendRenderContext context, FeatureType featureType) throws Exception {
+        final LegendBatchResources batch = context.batchResources;
+        Feature sampleFeature = batch != null ? batch.getSampleFeature(featureType) : null;
+        if (sampleFeature == null) {
+            sampleFeature = createSampleFeature(featureType);
+            if (batch != null && sampleFeature != null) {
+                batch.putSampleFeature(featureType, sampleFeature);
+            }
+        }
+        return sampleFeature;
+    }
+
+    /**
+     * @param context the render context of the current thread
+     * @return a style factory for the current thread, reused by the jobs of a batch running on it
+     */
+    private static SLDStyleFactory getStyleFactory(LegendRenderContext context) {
+        return context.batchResources != null ? context.batchResources.getStyleFactory() : new SLDStyleFactory();
+    }
+
+    /**
+     * Surrounds the legend with a margin filled with the background color.
+     *
+     * @param finalLegend the merged legend
+     * @param profile     the render profile of the legend options
+     * @return the legend with its margin
+     */
+    private BufferedImage addMarge(BufferedImage finalLegend, LegendRenderProfile profile) {
+        BufferedImage BufferedImageForMarge = new BufferedImage(finalLegend.getWidth() + marge * 2, finalLegend.getHeight() + marge * 2, BufferedImage.TYPE_INT_RGB);
+        Graphics g = BufferedImageForMarge.getGraphics();
+        g.setColor(profile.getBackgroundColor());
+        g.fillRect(0, 0, finalLegend.getWidth() + marge * 2, finalLegend.getHeight() + marge * 2);
+        g.drawImage(finalLegend, marge, marge, null);
+
+        return BufferedImageForMarge;
+    }
+
+    /**
+     * Renders the icons of the rules of a layer.
+     *
+     * <p>When the request has an executor and the layer has at least {@link
+     * LegendBuilderOptions#getParallelRuleThreshold()} rules, the rule icons are rendered in
+     * parallel chunks. The icons are put back in the order of the rules.
+     *
+     * @param context           the render context of the current request
      * @param sampleFeature     sampleFeature
      * @param applicableRules   applicableRules
      * @param scaleRange        scaleRange
-     * @param ruleCount         ruleCount
-     * @param legendsStack      legendsStack
      * @param styleFactory      styleFactory
      * @param minimumSymbolSize minimumSymbolSize
      * @param rescalingRequired rescalingRequired
      * @param rescaler          rescaler
+     * @return the icons of the rules, null for a rule without any symbolizer to paint
      */
-    private void renderRules(
-            List<RenderedImage> layersImages,
-            boolean forceLabelsOn,
-            boolean forceLabelsOff,
-            final boolean transparent,
-            RenderedImage titleImage,
+    private RenderedImage[] renderRules(
+            final LegendRenderContext context,
             final Feature sampleFeature,
             Rule[] applicableRules,
             final NumberRange<Double> scaleRange,
-            final int ruleCount,
-            final List<RenderedImage> legendsStack,
             final SLDStyleFactory styleFactory,
             double minimumSymbolSize,
             boolean rescalingRequired,
-            Function<Double, Double> rescaler, LegendOptions legendOptions) throws Exception {
-        MetaBufferEstimator estimator = new MetaBufferEstimator(sampleFeature);
-        for (int i = 0; i < ruleCount; i++) {
-            final RenderedImage image = ImageUtils.createImage(legendOptions.getWidth(), legendOptions.getHeight(), null, transparent);
-            final Map<RenderingHints.Key, Object> hintsMap = new HashMap<>();
-            final Graphics2D graphics = ImageUtils.prepareTransparency(transparent, LegendUtils.getBackgroundColor(legendOptions), image, hintsMap);
-            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            final List<Symbolizer> symbolizers = applicableRules[i].symbolizers();
-
-            for (Symbolizer symbolizer : symbolizers) {
-                // skip raster symbolizers
-                if (!(symbolizer instanceof RasterSymbolizer)) {
-                    // rescale symbols if needed
-                    LiteShape2 shape = getSampleShape(symbolizer, legendOptions.getWidth(), legendOptions.getHeight(), legendOptions.getWidth(), legendOptions.getHeight());
-                    if (rescalingRequired && (symbolizer instanceof PointSymbolizer || symbolizer instanceof LineSymbolizer)) {
-                        double size = getSymbolizerSize(estimator, symbolizer, Math.min(width, height) - 4);
-                        double newSize = rescaler.apply(size);
-                        symbolizer = rescaleSymbolizer(symbolizer, size, newSize);
-                    } else if (symbolizer instanceof PolygonSymbolizer) {
-                        // need to make room for the stroke in the symbol, thus, a smaller rectangle
-                        double symbolizerSize = getSymbolizerSize(estimator, symbolizer, 0);
-                        int rescaledWidth = rescaleSize(minimumSymbolSize, width - symbolizerSize);
-                        int rescaledHeight = rescaleSize(minimumSymbolSize, height - symbolizerSize);
-                        shape = getSampleShape(symbolizer, rescaledWidth, rescaledHeight, width, height);
-                        symbolizer = rescaleSymbolizer(symbolizer, width, rescaledWidth);
-                    }
+            Function<Double, Double> rescaler) throws Exception {
+        final int ruleCount = applicableRules.length;
+        final RenderedImage[] ruleImages = new RenderedImage[ruleCount];
+        final int chunkCount = getRuleChunkCount(context, ruleCount);
+        if (chunkCount <= 1) {
+            renderRuleRange(context, applicableRules, 0, ruleCount, ruleImages, sampleFeature, scaleRange,
+                    styleFactory, minimumSymbolSize, rescalingRequired, rescaler);
+        } else {
+            final RuleChunks chunks = new RuleChunks(applicableRules, ruleImages, (ruleCount + chunkCount - 1) / chunkCount,
+                    sampleFeature, scaleRange, minimumSymbolSize, rescalingRequired, rescaler);
+            List<Future<?>> helperTasks = new ArrayList<>(chunks.chunkCount - 1);
+            try {
+                for (int i = 1; i < chunks.chunkCount; i++) {
+                    // SLDStyleFactory and the cached sample shapes are not thread safe, every helper has its own
+                    final LegendRenderContext chunkContext = context.fork();
+                    helperTasks.add(context.getExecutor().submit(() ->
+                            chunks.render(chunkContext, getStyleFactory(chunkContext))));
+                }
+                // the calling thread renders the chunks no helper has started yet, so it only waits for
+                // chunks being rendered and a bounded executor cannot deadlock on queued helpers
+                chunks.render(context, styleFactory);
+                chunks.await();
+            } finally {
+                for (Future<?> helperTask : helperTasks) {
+                    helperTask.cancel(false);
+                }
+            }
+        }
 
-                    Style2D style2d = styleFactory.createStyle(sampleFeature, symbolizer, scaleRange);
-                    if (style2d != null) {
-                        shapePainter.paint(graphics, shape, style2d, -1.0);
-                    }
-                    if (titleImage != null) {
-                        layersImages.add(titleImage);
-                        titleImage = null;
+        return ruleImages;
+    }
+
+    /**
+     * The chunks of the rules of a layer. The calling thread and the helper tasks claim the chunks one
+     * at a time, every chunk is rendered exactly once by the thread claiming it.
+     */
+    private final class RuleChunks {
+        private final Rule[] rules;
+        private final RenderedImage[] ruleImages;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final Feature sampleFeature;
+        private final NumberRange<Double> scaleRange;
+        private final double minimumSymbolSize;
+        private final boolean rescalingRequired;
+        private final Function<Double, Double> rescaler;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final CountDownLatch renderedChunks;
+        private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+        private RuleChunks(Rule[] rules, RenderedImage[] ruleImages, int chunkSize, Feature sampleFeature,
+                           NumberRange<Double> scaleRange, double minimumSymbolSize, boolean rescalingRequired,
+                           Function<Double, Double> rescaler) {
+            this.rules = rules;
+            this.ruleImages = ruleImages;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (rules.length + chunkSize - 1) / chunkSize;
+            this.sampleFeature = sampleFeature;
+            this.scaleRange = scaleRange;
+            this.minimumSymbolSize = minimumSymbolSize;
+            this.rescalingRequired = rescalingRequired;
+            this.rescaler = rescaler;
+            this.renderedChunks = new CountDownLatch(chunkCount);
+        }
+
+        /**
+         * Renders the chunks until none is left to claim. A failure is kept for {@link #await()},
+         * the remaining chunks are then claimed without being rendered.
+         *
+         * @param context      the render context of the current thread
+         * @param styleFactory a style factory used by the current thread only
+         */
+        private void render(LegendRenderContext context, SLDStyleFactory styleFactory) {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                try {
+                    if (failures.isEmpty()) {
+                        int from = chunk * chunkSize;
+                        renderRuleRange(context, rules, from, Math.min(rules.length, from + chunkSize), ruleImages,
+                                sampleFeature, scaleRange, styleFactory, minimumSymbolSize, rescalingRequired, rescaler);
                     }
-                    legendsStack.add(image);
-                    graphics.dispose();
+                } catch (Throwable t) {
+                    failures.add(t);
+                } finally {
+                    renderedChunks.countDown();
                 }
             }
         }
 
-        LegendMerger.MergeOptions options = LegendMerger.MergeOptions.createFromOptions(legendsStack, 0, forceLabelsOn,
-                forceLabelsOff, legendOptions);
-        if (ruleCount > 0) {
-            BufferedImage image = LegendMerger.mergeLegends(applicableRules, options, legendOptions);
-            if (image != null) {
-                layersImages.add(image);
+        /**
+         * Waits for the chunks claimed by the helper tasks and rethrows the first failure.
+         */
+        private void await() throws Exception {
+            renderedChunks.await();
+            Throwable failure = failures.peek();
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
             }
         }
     }
 
     /**
-     * Rescales the size
+     * Computes in how many chunks the rules of a layer are rendered.
      *
-     * @param minimumSymbolSize the minimum symbolizer size
-     * @param size              the size
-     * @return the rescaled size.
+     * @param context   the render context of the current request
+     * @param ruleCount the number of rules of the layer
+     * @return the number of chunks, 1 to render all the rules on the calling thread
      */
-    private int rescaleSize(double minimumSymbolSize, double size) {
-        return (int) Math.ceil(Math.max(minimumSymbolSize, size));
+    private int getRuleChunkCount(LegendRenderContext context, int ruleCount) {
+        ExecutorService executor = context.getExecutor();
+        if (executor == null || ruleCount < builderOptions.getParallelRuleThreshold()) {
+            return 1;
+        }
+        int parallelism = executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(parallelism, ruleCount / MIN_RULES_PER_CHUNK));
+    }
+
+    /**
+     * Renders the icons of the rules in [from, to) into the matching slots of ruleImages. The icon
+     * cache of the builder, if any, is looked up before painting a rule.
+     *
+     * @param context           the render context of the current thread
+     * @param rules             the rules of the layer
+     * @param from              index of the first rule to render
+     * @param to                index after the last rule to render
+     * @param ruleImages        the icons of the rules, null for a rule without any symbolizer to paint
+     * @param sampleFeature     sampleFeature
+     * @param scaleRange        scaleRange
+     * @param styleFactory      a style factory used by the current thread only
+     * @param minimumSymbolSize minimumSymbolSize
+     * @param rescalingRequired rescalingRequired
+     * @param rescaler          rescaler
+     */
+    private void renderRuleRange(
+            final LegendRenderContext context,
+            final Rule[] rules,
+            final int from,
+            final int to,
+            final RenderedImage[] ruleImages,
+            final Feature sampleFeature,
+            final NumberRange<Double> scaleRange,
+            final SLDStyleFactory styleFactory,
+            double minimumSymbolSize,
+            boolean rescalingRequired,
+            Function<Double, Double> rescaler) throws Exception {
+        MetaBufferEstimator estimator = new MetaBufferEstimator(sampleFeature);
+        // icons rescaled by the rescaler depend on the other rules of the layer, they are not cached
+        final RuleIconCache iconCache = rescalingRequired ? null : builderOptions.getIconCache();
+        final FeatureType featureType = sampleFeature != null ? sampleFeature.getType() : null;
+        final LegendMetrics metrics = LegendMetricsRegistry.getMetrics();
+        for (int i = from; i < to; i++) {
+            RuleIconCache.Key key = null;
+            if (iconCache != null) {
+                key = iconCache.createKey(rules[i], featureType, context, minimumSymbolSize);
+                ruleImages[i] = iconCache.get(key);
+                if (ruleImages[i] != null) {
+                    metrics.increment(LegendMetrics.Counter.ICON_CACHE_HITS);
+                    continue;
+                }
+                metrics.increment(LegendMetrics.Counter.ICON_CACHE_MISSES);
+            }
+            ruleImages[i] = renderRule(context, rules[i], estimator, sampleFeature, scaleRange, styleFactory,
+                    minimumSymbolSize, rescalingRequired, rescaler, key == null);
+            if (key != null && ruleImages[i] != null) {
+                iconCache.put(key, ruleImages[i]);
+            }
+        }
+    }
+
+    /**
+     * Renders the icon of a rule, painting all its symbolizers but the raster ones.
+     *
+     * @param context           the render context of the current thread
+     * @param rule              the rule
+     * @param estimator         estimator
+     * @param sampleFeature     sampleFeature
+     * @param scaleRange        scaleRange
+     * @param styleFactory      a style factory used by the current thread only
+     * @param minimumSymbolSize minimumSymbolSize
+     * @param rescalingRequired rescalingRequired
+     * @param rescaler          rescaler
+     * @param pooled            true to paint the icon on a canvas leased from the pool of the context
+     * @return the icon, or null if the rule has only raster symbolizers
+     */
+    private RenderedImage renderRule(
+            final LegendRenderContext context,
+            final Rule rule,
+            final MetaBufferEstimator estimator,
+            final Feature sampleFeature,
+            final NumberRange<Double> scaleRange,
+            final SLDStyleFactory styleFactory,
+            double minimumSymbolSize,
+            boolean rescalingRequired,
+            Function<Double, Double> rescaler,
+            boolean pooled) throws Exception {
+        // skip the rules having only raster symbolizers
+        if (!hasVectorSymbolizer(rule)) {
+            return null;
+        }
+        final LegendOptions legendOptions = context.getLegendOptions();
+        // a cached icon outlives the request, it is not taken from the canvas pool
+        final BufferedImage image = pooled ? context.createIconImage()
+                : ImageUtils.createImage(legendOptions.getWidth(), legendOptions.getHeight(), null, context.isTransparent());
+        final Graphics2D graphics = ImageUtils.prepareTransparency(context.isTransparent(), context.getProfile().getBackgroundColor(), image, null);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        final RuleRenderEvent event = new RuleRenderEvent();
+        event.start();
+        final long start = System.nanoTime();
+        try {
+            paintRule(context, graphics, rule, estimator, sampleFeature, scaleRange, styleFactory, minimumSymbolSize,
+                    rescalingRequired, rescaler);
+        } finally {
+            graphics.dispose();
+            LegendMetricsRegistry.getMetrics().recordSince(LegendMetrics.Stage.RULE_PAINT, start);
+            event.finish(rule.getName(), rule.symbolizers().size(), image.getWidth(), image.getHeight());
+        }
+        return image;
     }
 
     /**
@@ -346,15 +1075,30 @@ public class BufferedImageLegendGraphicBuilder extends LegendGraphicBuilder {
      * @param legendOptions  The legend options.
      * @param forceLabelsOn  true for force labels on also with a single image.
      * @param forceLabelsOff true for force labels off also with more than one rule.
+     * @param profile        the render profile of the legend options
      * @return the stack image with all the images on the argument list.
      * @throws IllegalArgumentException if the list is empty
      */
-    private BufferedImage mergeGroups(List<RenderedImage> imageStack,
-                                      boolean forceLabelsOn, boolean forceLabelsOff, LegendOptions legendOptions) throws Exception {
+    private BufferedImage mergeGroups(List<RenderedImage> imageStack, boolean forceLabelsOn, boolean forceLabelsOff,
+                                      LegendOptions legendOptions, LegendRenderProfile profile) throws Exception {
         LegendMerger.MergeOptions options = LegendMerger.MergeOptions.createFromOptions(imageStack, 0,
-                forceLabelsOn, forceLabelsOff, legendOptions);
+                forceLabelsOn, forceLabelsOff, legendOptions, null, profile);
         return LegendMerger.mergeGroups(null, options, legendOptions);
     }
 
-}
 
+    /**
+     * The rendered sub-legend of a layer: its title and its rules having an icon, with their icons.
+     */
+    private static final class LayerLegend {
+        private final String title;
+        private final List<Rule> rules;
+        private final List<RenderedImage> icons;
+
+        private LayerLegend(String title, int ruleCount) {
+            this.title = title;
+            this.rules = new ArrayList<>(ruleCount);
+            this.icons = new ArrayList<>(ruleCount);
+        }
+    }
+}
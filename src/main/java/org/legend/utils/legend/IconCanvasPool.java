@@ -0,0 +1,194 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of the images the rule icons are painted on, shared by all the threads.
+ *
+ * <p>The canvases are kept by (width, height, type), the type being the one {@link
+ * ImageUtils#createImage} gives to a transparent or an opaque icon. A reused canvas is cleared
+ * before being handed out, so nothing of its previous use remains even when the background color of
+ * an opaque icon is translucent.
+ *
+ * <p>Ownership: the canvases are leased through a {@link LegendRenderContext}, which records them
+ * and gives them back with {@link LegendRenderContext#releaseCanvases()} once the legend has been
+ * composed into its own output image. A pooled canvas is therefore never part of a returned image,
+ * and the icons retained by a {@link RuleIconCache} are not taken from the pool. The icons of a
+ * request are painted by the worker threads of its executor and released by the thread composing
+ * the legend, so the pool is not split by thread: a released canvas can be reused by any thread,
+ * virtual threads included.
+ *
+ * @author Adrien Bessy
+ */
+public final class IconCanvasPool {
+
+    /**
+     * Default maximum number of canvases kept by the pool.
+     */
+    public static final int DEFAULT_MAX_CANVASES = 1024;
+
+    private static final IconCanvasPool DEFAULT = new IconCanvasPool(DEFAULT_MAX_CANVASES);
+
+    private final int maxCanvases;
+
+    private final ConcurrentMap<Key, Deque<BufferedImage>> free = new ConcurrentHashMap<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder allocationCount = new LongAdder();
+
+    private final LongAdder reuseCount = new LongAdder();
+
+    /**
+     * @param maxCanvases the maximum number of canvases kept by the pool, the canvases released
+     *                    beyond it are left to the garbage collector
+     */
+    public IconCanvasPool(int maxCanvases) {
+        if (maxCanvases < 0) {
+            throw new IllegalArgumentException("maxCanvases must not be negative");
+        }
+        this.maxCanvases = maxCanvases;
+    }
+
+    /**
+     * @return the pool shared by the builders which are not given their own
+     */
+    public static IconCanvasPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Takes a canvas from the pool, or creates one if the pool has none of this size.
+     *
+     * @param width       the width of the icon
+     * @param height      the height of the icon
+     * @param transparent whether the icon has an alpha channel
+     * @return a canvas with all its samples set to 0
+     */
+    public BufferedImage acquire(int width, int height, boolean transparent) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        Key key = new Key(width, height, transparent ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR);
+        Deque<BufferedImage> canvases = free.get(key);
+        BufferedImage canvas = canvases == null ? null : canvases.pollFirst();
+        if (canvas != null) {
+            size.decrementAndGet();
+            reuseCount.increment();
+            // both pooled types are backed by a single byte array
+            Arrays.fill(((DataBufferByte) canvas.getRaster().getDataBuffer()).getData(), (byte) 0);
+            return canvas;
+        }
+        allocationCount.increment();
+        return ImageUtils.createImage(width, height, null, transparent);
+    }
+
+    /**
+     * Gives a canvas back to the pool. The canvas must not be used anymore by the caller.
+     *
+     * @param canvas the canvas
+     */
+    public void release(BufferedImage canvas) {
+        int type = canvas.getType();
+        if (type != BufferedImage.TYPE_4BYTE_ABGR && type != BufferedImage.TYPE_3BYTE_BGR) {
+            return;
+        }
+        // the slot is taken before the canvas is pushed, concurrent releases never exceed the bound
+        if (size.incrementAndGet() > maxCanvases) {
+            size.decrementAndGet();
+            return;
+        }
+        free.computeIfAbsent(new Key(canvas.getWidth(), canvas.getHeight(), type), k -> new ConcurrentLinkedDeque<>())
+                .offerFirst(canvas);
+    }
+
+    /**
+     * Drops the canvases kept by the pool.
+     */
+    public void clear() {
+        for (Deque<BufferedImage> canvases : free.values()) {
+            while (canvases.pollFirst() != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the number of canvases kept by the pool
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public int getMaxCanvases() {
+        return maxCanvases;
+    }
+
+    /**
+     * @return the number of canvases created because the pool had none to give
+     */
+    public long getAllocationCount() {
+        return allocationCount.sum();
+    }
+
+    /**
+     * @return the number of canvases taken from the pool
+     */
+    public long getReuseCount() {
+        return reuseCount.sum();
+    }
+
+    private static final class Key {
+        private final int width;
+        private final int height;
+        private final int type;
+
+        private Key(int width, int height, int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + type;
+        }
+    }
+}
@@ -107,14 +107,14 @@ public class ImageUtils {
         }
 
         // fill the background with no antialiasing
-        Map<RenderingHints.Key, Object> hintsMap;
-        if (extraHints == null) {
-            hintsMap = new HashMap<>();
+        if (extraHints == null || extraHints.isEmpty()) {
+            // the graphics is new, its hints are the default ones
+            graphic.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
         } else {
-            hintsMap = new HashMap<>(extraHints);
+            Map<RenderingHints.Key, Object> hintsMap = new HashMap<>(extraHints);
+            hintsMap.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            graphic.setRenderingHints(hintsMap);
         }
-        hintsMap.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
-        graphic.setRenderingHints(hintsMap);
         if (transparent) {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.fine("setting to transparent");
@@ -0,0 +1,372 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.geotools.api.feature.Feature;
+import org.geotools.api.feature.type.FeatureType;
+import org.geotools.api.feature.type.GeometryDescriptor;
+import org.geotools.api.filter.Filter;
+import org.geotools.api.filter.expression.Expression;
+import org.geotools.api.filter.expression.Literal;
+import org.geotools.api.style.*;
+import org.geotools.api.util.InternationalString;
+import org.geotools.map.FeatureLayer;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Produces a JSON description of the legend of a layer list, for clients drawing the legend
+ * themselves.
+ *
+ * <p>The rules are the ones of {@link BufferedImageLegendGraphicBuilder}, but nothing is painted:
+ * the expressions of the symbolizers are evaluated against the sample feature of the layer and the
+ * resolved colors, widths, sizes and marks are streamed with a Jackson {@link JsonGenerator}. The
+ * document follows the layout of the GeoServer GetLegendGraphic JSON output:
+ *
+ * <pre>
+ * {"Legend": [{"layerName": "landcover", "title": "Land cover", "geometryType": "Polygon",
+ *   "rules": [{"name": "corn", "title": "Corn", "filter": "[ type = corn ]",
+ *     "symbolizers": [{"Polygon": {"fill": "#FFCC00", "fill-opacity": 1.0, "stroke": "#000000", "stroke-width": 1.0}}]}]}]}
+ * </pre>
+ *
+ * @author Adrien Bessy
+ */
+public class JsonLegendGraphicBuilder extends LegendGraphicBuilder {
+
+    /**
+     * Thread safe once configured, shared by all the requests.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Default constructor.
+     *
+     * <p>The builder is immutable, a single instance can be shared by concurrent requests.
+     */
+    public JsonLegendGraphicBuilder() {
+        super();
+    }
+
+    /**
+     * Creates a builder with the given configuration.
+     *
+     * @param builderOptions the configuration of the builder
+     */
+    public JsonLegendGraphicBuilder(LegendBuilderOptions builderOptions) {
+        super(builderOptions);
+    }
+
+    /**
+     * Takes a featureLayerList and legendOptions and produces the JSON description of the legend.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @return the JSON document, encoded in UTF-8
+     * @throws Exception if the legend could not be described
+     */
+    public byte[] buildLegendJson(List<FeatureLayer> featureLayerList, LegendOptions legendOptions) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buildLegendGraphic(featureLayerList, legendOptions, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Takes a featureLayerList and legendOptions and writes the JSON description of the legend to
+     * a stream. The stream is flushed but not closed.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @param out              the stream receiving the JSON document, encoded in UTF-8
+     * @throws Exception if the legend could not be described
+     */
+    public void buildLegendGraphic(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                                   OutputStream out) throws Exception {
+        LegendUtils.ensureNotNull(featureLayerList, "featureLayerList");
+        LegendUtils.ensureNotNull(legendOptions, "legendOptions");
+        LegendUtils.ensureNotNull(out, "out");
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            // the stream belongs to the caller
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("Legend");
+            for (FeatureLayer featureLayer : featureLayerList) {
+                writeLayer(generator, featureLayer, legendOptions);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeLayer(JsonGenerator generator, FeatureLayer featureLayer, LegendOptions legendOptions) throws Exception {
+        final Rule[] rules = getLegendRules(featureLayer, legendOptions);
+        final FeatureType featureType = featureLayer.getFeatureSource().getSchema();
+        final Feature sampleFeature = createSampleFeature(featureType);
+
+        generator.writeStartObject();
+        generator.writeStringField("layerName", featureType.getName().getLocalPart());
+        if (!forceTitlesOff) {
+            generator.writeStringField("title", getLayerTitle(featureLayer, legendOptions));
+        }
+        GeometryDescriptor geometryDescriptor = featureType.getGeometryDescriptor();
+        if (geometryDescriptor != null) {
+            generator.writeStringField("geometryType", geometryDescriptor.getType().getBinding().getSimpleName());
+        }
+        generator.writeArrayFieldStart("rules");
+        for (Rule rule : rules) {
+            writeRule(generator, rule, sampleFeature);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void writeRule(JsonGenerator generator, Rule rule, Feature feature) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "name", rule.getName());
+        if (!forceLabelsOff) {
+            writeString(generator, "title", LegendUtils.getRuleLabel(rule));
+        }
+        Description description = rule.getDescription();
+        if (description != null) {
+            writeString(generator, "abstract", toString(description.getAbstract()));
+        }
+        if (rule.isElseFilter()) {
+            generator.writeBooleanField("ElseFilter", true);
+        } else if (rule.getFilter() != null && rule.getFilter() != Filter.INCLUDE) {
+            generator.writeStringField("filter", rule.getFilter().toString());
+        }
+        if (rule.getMinScaleDenominator() > 0 || rule.getMaxScaleDenominator() < Double.POSITIVE_INFINITY) {
+            generator.writeObjectFieldStart("scaleDenominator");
+            if (rule.getMinScaleDenominator() > 0) {
+                generator.writeNumberField("min", rule.getMinScaleDenominator());
+            }
+            if (rule.getMaxScaleDenominator() < Double.POSITIVE_INFINITY) {
+                generator.writeNumberField("max", rule.getMaxScaleDenominator());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeArrayFieldStart("symbolizers");
+        for (Symbolizer symbolizer : rule.symbolizers()) {
+            writeSymbolizer(generator, symbolizer, feature);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void writeSymbolizer(JsonGenerator generator, Symbolizer symbolizer, Feature feature) throws IOException {
+        generator.writeStartObject();
+        if (symbolizer instanceof PointSymbolizer) {
+            generator.writeObjectFieldStart("Point");
+            writeGraphic(generator, ((PointSymbolizer) symbolizer).getGraphic(), feature);
+        } else if (symbolizer instanceof LineSymbolizer) {
+            generator.writeObjectFieldStart("Line");
+            writeStroke(generator, "", ((LineSymbolizer) symbolizer).getStroke(), feature);
+        } else if (symbolizer instanceof PolygonSymbolizer) {
+            PolygonSymbolizer polygonSymbolizer = (PolygonSymbolizer) symbolizer;
+            generator.writeObjectFieldStart("Polygon");
+            writeFill(generator, "", polygonSymbolizer.getFill(), feature);
+            writeStroke(generator, "", polygonSymbolizer.getStroke(), feature);
+        } else if (symbolizer instanceof TextSymbolizer) {
+            generator.writeObjectFieldStart("Text");
+            writeText(generator, (TextSymbolizer) symbolizer, feature);
+        } else if (symbolizer instanceof RasterSymbolizer) {
+            generator.writeObjectFieldStart("Raster");
+            writeRaster(generator, (RasterSymbolizer) symbolizer, feature);
+        } else {
+            generator.writeObjectFieldStart(symbolizer.getClass().getSimpleName());
+        }
+        writeString(generator, "name", symbolizer.getName());
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private void writeGraphic(JsonGenerator generator, Graphic graphic, Feature feature) throws IOException {
+        if (graphic == null) {
+            return;
+        }
+        writeNumber(generator, "size", graphic.getSize(), feature);
+        writeNumber(generator, "rotation", graphic.getRotation(), feature);
+        writeNumber(generator, "opacity", graphic.getOpacity(), feature);
+        generator.writeArrayFieldStart("graphics");
+        for (GraphicalSymbol symbol : graphic.graphicalSymbols()) {
+            generator.writeStartObject();
+            if (symbol instanceof Mark) {
+                Mark mark = (Mark) symbol;
+                writeString(generator, "mark", mark.getWellKnownName(), feature);
+                writeFill(generator, "", mark.getFill(), feature);
+                writeStroke(generator, "", mark.getStroke(), feature);
+            } else if (symbol instanceof ExternalGraphic) {
+                ExternalGraphic externalGraphic = (ExternalGraphic) symbol;
+                try {
+                    URL location = externalGraphic.getLocation();
+                    writeString(generator, "external-graphic-url", location == null ? null : location.toString());
+                } catch (MalformedURLException e) {
+                    // an inline content or a relative location, the client can not fetch it anyway
+                }
+                writeString(generator, "external-graphic-type", externalGraphic.getFormat());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeFill(JsonGenerator generator, String prefix, Fill fill, Feature feature) throws IOException {
+        if (fill == null) {
+            return;
+        }
+        writeColor(generator, prefix + "fill", fill.getColor(), feature);
+        writeNumber(generator, prefix + "fill-opacity", fill.getOpacity(), feature);
+        if (fill.getGraphicFill() != null) {
+            generator.writeObjectFieldStart(prefix + "graphic-fill");
+            writeGraphic(generator, fill.getGraphicFill(), feature);
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeStroke(JsonGenerator generator, String prefix, Stroke stroke, Feature feature) throws IOException {
+        if (stroke == null) {
+            return;
+        }
+        writeColor(generator, prefix + "stroke", stroke.getColor(), feature);
+        writeNumber(generator, prefix + "stroke-width", stroke.getWidth(), feature);
+        writeNumber(generator, prefix + "stroke-opacity", stroke.getOpacity(), feature);
+        writeString(generator, prefix + "stroke-linecap", stroke.getLineCap(), feature);
+        writeString(generator, prefix + "stroke-linejoin", stroke.getLineJoin(), feature);
+        List<Expression> dashArray = stroke.dashArray();
+        if (dashArray != null && !dashArray.isEmpty()) {
+            generator.writeArrayFieldStart(prefix + "stroke-dasharray");
+            for (Expression dash : dashArray) {
+                Double value = dash.evaluate(feature, Double.class);
+                if (value != null) {
+                    generator.writeNumber(value);
+                }
+            }
+            generator.writeEndArray();
+        }
+        writeNumber(generator, prefix + "stroke-dashoffset", stroke.getDashOffset(), feature);
+        if (stroke.getGraphicStroke() != null) {
+            generator.writeObjectFieldStart(prefix + "graphic-stroke");
+            writeGraphic(generator, stroke.getGraphicStroke(), feature);
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeText(JsonGenerator generator, TextSymbolizer symbolizer, Feature feature) throws IOException {
+        Expression label = symbolizer.getLabel();
+        if (label != null) {
+            // a property name is kept as is, the client labels its own features
+            generator.writeStringField("label", label instanceof Literal
+                    ? label.evaluate(feature, String.class) : label.toString());
+        }
+        List<Font> fonts = symbolizer.fonts();
+        if (fonts != null && !fonts.isEmpty()) {
+            Font font = fonts.get(0);
+            if (font.getFamily() != null && !font.getFamily().isEmpty()) {
+                generator.writeArrayFieldStart("font-family");
+                for (Expression family : font.getFamily()) {
+                    String value = family.evaluate(feature, String.class);
+                    if (value != null) {
+                        generator.writeString(value);
+                    }
+                }
+                generator.writeEndArray();
+            }
+            writeNumber(generator, "font-size", font.getSize(), feature);
+            writeString(generator, "font-style", font.getStyle(), feature);
+            writeString(generator, "font-weight", font.getWeight(), feature);
+        }
+        writeFill(generator, "", symbolizer.getFill(), feature);
+        Halo halo = symbolizer.getHalo();
+        if (halo != null) {
+            writeNumber(generator, "halo-radius", halo.getRadius(), feature);
+            writeFill(generator, "halo-", halo.getFill(), feature);
+        }
+    }
+
+    private void writeRaster(JsonGenerator generator, RasterSymbolizer symbolizer, Feature feature) throws IOException {
+        writeNumber(generator, "opacity", symbolizer.getOpacity(), feature);
+        ColorMap colorMap = symbolizer.getColorMap();
+        if (colorMap == null || colorMap.getColorMapEntries() == null) {
+            return;
+        }
+        generator.writeObjectFieldStart("colormap");
+        switch (colorMap.getType()) {
+            case ColorMap.TYPE_INTERVALS:
+                generator.writeStringField("type", "intervals");
+                break;
+            case ColorMap.TYPE_VALUES:
+                generator.writeStringField("type", "values");
+                break;
+            default:
+                generator.writeStringField("type", "ramp");
+        }
+        generator.writeArrayFieldStart("entries");
+        for (ColorMapEntry entry : colorMap.getColorMapEntries()) {
+            generator.writeStartObject();
+            writeString(generator, "label", entry.getLabel());
+            writeNumber(generator, "quantity", entry.getQuantity(), feature);
+            writeColor(generator, "color", entry.getColor(), feature);
+            writeNumber(generator, "opacity", entry.getOpacity(), feature);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static void writeColor(JsonGenerator generator, String name, Expression expression, Feature feature) throws IOException {
+        Color color = expression == null ? null : expression.evaluate(feature, Color.class);
+        if (color != null) {
+            generator.writeStringField(name, String.format("#%02X%02X%02X", color.getRed(), color.getGreen(), color.getBlue()));
+        }
+    }
+
+    private static void writeNumber(JsonGenerator generator, String name, Expression expression, Feature feature) throws IOException {
+        Double value = expression == null ? null : expression.evaluate(feature, Double.class);
+        if (value != null && !value.isNaN()) {
+            generator.writeNumberField(name, value);
+        }
+    }
+
+    private static void writeString(JsonGenerator generator, String name, Expression expression, Feature feature) throws IOException {
+        writeString(generator, name, expression == null ? null : expression.evaluate(feature, String.class));
+    }
+
+    private static void writeString(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    private static String toString(InternationalString value) {
+        return value == null ? null : value.toString();
+    }
+}
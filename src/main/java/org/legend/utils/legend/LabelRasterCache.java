@@ -0,0 +1,244 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.legend.options.LegendOptions;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LRU cache of rendered labels, bounded by the memory of the cached rasters.
+ *
+ * <p>The same rule titles come back in many layers and many requests, a label rendered by
+ * {@link LegendUtils#renderLabel(String, Graphics2D, LegendOptions, LegendRenderProfile)} is kept
+ * and reused as long as the text, the font, the label color, the text hints and the title offset
+ * are the same. Labels with line breaks are cached as a whole, the "\n" spelling and the real line
+ * break share their entry. The cached rasters are shared between requests and threads, they must
+ * never be painted on, only drawn into other images.
+ *
+ * <p>Only the labels merged by the {@link LegendMerger} are cached: the single pass layout draws its
+ * texts straight into the legend and has no label raster to reuse. The cache is therefore not set by
+ * default, a builder merging its legends opts in through {@code LegendBuilderOptions.labelRasterCache}.
+ *
+ * @author Adrien Bessy
+ */
+public class LabelRasterCache {
+
+    /**
+     * Default memory budget of the cached rasters, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private static final LabelRasterCache DEFAULT = new LabelRasterCache(DEFAULT_MAX_BYTES);
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<Key, BufferedImage> labels = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The memory used by the cached rasters, guarded by the lock of {@link #labels}
+     */
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache whose rasters use at most maxBytes bytes, the least recently used labels are
+     * evicted first.
+     *
+     * @param maxBytes the memory budget of the rasters, in bytes
+     */
+    public LabelRasterCache(final long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache shared by the builders which are not given their own
+     */
+    public static LabelRasterCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the rendered label, from the cache or rendered with the font and the text hints of
+     * the given graphics.
+     *
+     * @param label         the label to render
+     * @param g             the graphics holding the font and the text hints of the label
+     * @param legendOptions the legend options
+     * @param profile       the render profile of the legend options
+     * @return the rendered label, it must not be painted on
+     */
+    public BufferedImage getLabel(String label, final Graphics2D g, LegendOptions legendOptions,
+                                  LegendRenderProfile profile) {
+        LegendUtils.ensureNotNull(label, "label");
+        LegendUtils.ensureNotNull(g, "g");
+        Key key = new Key(label, g, profile.getLabelFontColor().getRGB(), legendOptions.getTitleOffsetX());
+        BufferedImage raster;
+        synchronized (labels) {
+            raster = labels.get(key);
+        }
+        if (raster != null) {
+            hits.incrementAndGet();
+            LegendMetricsRegistry.getMetrics().increment(LegendMetrics.Counter.LABEL_CACHE_HITS);
+            return raster;
+        }
+        misses.incrementAndGet();
+        LegendMetricsRegistry.getMetrics().increment(LegendMetrics.Counter.LABEL_CACHE_MISSES);
+        // rendered outside the lock, two threads may render the same label, they are equivalent
+        raster = LegendUtils.renderLabel(label, g, legendOptions, profile);
+        put(key, raster);
+        return raster;
+    }
+
+    private void put(Key key, BufferedImage raster) {
+        long size = sizeOf(raster);
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (labels) {
+            BufferedImage previous = labels.put(key, raster);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+            bytes += size;
+            Iterator<BufferedImage> eldest = labels.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= sizeOf(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * The labels are rendered in 32 bits ARGB images.
+     */
+    private static long sizeOf(BufferedImage raster) {
+        return (long) raster.getWidth() * raster.getHeight() * 4;
+    }
+
+    /**
+     * Removes all the labels from the cache.
+     */
+    public void clear() {
+        synchronized (labels) {
+            labels.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * @return the number of labels in the cache
+     */
+    public int size() {
+        synchronized (labels) {
+            return labels.size();
+        }
+    }
+
+    /**
+     * @return the memory used by the cached rasters, in bytes
+     */
+    public long getByteSize() {
+        synchronized (labels) {
+            return bytes;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of lookups that found a label
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that rendered the label
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The key of a rendered label.
+     */
+    private static final class Key {
+        private final String text;
+        private final Font font;
+        private final int color;
+        private final Object textAntialiasing;
+        private final Object fractionalMetrics;
+        private final Integer titleOffsetX;
+        private final int hash;
+
+        private Key(String label, Graphics2D g, int color, Integer titleOffsetX) {
+            // both spellings of a line break render the same label
+            this.text = label.replace("\\n", "\n");
+            this.font = g.getFont();
+            this.color = color;
+            this.textAntialiasing = g.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+            this.fractionalMetrics = g.getRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS);
+            // the offset is only applied to the labels on a single line
+            this.titleOffsetX = text.indexOf('\n') >= 0 ? null : titleOffsetX;
+            this.hash = Objects.hash(text, font, color, textAntialiasing, fractionalMetrics, this.titleOffsetX);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return color == key.color
+                    && text.equals(key.text)
+                    && font.equals(key.font)
+                    && Objects.equals(textAntialiasing, key.textAntialiasing)
+                    && Objects.equals(fractionalMetrics, key.fractionalMetrics)
+                    && Objects.equals(titleOffsetX, key.titleOffsetX);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -20,30 +20,14 @@
 
 package org.legend.utils.legend;
 
-import org.geotools.api.data.DataStore;
-import org.geotools.api.data.DataStoreFinder;
-import org.geotools.api.data.FeatureSource;
-import org.geotools.api.feature.simple.SimpleFeature;
-import org.geotools.api.feature.simple.SimpleFeatureType;
-import org.geotools.api.style.FeatureTypeStyle;
 import org.geotools.api.style.Style;
-import org.geotools.api.style.StyleFactory;
-import org.geotools.data.geojson.store.GeoJSONDataStoreFactory;
-import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.map.FeatureLayer;
-import org.geotools.util.URLs;
-import org.geotools.xml.styling.SLDParser;
+import org.legend.utils.vector.DataStoreRegistry;
+import org.legend.utils.vector.FeatureSourceType;
+import org.legend.utils.vector.FeatureSourceUtils;
+import org.legend.utils.vector.StyleConverterUtil;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * This class allows to build featureLayers
@@ -53,22 +37,22 @@ import java.util.Map;
 public class LayerUtils {
 
     /**
-     * Takes a featureLayerList and legendOptions and produces a BufferedImage.
+     * Builds the layer of a geoJson file styled by a sld file. The store of the file is shared with
+     * the other layers of the same file and stays leased until the layer is disposed.
      *
      * @param geoJsonFilePath the file path of a geoJson file
      * @param sldFilePath     the file path of a sld file
-     * @return the featureLayer
+     * @return the featureLayer, to be disposed once it is no longer used
      */
-    public static FeatureLayer buildLayer(String geoJsonFilePath, String sldFilePath) throws IOException {
-        File inFile = new File(geoJsonFilePath);
-        Map<String, Object> params = new HashMap<>();
-        params.put(GeoJSONDataStoreFactory.URL_PARAM.key, URLs.fileToUrl(inFile));
-        DataStore dataStore = DataStoreFinder.getDataStore(params);
-        String[] typeNames = dataStore.getTypeNames();
-        String typeName = typeNames[0];
-        FeatureSource<SimpleFeatureType, SimpleFeature> featureSource = dataStore.getFeatureSource(typeName);
+    public static LeasedFeatureLayer buildLayer(String geoJsonFilePath, String sldFilePath) throws IOException {
         Style sld = getSldStyle(sldFilePath);
-        return new FeatureLayer(featureSource, sld);
+        DataStoreRegistry.Lease lease = FeatureSourceUtils.openFeatureSource(new File(geoJsonFilePath), FeatureSourceType.GEOJSON);
+        try {
+            return new LeasedFeatureLayer(lease, sld);
+        } catch (IOException | RuntimeException e) {
+            lease.close();
+            throw e;
+        }
     }
 
     /**
@@ -78,26 +62,8 @@ public class LayerUtils {
      * @return the style
      */
     private static Style getSldStyle(String sldFilePath) throws IOException {
-        StyleFactory styleFactory3 = CommonFactoryFinder.getStyleFactory();
-        FeatureTypeStyle featureTypeStyle3 = styleFactory3.createFeatureTypeStyle();
-
-        Path path = Paths.get(sldFilePath);
-        Charset charset = StandardCharsets.UTF_8;
-        String content = new String(Files.readAllBytes(path), charset);
-        content = content.replaceAll("SvgParameter", "CssParameter");
-        content = content.replaceAll("sld", "se");
-        Files.write(path, content.getBytes(charset));
-
-        SLDParser styleReader = null;
-        try {
-            styleReader = new SLDParser(styleFactory3, new File(sldFilePath));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        assert styleReader != null;
-        Style sld = styleReader.readXML()[0];
-        sld.featureTypeStyles().add(featureTypeStyle3);
-        return sld;
+        // shares the parsed style cache of StyleConverterUtil
+        return StyleConverterUtil.getSldStyle(sldFilePath);
     }
 
 }
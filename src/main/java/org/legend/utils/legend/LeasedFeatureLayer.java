@@ -0,0 +1,79 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+
+package org.legend.utils.legend;
+
+import org.geotools.api.style.Style;
+import org.geotools.map.FeatureLayer;
+import org.legend.utils.vector.DataStoreRegistry;
+
+import java.io.IOException;
+
+/**
+ * A feature layer owning the lease of its shared data store. The store stays open as long as the
+ * layer is in use, and is released when the layer is disposed, directly or through the map content
+ * holding it.
+ *
+ * @author Adrien Bessy
+ */
+public class LeasedFeatureLayer extends FeatureLayer implements AutoCloseable {
+
+    private final DataStoreRegistry.Lease lease;
+
+    /**
+     * Creates a layer on the feature source of a lease. The layer owns the lease from then on.
+     *
+     * @param lease the lease of the data store
+     * @param style the style of the layer
+     */
+    public LeasedFeatureLayer(DataStoreRegistry.Lease lease, Style style) throws IOException {
+        super(lease.getFeatureSource(), style);
+        this.lease = lease;
+    }
+
+    /**
+     * @return the lease of the data store of the layer
+     */
+    public DataStoreRegistry.Lease getLease() {
+        return lease;
+    }
+
+    /**
+     * Disposes the layer and releases its data store.
+     */
+    @Override
+    public void dispose() {
+        try {
+            super.dispose();
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Same as {@link #dispose()}.
+     */
+    @Override
+    public void close() {
+        dispose();
+    }
+}
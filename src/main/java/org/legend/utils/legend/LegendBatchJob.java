@@ -0,0 +1,75 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.geotools.map.FeatureLayer;
+import org.legend.options.LegendOptions;
+
+import java.util.List;
+
+/**
+ * A legend to render in a batch: the layers and the options of a request, and an identifier
+ * telling the legends of the batch apart.
+ *
+ * @author Adrien Bessy
+ * @see BufferedImageLegendGraphicBuilder#buildLegendBatch(List, java.util.concurrent.ExecutorService, LegendBatchListener)
+ */
+public final class LegendBatchJob {
+
+    private final String id;
+
+    private final List<FeatureLayer> featureLayers;
+
+    private final LegendOptions legendOptions;
+
+    /**
+     * Creates a job.
+     *
+     * @param id            the identifier of the legend, for instance the name of its style
+     * @param featureLayers the layers of the legend
+     * @param legendOptions the options of the legend
+     */
+    public LegendBatchJob(String id, List<FeatureLayer> featureLayers, LegendOptions legendOptions) {
+        LegendUtils.ensureNotNull(featureLayers, "featureLayers");
+        LegendUtils.ensureNotNull(legendOptions, "legendOptions");
+        this.id = id;
+        this.featureLayers = featureLayers;
+        this.legendOptions = legendOptions;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<FeatureLayer> getFeatureLayers() {
+        return featureLayers;
+    }
+
+    public LegendOptions getLegendOptions() {
+        return legendOptions;
+    }
+
+    @Override
+    public String toString() {
+        return "LegendBatchJob{" + id + "}";
+    }
+}
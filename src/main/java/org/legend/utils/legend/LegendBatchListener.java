@@ -0,0 +1,54 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import java.util.logging.Level;
+
+/**
+ * Receives the legends of a batch as soon as they are rendered.
+ *
+ * <p>The methods are called by the threads rendering the batch, concurrently when the batch has an
+ * executor, so an implementation must be thread safe.
+ *
+ * @author Adrien Bessy
+ */
+public interface LegendBatchListener {
+
+    /**
+     * Called when the legend of a job is rendered.
+     *
+     * @param job the job
+     * @param png the legend encoded as PNG, owned by the listener
+     * @throws Exception if the legend could not be handled, the job is then reported as failed
+     */
+    void onLegend(LegendBatchJob job, byte[] png) throws Exception;
+
+    /**
+     * Called when the legend of a job could not be rendered or handled. The other jobs go on.
+     *
+     * @param job   the job
+     * @param error the cause of the failure
+     */
+    default void onFailure(LegendBatchJob job, Exception error) {
+        LegendUtils.LOGGER.log(Level.WARNING, "Could not render the legend of " + job, error);
+    }
+}
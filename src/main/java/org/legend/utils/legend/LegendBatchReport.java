@@ -0,0 +1,99 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * The aggregate figures of a batch of legends, once all its jobs are done.
+ *
+ * @author Adrien Bessy
+ */
+public final class LegendBatchReport {
+
+    private final int jobCount;
+
+    private final int successCount;
+
+    private final int failureCount;
+
+    private final long totalBytes;
+
+    private final long elapsedNanos;
+
+    LegendBatchReport(int jobCount, int successCount, int failureCount, long totalBytes, long elapsedNanos) {
+        this.jobCount = jobCount;
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+        this.totalBytes = totalBytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the number of jobs of the batch
+     */
+    public int getJobCount() {
+        return jobCount;
+    }
+
+    /**
+     * @return the number of legends rendered and handled by the listener
+     */
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * @return the number of jobs that failed
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the total size of the PNG legends rendered
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the wall clock time of the batch
+     */
+    public Duration getElapsed() {
+        return Duration.ofNanos(elapsedNanos);
+    }
+
+    /**
+     * @return the number of legends rendered per second of wall clock time
+     */
+    public double getLegendsPerSecond() {
+        return elapsedNanos > 0 ? successCount * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d legends (%d failed) in %d ms: %.1f legends/s, %d bytes",
+                successCount, failureCount, elapsedNanos / 1_000_000, getLegendsPerSecond(), totalBytes);
+    }
+}
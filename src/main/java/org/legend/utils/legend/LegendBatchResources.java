@@ -0,0 +1,77 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.geotools.api.feature.Feature;
+import org.geotools.api.feature.type.FeatureType;
+import org.geotools.api.style.Rule;
+import org.geotools.api.style.Style;
+import org.geotools.renderer.style.SLDStyleFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The rendering resources shared by the jobs of a batch: a style factory per rendering thread, the
+ * sample feature of every schema and the legend rules of every style.
+ *
+ * <p>The resources live as long as the batch, the styles must not be modified while it runs.
+ *
+ * @author Adrien Bessy
+ */
+final class LegendBatchResources {
+
+    private final ThreadLocal<SLDStyleFactory> styleFactories = ThreadLocal.withInitial(SLDStyleFactory::new);
+
+    private final ConcurrentMap<FeatureType, Feature> sampleFeatures = new ConcurrentHashMap<>();
+
+    /**
+     * The rules of the styles when all the rules are shown, keyed by the identity of the style
+     */
+    private final Map<Style, Rule[]> rules = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * @return the style factory of the current thread
+     */
+    SLDStyleFactory getStyleFactory() {
+        return styleFactories.get();
+    }
+
+    Feature getSampleFeature(FeatureType featureType) {
+        return sampleFeatures.get(featureType);
+    }
+
+    void putSampleFeature(FeatureType featureType, Feature sampleFeature) {
+        sampleFeatures.putIfAbsent(featureType, sampleFeature);
+    }
+
+    Rule[] getRules(Style style) {
+        return rules.get(style);
+    }
+
+    void putRules(Style style, Rule[] styleRules) {
+        rules.putIfAbsent(style, styleRules);
+    }
+}
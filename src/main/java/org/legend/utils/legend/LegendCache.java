@@ -0,0 +1,209 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.geotools.api.style.Style;
+import org.legend.utils.vector.StyleDigests;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of encoded legends, keyed by the {@link LegendFingerprint} of the request.
+ *
+ * <p>The legends are kept as PNG bytes rather than images, which takes a fraction of the heap. The
+ * least recently used legends are evicted once the total size of the cached PNGs exceeds the byte
+ * budget. As the keys are content addressed, a request on a modified style never hits a legend
+ * rendered with the former content; {@link #invalidateStyle(Style)} releases such legends right
+ * away instead of waiting for their eviction. The former contents of a style are only known for the
+ * style instance modified in place; a style read again from a modified file is a new instance, the
+ * legends of the former file are released with {@link #invalidateStyle(String)} and the fingerprint
+ * of the former style.
+ *
+ * @author Adrien Bessy
+ */
+public class LegendCache {
+
+    /**
+     * Default byte budget of the cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final long maxBytes;
+
+    private long totalBytes;
+
+    private final LinkedHashMap<String, Entry> legends = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache with a budget of {@link #DEFAULT_MAX_BYTES}.
+     */
+    public LegendCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache holding at most maxBytes of encoded legends.
+     *
+     * @param maxBytes the byte budget of the cache
+     */
+    public LegendCache(final long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the encoded legend cached for the given fingerprint.
+     *
+     * @param fingerprint the fingerprint of the request
+     * @return the PNG bytes, shared with the cache and not to be modified, or null if the legend is not in the cache
+     */
+    public byte[] get(LegendFingerprint fingerprint) {
+        Entry entry;
+        synchronized (this) {
+            entry = legends.get(fingerprint.getKey());
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.png;
+    }
+
+    /**
+     * Puts an encoded legend in the cache, evicting the least recently used legends to stay within
+     * the byte budget. A legend larger than the whole budget is not cached.
+     *
+     * @param fingerprint the fingerprint of the request
+     * @param png         the PNG bytes, not to be modified afterwards
+     */
+    public void put(LegendFingerprint fingerprint, byte[] png) {
+        if (png.length > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            Entry previous = legends.put(fingerprint.getKey(), new Entry(png, fingerprint.getStyleFingerprints()));
+            if (previous != null) {
+                totalBytes -= previous.png.length;
+            }
+            totalBytes += png.length;
+            Iterator<Entry> it = legends.values().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                totalBytes -= it.next().png.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the legends rendered with a former content of the given style, before it was modified
+     * in place. The legends rendered with its current content are kept.
+     *
+     * @param style the style
+     * @return the number of removed legends
+     */
+    public int invalidateStyle(Style style) throws IOException {
+        int removed = 0;
+        for (String styleFingerprint : StyleDigests.getFormer(style)) {
+            removed += invalidateStyle(styleFingerprint);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the legends rendered with a style of the given fingerprint.
+     *
+     * @param styleFingerprint the fingerprint of the style, see {@link LegendFingerprint#of(Style)}
+     * @return the number of removed legends
+     */
+    public synchronized int invalidateStyle(String styleFingerprint) {
+        int removed = 0;
+        Iterator<Entry> it = legends.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.styleFingerprints.contains(styleFingerprint)) {
+                totalBytes -= entry.png.length;
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all the legends from the cache.
+     */
+    public synchronized void invalidateAll() {
+        legends.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * @return the number of legends in the cache
+     */
+    public synchronized int size() {
+        return legends.size();
+    }
+
+    /**
+     * @return the total size of the cached PNGs, in bytes
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of lookups that found a legend
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that found no legend
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private static final class Entry {
+        private final byte[] png;
+        private final Set<String> styleFingerprints;
+
+        private Entry(byte[] png, Set<String> styleFingerprints) {
+            this.png = png;
+            this.styleFingerprints = styleFingerprints;
+        }
+    }
+}
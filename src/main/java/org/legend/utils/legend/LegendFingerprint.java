@@ -0,0 +1,186 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.feature.type.FeatureType;
+import org.geotools.api.style.Style;
+import org.geotools.data.DataUtilities;
+import org.geotools.map.FeatureLayer;
+import org.legend.options.LegendOptions;
+import org.legend.utils.vector.StyleDigests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A content addressed fingerprint of a legend request.
+ *
+ * <p>The fingerprint is a SHA-256 digest of everything the legend depends on: the content of the
+ * style of every layer (encoded as SLD), the layer titles and schemas, every field of the
+ * {@link LegendOptions}, and the data of the layers when only the rules present in the data are
+ * shown. Two requests with the same fingerprint produce the same legend, and any change to a style
+ * gives a new fingerprint. The digest of a style is memoized by {@link StyleDigests}, so the SLD
+ * encoding of a style instance is only computed once.
+ *
+ * <p>The renderer settings of a builder that change its output (layout engine, PNG encoder) are
+ * part of the fingerprint computed by the builder, so a {@link LegendCache} can be shared between
+ * builders with different settings.
+ *
+ * @author Adrien Bessy
+ */
+public final class LegendFingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String key;
+
+    private final Set<String> styleFingerprints;
+
+    private LegendFingerprint(String key, Set<String> styleFingerprints) {
+        this.key = key;
+        this.styleFingerprints = styleFingerprints;
+    }
+
+    /**
+     * Computes the fingerprint of a legend request.
+     *
+     * @param featureLayerList the layers of the legend
+     * @param legendOptions    the options of the legend
+     * @return the fingerprint
+     */
+    public static LegendFingerprint of(List<FeatureLayer> featureLayerList, LegendOptions legendOptions) throws IOException {
+        return of(featureLayerList, legendOptions, null);
+    }
+
+    /**
+     * Computes the fingerprint of a legend request rendered with the given renderer settings.
+     *
+     * @param featureLayerList the layers of the legend
+     * @param legendOptions    the options of the legend
+     * @param renderer         the settings of the builder changing the rendered legend, may be null
+     * @return the fingerprint
+     */
+    public static LegendFingerprint of(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                                       String renderer) throws IOException {
+        LegendUtils.ensureNotNull(featureLayerList, "featureLayerList");
+        LegendUtils.ensureNotNull(legendOptions, "legendOptions");
+        MessageDigest digest = newDigest();
+        Set<String> styleFingerprints = new LinkedHashSet<>();
+        for (FeatureLayer featureLayer : featureLayerList) {
+            String styleFingerprint = of(featureLayer.getStyle());
+            styleFingerprints.add(styleFingerprint);
+            update(digest, "style", styleFingerprint);
+            update(digest, "title", featureLayer.getTitle());
+            update(digest, "schema", encodeSchema(featureLayer.getFeatureSource().getSchema()));
+            if (!legendOptions.isShowAllRules()) {
+                // the rules shown depend on the data
+                update(digest, "data", RulePresenceIndex.getSourceId(featureLayer.getFeatureSource()));
+            }
+        }
+        // LegendOptions is a lombok @Data class, its toString lists every field
+        update(digest, "options", legendOptions.toString());
+        update(digest, "renderer", renderer);
+        return new LegendFingerprint(toHex(digest.digest()), Collections.unmodifiableSet(styleFingerprints));
+    }
+
+    /**
+     * Computes the fingerprint of the content of a style. The fingerprint is memoized for the style
+     * instance until its content changes.
+     *
+     * @param style the style
+     * @return the SHA-256 digest of the SLD encoding of the style, as an hexadecimal string
+     */
+    public static String of(Style style) throws IOException {
+        LegendUtils.ensureNotNull(style, "style");
+        return StyleDigests.get(style);
+    }
+
+    /**
+     * @return the fingerprint of the request, as an hexadecimal string
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the fingerprints of the styles of the request
+     */
+    public Set<String> getStyleFingerprints() {
+        return styleFingerprints;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LegendFingerprint && key.equals(((LegendFingerprint) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+
+    private static String encodeSchema(FeatureType featureType) {
+        if (featureType instanceof SimpleFeatureType) {
+            return featureType.getName() + "|" + DataUtilities.encodeType((SimpleFeatureType) featureType);
+        }
+        return String.valueOf(featureType.getName());
+    }
+
+    private static void update(MessageDigest digest, String name, String value) {
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '=');
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            // the length keeps adjacent values from running into each other
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+        digest.update((byte) ';');
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -32,11 +32,22 @@ import org.geotools.api.style.*;
 import org.geotools.data.DataUtilities;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.map.FeatureLayer;
 import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.renderer.lite.StyledShapePainter;
+import org.geotools.renderer.style.SLDStyleFactory;
+import org.geotools.renderer.style.Style2D;
 import org.geotools.styling.visitor.RescaleStyleVisitor;
+import org.geotools.util.NumberRange;
+import org.legend.options.LegendBuilderOptions;
 import org.legend.options.LegendOptions;
 import org.locationtech.jts.geom.*;
 
+import java.awt.Graphics2D;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
 /**
  * Comes from the package org.geoserver.wms.legendgraphic
  *
@@ -48,40 +59,119 @@ public abstract class LegendGraphicBuilder {
      * used to create sample point shapes with LiteShape (not lines nor polygons)
      */
     protected static final GeometryFactory geomFac = new GeometryFactory();
+
     /**
-     * Just a holder to avoid creating many line shapes from inside <code>getSampleShape()</code>
+     * Singleton shape painter to serve all legend requests. We can use a single shape painter
+     * instance as long as it remains thread safe.
      */
-    private LiteShape2 sampleLine;
+    protected static final StyledShapePainter shapePainter = new StyledShapePainter();
+
+    final boolean forceLabelsOn = true; //rule label
+    final boolean forceLabelsOff = false;
+    final boolean forceTitlesOff = false; // layer title otherwise style title
+    final int marge = 10;
+
     /**
-     * Just a holder to avoid creating many point shapes from inside <code>getSampleShape()</code>
+     * the configuration of the builder, shared by all its requests
      */
-    protected LiteShape2 samplePoint;
-
-    int width = 50;
-    int height = 50;
-    boolean forceLabelsOn = true; //rule label
-    boolean forceLabelsOff = false;
-    boolean forceTitlesOff = false; // layer title otherwise style title
-    boolean isTransparent = false;
-    int marge = 10;
+    protected final LegendBuilderOptions builderOptions;
 
     /**
      *
      */
     public LegendGraphicBuilder() {
+        this(LegendBuilderOptions.builder().build());
+    }
+
+    /**
+     * Creates a builder with the given configuration.
+     *
+     * @param builderOptions the configuration of the builder
+     */
+    public LegendGraphicBuilder(LegendBuilderOptions builderOptions) {
         super();
+        LegendUtils.ensureNotNull(builderOptions, "builderOptions");
+        this.builderOptions = builderOptions;
+    }
+
+    /**
+     * Creates the render context of a request. The builder itself is left untouched, so the same
+     * instance can be shared by concurrent requests.
+     *
+     * @param legendOptions the options of the request
+     * @return a new context holding the per-request state
+     */
+    public LegendRenderContext setup(LegendOptions legendOptions) {
+        return new LegendRenderContext(legendOptions);
     }
 
-    public void setup(LegendOptions legendOptions) {
-        width = legendOptions.getWidth();
-        height = legendOptions.getHeight();
-        isTransparent = legendOptions.isTransparent();
+    /**
+     * Creates the render context of a request whose rendering may be split in tasks run by the
+     * given executor.
+     *
+     * @param legendOptions the options of the request
+     * @param executor      the executor, or null to render on the calling thread
+     * @return a new context holding the per-request state
+     */
+    public LegendRenderContext setup(LegendOptions legendOptions, ExecutorService executor) {
+        return new LegendRenderContext(legendOptions, executor, builderOptions.getIconCanvasPool());
+    }
+
+    /**
+     * Returns the title of a layer (to be put on top of the layer legend): the title of the
+     * request, otherwise the title of the layer.
+     *
+     * @param featureLayer  the layer
+     * @param legendOptions the legend options
+     * @return the title
+     */
+    protected String getLayerTitle(FeatureLayer featureLayer, LegendOptions legendOptions) {
+        // checks layer title, otherwise style title
+        String inputTitle = legendOptions.getTitle();
+        if (inputTitle != null && !inputTitle.isEmpty()) {
+            return inputTitle;
+        } else if (featureLayer.getTitle() != null) {
+            return featureLayer.getTitle();
+        }
+        return "图例";
+    }
+
+    /**
+     * Returns the rules of the style of a layer to show in the legend: all of them, or only the ones
+     * matching at least one feature of the layer when {@link LegendOptions#isShowAllRules()} is false.
+     *
+     * @param featureLayer  the layer
+     * @param legendOptions the legend options
+     * @return the rules, in the order of the style
+     */
+    protected Rule[] getLegendRules(FeatureLayer featureLayer, LegendOptions legendOptions) throws IOException {
+        Style gt2Style = featureLayer.getStyle();
+        if (gt2Style == null) {
+            throw new NullPointerException("There is no style in featureLayer");
+        }
+
+        final FeatureTypeStyle[] ftStyles = gt2Style.featureTypeStyles().toArray(new FeatureTypeStyle[0]);
+        if (!legendOptions.isShowAllRules()) {
+            // only keep the rules matching at least one feature of the layer
+            return getRulePresenceIndex().getPresentRules(featureLayer.getFeatureSource(), ftStyles);
+        }
+        return LegendUtils.getRules1(ftStyles);
+    }
+
+    /**
+     * @return the index of the rules present in the data used by the builder, the shared default one
+     * if the builder options do not provide any
+     */
+    protected RulePresenceIndex getRulePresenceIndex() {
+        RulePresenceIndex index = builderOptions.getRulePresenceIndex();
+        return index != null ? index : RulePresenceIndex.getDefault();
     }
 
     /**
      * Returns a <code>java.awt.Shape</code> appropriate to render a legend graphic given the
      * symbolizer type and the legend dimensions.
      *
+     * @param context              the render context of the current request
      * @param symbolizer           the Symbolizer for whose type a sample shape will be created
      * @param rescaledLegendWidth  the rescaled width, in output units, of the legend graphic for PolygonSymbolizer
      * @param rescaledLegendHeight the rescaled height, in output units, of the legend graphic for PolygonSymbolizer
@@ -90,26 +180,26 @@ public abstract class LegendGraphicBuilder {
      * @return an appropiate Line2D, Rectangle2D or LiteShape(Point) for the symbolizer, either it
      * is a LineSymbolizer, a PolygonSymbolizer, or a Point ot Text Symbolizer
      */
-    protected LiteShape2 getSampleShape(Symbolizer symbolizer, int rescaledLegendWidth, int rescaledLegendHeight,
+    protected LiteShape2 getSampleShape(LegendRenderContext context, Symbolizer symbolizer, int rescaledLegendWidth, int rescaledLegendHeight,
                                         int legendWidth, int legendHeight) {
         LiteShape2 sampleShape;
         final float hpad = (legendWidth * LegendUtils.hpaddingFactor) + (legendWidth - rescaledLegendWidth) / 2f;
         final float vpad = (legendHeight * LegendUtils.vpaddingFactor) + (legendHeight - rescaledLegendHeight) / 2f;
 
         if (symbolizer instanceof LineSymbolizer) {
-            if (this.sampleLine == null) {
+            if (context.sampleLine == null) {
                 Coordinate[] coords = {
                         new Coordinate(20, 25),
                         new Coordinate(40, 25)
                 };
                 LineString geom = geomFac.createLineString(coords);
                 try {
-                    this.sampleLine = new LiteShape2(geom, null, null, false);
+                    context.sampleLine = new LiteShape2(geom, null, null, false);
                 } catch (Exception e) {
-                    this.sampleLine = null;
+                    context.sampleLine = null;
                 }
             }
-            sampleShape = this.sampleLine;
+            sampleShape = context.sampleLine;
 
         } else if ((symbolizer instanceof PolygonSymbolizer) || (symbolizer instanceof RasterSymbolizer)) {
             Double offset = 0.0;
@@ -129,16 +219,16 @@ public abstract class LegendGraphicBuilder {
             }
 
         } else if (symbolizer instanceof PointSymbolizer || symbolizer instanceof TextSymbolizer) {
-            if (this.samplePoint == null) {
+            if (context.samplePoint == null) {
                 Coordinate coord = new Coordinate(rescaledLegendWidth / 2d, rescaledLegendHeight / 2d);
                 try {
-                    this.samplePoint =
+                    context.samplePoint =
                             new LiteShape2(geomFac.createPoint(coord), null, null, false);
                 } catch (Exception e) {
-                    this.samplePoint = null;
+                    context.samplePoint = null;
                 }
             }
-            sampleShape = this.samplePoint;
+            sampleShape = context.samplePoint;
 
         } else {
             throw new IllegalArgumentException("Unknown symbolizer: " + symbolizer);
@@ -284,4 +374,84 @@ public abstract class LegendGraphicBuilder {
         }
     }
 
+    /**
+     * Checks whether a rule has something to paint in a legend icon.
+     *
+     * @param rule the rule
+     * @return true if the rule has at least one symbolizer which is not a raster symbolizer
+     */
+    protected static boolean hasVectorSymbolizer(Rule rule) {
+        for (Symbolizer symbolizer : rule.symbolizers()) {
+            if (!(symbolizer instanceof RasterSymbolizer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Paints the icon of a rule on a graphics whose origin is the top left corner of the icon. The
+     * raster symbolizers are skipped.
+     *
+     * @param context           the render context of the current thread
+     * @param graphics          the graphics of the icon, raster or vector
+     * @param rule              the rule
+     * @param estimator         estimator
+     * @param sampleFeature     sampleFeature
+     * @param scaleRange        scaleRange
+     * @param styleFactory      a style factory used by the current thread only
+     * @param minimumSymbolSize minimumSymbolSize
+     * @param rescalingRequired rescalingRequired
+     * @param rescaler          rescaler
+     */
+    protected void paintRule(
+            final LegendRenderContext context,
+            final Graphics2D graphics,
+            final Rule rule,
+            final MetaBufferEstimator estimator,
+            final Feature sampleFeature,
+            final NumberRange<Double> scaleRange,
+            final SLDStyleFactory styleFactory,
+            double minimumSymbolSize,
+            boolean rescalingRequired,
+            Function<Double, Double> rescaler) throws Exception {
+        final int width = context.getWidth();
+        final int height = context.getHeight();
+        for (Symbolizer symbolizer : rule.symbolizers()) {
+            // skip raster symbolizers
+            if (symbolizer instanceof RasterSymbolizer) {
+                continue;
+            }
+            // rescale symbols if needed
+            LiteShape2 shape = getSampleShape(context, symbolizer, width, height, width, height);
+            if (rescalingRequired && (symbolizer instanceof PointSymbolizer || symbolizer instanceof LineSymbolizer)) {
+                double size = getSymbolizerSize(estimator, symbolizer, Math.min(width, height) - 4);
+                double newSize = rescaler.apply(size);
+                symbolizer = rescaleSymbolizer(symbolizer, size, newSize);
+            } else if (symbolizer instanceof PolygonSymbolizer) {
+                // need to make room for the stroke in the symbol, thus, a smaller rectangle
+                double symbolizerSize = getSymbolizerSize(estimator, symbolizer, 0);
+                int rescaledWidth = rescaleSize(minimumSymbolSize, width - symbolizerSize);
+                int rescaledHeight = rescaleSize(minimumSymbolSize, height - symbolizerSize);
+                shape = getSampleShape(context, symbolizer, rescaledWidth, rescaledHeight, width, height);
+                symbolizer = rescaleSymbolizer(symbolizer, width, rescaledWidth);
+            }
+
+            Style2D style2d = styleFactory.createStyle(sampleFeature, symbolizer, scaleRange);
+            if (style2d != null) {
+                shapePainter.paint(graphics, shape, style2d, -1.0);
+            }
+        }
+    }
+
+    /**
+     * Rescales the size
+     *
+     * @param minimumSymbolSize the minimum symbolizer size
+     * @param size              the size
+     * @return the rescaled size.
+     */
+    private int rescaleSize(double minimumSymbolSize, double size) {
+        return (int) Math.ceil(Math.max(minimumSymbolSize, size));
+    }
 }
@@ -0,0 +1,454 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.legend.options.LegendOptions;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Lays out a legend in a single pass: the geometry of every node (icons, labels, layer titles,
+ * offsets and margins) is measured first into a tree of boxes, then exactly one output image is
+ * allocated and the icons and texts are drawn straight into it.
+ *
+ * <p>The geometry is the one produced by {@link LegendMerger} and the margin added by {@link
+ * BufferedImageLegendGraphicBuilder}: a label is vertically centered next to its icon with the label
+ * offset in between, rules after the first one are moved down by the rule offset, rules are stacked in
+ * columns (vertical layout, split at the maximum height) or in a row (horizontal layout), each rules
+ * block is put under the title of its layer, and the layers are arranged the same way. Unlike the
+ * merger, no intermediate image is created for the nodes, the rows, the columns or the margin.
+ *
+ * <p>The icons are opaque to the engine: a {@link ContentPainter} draws them, so the same layout can
+ * be painted on a raster or on a vector graphics.
+ *
+ * @author Adrien Bessy
+ */
+public class LegendLayoutEngine {
+
+    /**
+     * Width added by the merger to every block of nodes ("buffer the width a bit").
+     */
+    private static final int BLOCK_WIDTH_BUFFER = 2;
+
+    /**
+     * Margin around the whole legend.
+     */
+    private static final int MARGIN = 10;
+
+    /**
+     * Draws the icon of an entry.
+     *
+     * @param <T> the type of the icons
+     */
+    @FunctionalInterface
+    public interface ContentPainter<T> {
+        /**
+         * Draws an icon with its top left corner at (x, y).
+         *
+         * @param graphics the graphics of the legend
+         * @param content  the icon
+         * @param x        the abscissa of the icon
+         * @param y        the ordinate of the icon
+         */
+        void paint(Graphics2D graphics, T content, int x, int y) throws Exception;
+    }
+
+    /**
+     * A rule of a layer: its icon and its label.
+     *
+     * @param <T> the type of the icons
+     */
+    public static final class Entry<T> {
+        private final T content;
+        private final int width;
+        private final int height;
+        private final String label;
+        private final boolean blank;
+
+        /**
+         * @param content the icon
+         * @param width   the width of the icon
+         * @param height  the height of the icon
+         * @param label   the label of the rule, null or empty for none
+         * @param blank   true if the icon has no pixel differing from the background
+         */
+        public Entry(T content, int width, int height, String label, boolean blank) {
+            this.content = content;
+            this.width = width;
+            this.height = height;
+            this.label = label;
+            this.blank = blank;
+        }
+    }
+
+    /**
+     * The legend of a layer: a title above the entries of its rules.
+     *
+     * @param <T> the type of the icons
+     */
+    public static final class Layer<T> {
+        private final String title;
+        private final List<Entry<T>> entries;
+
+        /**
+         * @param title   the title of the layer
+         * @param entries the entries of the rules which have an icon
+         */
+        public Layer(String title, List<Entry<T>> entries) {
+            this.title = title;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * A measured text, possibly spread on several lines.
+     */
+    public static final class Text {
+        private final String[] lines;
+        private final int[] baselines;
+        private final int x;
+        private final int width;
+        private final int height;
+
+        private Text(String[] lines, int[] baselines, int x, int width, int height) {
+            this.lines = lines;
+            this.baselines = baselines;
+            this.x = x;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return the lines of the text
+         */
+        public String[] getLines() {
+            return lines;
+        }
+    }
+
+    /**
+     * A node of the box tree, its children are placed relatively to its top left corner.
+     */
+    private static final class Box {
+        private final Object leaf;
+        private final List<Box> children = new ArrayList<>();
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+
+        private Box(Object leaf, int width, int height) {
+            this.leaf = leaf;
+            this.width = width;
+            this.height = height;
+        }
+
+        private Box add(Box child, int x, int y) {
+            child.x = x;
+            child.y = y;
+            children.add(child);
+            return child;
+        }
+    }
+
+    /**
+     * The measured legend, ready to be painted.
+     *
+     * @param <T> the type of the icons
+     */
+    public static final class Layout<T> {
+        private final Box root;
+
+        private Layout(Box root) {
+            this.root = root;
+        }
+
+        /**
+         * @return the width of the legend, margin included
+         */
+        public int getWidth() {
+            return root.width;
+        }
+
+        /**
+         * @return the height of the legend, margin included
+         */
+        public int getHeight() {
+            return root.height;
+        }
+    }
+
+    private final LegendOptions legendOptions;
+
+    private final LegendRenderProfile profile;
+
+    /**
+     * Creates an engine for a request.
+     *
+     * @param legendOptions the options of the request
+     */
+    public LegendLayoutEngine(LegendOptions legendOptions) {
+        this(legendOptions, LegendRenderProfile.of(legendOptions));
+    }
+
+    /**
+     * Creates an engine for a request whose fonts and colors are already resolved.
+     *
+     * @param legendOptions the options of the request
+     * @param profile       the render profile of the options
+     */
+    public LegendLayoutEngine(LegendOptions legendOptions, LegendRenderProfile profile) {
+        this.legendOptions = legendOptions;
+        this.profile = profile;
+    }
+
+    /**
+     * Measures the legend of the layers.
+     *
+     * @param layers the layers, the layers without entries are skipped
+     * @param <T>    the type of the icons
+     * @return the layout
+     */
+    public <T> Layout<T> layout(List<Layer<T>> layers) {
+        List<Box> layerBoxes = new ArrayList<>(layers.size());
+        for (Layer<T> layer : layers) {
+            if (layer.entries.isEmpty()) {
+                continue;
+            }
+            layerBoxes.add(layoutLayer(layer));
+        }
+        if (layerBoxes.isEmpty()) {
+            throw new IllegalArgumentException("no legend passed");
+        }
+        Box legend = arrange(layerBoxes);
+        Box root = new Box(null, legend.width + MARGIN * 2, legend.height + MARGIN * 2);
+        root.add(legend, MARGIN, MARGIN);
+        return new Layout<>(root);
+    }
+
+    /**
+     * Measures a text. A text with line breaks (real ones or "\n") is spread on several lines, a
+     * single line text is shifted by the title offset.
+     *
+     * @param text the text
+     * @return the measured text
+     */
+    public Text measureText(String text) {
+        if (text.contains("\n") || text.contains("\\n")) {
+            List<String> lines = new ArrayList<>();
+            StringTokenizer st = new StringTokenizer(text.replaceAll("\\\\n", "\n"), "\n\r\f");
+            while (st.hasMoreTokens()) {
+                lines.add(st.nextToken());
+            }
+            int[] baselines = new int[lines.size()];
+            double width = 0;
+            int y = -profile.getDescent();
+            int height = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                Rectangle2D bounds = profile.getStringBounds(lines.get(i));
+                int lineHeight = (int) Math.ceil(bounds.getHeight());
+                y += lineHeight;
+                height += lineHeight;
+                baselines[i] = y;
+                width = Math.max(width, bounds.getWidth());
+            }
+            return new Text(lines.toArray(new String[0]), baselines, 0, (int) Math.ceil(width), height);
+        }
+        Rectangle2D bounds = profile.getStringBounds(text);
+        int height = (int) Math.ceil(bounds.getHeight());
+        int titleOffsetX = intValue(legendOptions.getTitleOffsetX());
+        return new Text(new String[]{text}, new int[]{height - profile.getDescent()}, titleOffsetX,
+                (int) Math.ceil(bounds.getWidth()) + titleOffsetX, height);
+    }
+
+    private <T> Box layoutLayer(Layer<T> layer) {
+        List<Box> nodes = new ArrayList<>(layer.entries.size());
+        int labelOffsetX = intValue(legendOptions.getLabelOffsetX());
+        int ruleOffsetY = intValue(legendOptions.getRuleOffsetY());
+        for (int i = 0; i < layer.entries.size(); i++) {
+            Entry<T> entry = layer.entries.get(i);
+            Box icon = new Box(entry, entry.width, entry.height);
+            Box node;
+            boolean blank = entry.blank;
+            if (entry.label != null && !entry.label.isEmpty()) {
+                Box label = new Box(measureText(entry.label), 0, 0);
+                label.width = ((Text) label.leaf).width;
+                label.height = ((Text) label.leaf).height;
+                int offsetY = i == 0 ? 0 : ruleOffsetY;
+                node = new Box(null, clamp(icon.width + label.width + labelOffsetX),
+                        clamp(Math.max(icon.height, label.height) + offsetY));
+                node.add(icon, 0, (int) Math.round((node.height - icon.height) / 2d));
+                node.add(label, icon.width + labelOffsetX, (int) Math.round((node.height - label.height) / 2d));
+                // a label drawn with the background color leaves the node blank
+                blank &= profile.getLabelFontColor().getRGB() == profile.getBackgroundRGB();
+            } else {
+                node = new Box(null, icon.width, icon.height);
+                node.add(icon, 0, 0);
+            }
+            if (!blank || !skipsBlankNodes()) {
+                nodes.add(node);
+            }
+        }
+        Box rules = arrange(nodes);
+        Text titleText = measureText(layer.title);
+        Box title = new Box(titleText, titleText.width, titleText.height);
+        Box layerBox = new Box(null, clamp(Math.max(rules.width, title.width)), clamp(title.height + rules.height));
+        layerBox.add(title, 0, 0);
+        layerBox.add(rules, 0, title.height);
+        return layerBox;
+    }
+
+    /**
+     * Blank rule nodes are only dropped by the vertical layout without maximum height.
+     */
+    private boolean skipsBlankNodes() {
+        return legendOptions.getLayout() == LegendUtils.LegendLayout.VERTICAL && intValue(legendOptions.getMaxHeight()) <= 0;
+    }
+
+    /**
+     * Arranges nodes in columns (vertical layout) or in a row (horizontal layout).
+     *
+     * @param nodes the nodes
+     * @return the block holding the nodes
+     */
+    private Box arrange(List<Box> nodes) {
+        Box block = new Box(null, 0, 0);
+        int width = 0;
+        int height = 0;
+        if (legendOptions.getLayout() == LegendUtils.LegendLayout.HORIZONTAL) {
+            for (Box node : nodes) {
+                block.add(node, width, 0);
+                width += node.width;
+                height = Math.max(height, node.height);
+            }
+        } else {
+            for (List<Box> column : splitColumns(nodes)) {
+                int columnWidth = 0;
+                int columnHeight = 0;
+                for (Box node : column) {
+                    block.add(node, width, columnHeight);
+                    columnHeight += node.height;
+                    columnWidth = Math.max(columnWidth, node.width);
+                }
+                width += columnWidth;
+                height = Math.max(height, columnHeight);
+            }
+        }
+        block.width = clamp(width + BLOCK_WIDTH_BUFFER);
+        block.height = clamp(height);
+        return block;
+    }
+
+    /**
+     * Splits nodes in columns: a column is filled until its height exceeds the maximum height, a
+     * single column is used without maximum height.
+     */
+    private List<List<Box>> splitColumns(List<Box> nodes) {
+        int maxHeight = intValue(legendOptions.getMaxHeight());
+        if (maxHeight <= 0) {
+            return Collections.singletonList(nodes);
+        }
+        List<List<Box>> columns = new ArrayList<>();
+        List<Box> column = new ArrayList<>();
+        columns.add(column);
+        int columnHeight = 0;
+        for (Box node : nodes) {
+            if (columnHeight > maxHeight) {
+                column = new ArrayList<>();
+                columns.add(column);
+                columnHeight = 0;
+            }
+            column.add(node);
+            columnHeight += node.height;
+        }
+        return columns;
+    }
+
+    /**
+     * Paints a layout: fills the background, then draws every icon and every text at its place.
+     *
+     * @param layout   the layout
+     * @param graphics the graphics, covering at least the size of the layout
+     * @param painter  draws the icons
+     * @param <T>      the type of the icons
+     */
+    public <T> void paint(Layout<T> layout, Graphics2D graphics, ContentPainter<T> painter) throws Exception {
+        graphics.setColor(profile.getBackgroundColor());
+        graphics.fillRect(0, 0, layout.getWidth(), layout.getHeight());
+        profile.applyLabelStyle(graphics);
+        paint(layout.root, 0, 0, graphics, painter);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void paint(Box box, int x, int y, Graphics2D graphics, ContentPainter<T> painter) throws Exception {
+        int left = x + box.x;
+        int top = y + box.y;
+        if (box.leaf instanceof Entry) {
+            painter.paint(graphics, ((Entry<T>) box.leaf).content, left, top);
+        } else if (box.leaf instanceof Text) {
+            Text text = (Text) box.leaf;
+            graphics.setColor(profile.getLabelFontColor());
+            for (int i = 0; i < text.lines.length; i++) {
+                graphics.drawString(text.lines[i], left + text.x, top + text.baselines[i]);
+            }
+        }
+        for (Box child : box.children) {
+            paint(child, left, top, graphics, painter);
+        }
+    }
+
+    /**
+     * Renders a layout of raster icons into a single RGB image.
+     *
+     * @param layout the layout
+     * @return the legend
+     */
+    public BufferedImage render(Layout<RenderedImage> layout) throws Exception {
+        BufferedImage legend = new BufferedImage(layout.getWidth(), layout.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = legend.createGraphics();
+        try {
+            paint(layout, graphics, (g, icon, x, y) -> g.drawRenderedImage(icon, AffineTransform.getTranslateInstance(x, y)));
+        } finally {
+            graphics.dispose();
+        }
+        return legend;
+    }
+
+    /**
+     * The merger creates images of at least 1x1 pixel.
+     */
+    private static int clamp(int size) {
+        return Math.max(1, size);
+    }
+
+    private static int intValue(Integer value) {
+        return value == null ? 0 : value;
+    }
+}
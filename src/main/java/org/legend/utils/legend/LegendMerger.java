@@ -23,6 +23,10 @@ package org.legend.utils.legend;
 
 import org.geotools.api.style.Rule;
 import org.legend.options.LegendOptions;
+import org.legend.utils.metrics.LabelRenderEvent;
+import org.legend.utils.metrics.LegendMergeEvent;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -62,6 +66,8 @@ public class LegendMerger {
         boolean forceLabelsOn;
         boolean forceLabelsOff;
         boolean forceTitlesOff;
+        LabelRasterCache labelCache;
+        LegendRenderProfile profile;
 
         /**
          * Build a new set of options, specifying each option.
@@ -127,19 +133,41 @@ public class LegendMerger {
                 boolean forceLabelsOn,
                 boolean forceLabelsOff,
                 LegendOptions legendOptions) {
+            this(imageStack, margin, forceLabelsOn, forceLabelsOff, legendOptions, LegendRenderProfile.of(legendOptions));
+        }
+
+        /**
+         * Build a new set of options, getting most of the options from a legendOptions map and the
+         * drawing resources from its already resolved profile.
+         *
+         * @param imageStack     images representing the icons to merge
+         * @param margin         margin between icons
+         * @param forceLabelsOn  force labels to be always rendered
+         * @param forceLabelsOff force labels to be never rendered
+         * @param legendOptions  legendOptions map
+         * @param profile        the render profile of the legend options
+         */
+        public MergeOptions(
+                List<RenderedImage> imageStack,
+                int margin,
+                boolean forceLabelsOn,
+                boolean forceLabelsOff,
+                LegendOptions legendOptions,
+                LegendRenderProfile profile) {
             this(
                     imageStack,
                     margin,
-                    LegendUtils.getBackgroundColor(legendOptions),
+                    profile.getBackgroundColor(),
                     false,
                     true,
                     legendOptions.getLayout(),
                     DEFAULT_ROW_WIDTH,
                     DEFAULT_ROWS,
                     DEFAULT_COLUMNS,
-                    LegendUtils.getLabelFont(legendOptions),
+                    profile.getLabelFont(),
                     forceLabelsOn,
                     forceLabelsOff, legendOptions);
+            this.profile = profile;
         }
 
         public List<RenderedImage> getImageStack() {
@@ -195,6 +223,20 @@ public class LegendMerger {
             return forceTitlesOff;
         }
 
+        /**
+         * @return the cache of the rendered labels, null if the labels are rendered every time
+         */
+        public LabelRasterCache getLabelCache() {
+            return labelCache;
+        }
+
+        /**
+         * @return the render profile of the legend options, null when the options were given value by value
+         */
+        public LegendRenderProfile getProfile() {
+            return profile;
+        }
+
         public static MergeOptions createFromOptions(
                 List<RenderedImage> imageStack,
                 int margin,
@@ -206,6 +248,29 @@ public class LegendMerger {
                     forceLabelsOn,
                     forceLabelsOff, legendOptions);
         }
+
+        public static MergeOptions createFromOptions(
+                List<RenderedImage> imageStack,
+                int margin,
+                boolean forceLabelsOn,
+                boolean forceLabelsOff, LegendOptions legendOptions,
+                LabelRasterCache labelCache) {
+            MergeOptions options = createFromOptions(imageStack, margin, forceLabelsOn, forceLabelsOff, legendOptions);
+            options.labelCache = labelCache;
+            return options;
+        }
+
+        public static MergeOptions createFromOptions(
+                List<RenderedImage> imageStack,
+                int margin,
+                boolean forceLabelsOn,
+                boolean forceLabelsOff, LegendOptions legendOptions,
+                LabelRasterCache labelCache, LegendRenderProfile profile) {
+            MergeOptions options = new LegendMerger.MergeOptions(imageStack, margin, forceLabelsOn, forceLabelsOff,
+                    legendOptions, profile);
+            options.labelCache = labelCache;
+            return options;
+        }
     }
 
     /**
@@ -220,6 +285,18 @@ public class LegendMerger {
      */
     public static BufferedImage mergeLegends(
             Rule[] rules, MergeOptions mergeOptions, LegendOptions legendOptions) throws Exception {
+        final LegendMergeEvent event = new LegendMergeEvent();
+        event.start();
+        BufferedImage finalLegend = doMergeLegends(rules, mergeOptions, legendOptions);
+        finishMergeEvent(event, "mergeLegends", rules, mergeOptions, finalLegend);
+        return finalLegend;
+    }
+
+    /**
+     * The merge of {@link #mergeLegends(Rule[], MergeOptions, LegendOptions)}, without its event.
+     */
+    private static BufferedImage doMergeLegends(
+            Rule[] rules, MergeOptions mergeOptions, LegendOptions legendOptions) throws Exception {
         List<RenderedImage> imageStack = mergeOptions.getImageStack();
 
         // Builds legend nodes (graphics + label)
@@ -268,7 +345,7 @@ public class LegendMerger {
                     createColumns(
                             nodes,
                             mergeOptions.getColumns(),
-                            true, legendOptions);
+                            true, legendOptions, getProfile(mergeOptions, legendOptions));
             finalLegend = buildFinalVLegend(columns, mergeOptions);
         }
 
@@ -285,6 +362,17 @@ public class LegendMerger {
      * @return the image with all the images on the argument list.
      */
     public static BufferedImage mergeGroups(Rule[] rules, MergeOptions mergeOptions, LegendOptions legendOptions) throws Exception {
+        final LegendMergeEvent event = new LegendMergeEvent();
+        event.start();
+        BufferedImage finalLegend = doMergeGroups(rules, mergeOptions, legendOptions);
+        finishMergeEvent(event, "mergeGroups", rules, mergeOptions, finalLegend);
+        return finalLegend;
+    }
+
+    /**
+     * The merge of {@link #mergeGroups(Rule[], MergeOptions, LegendOptions)}, without its event.
+     */
+    private static BufferedImage doMergeGroups(Rule[] rules, MergeOptions mergeOptions, LegendOptions legendOptions) throws Exception {
         List<RenderedImage> imageStack = mergeOptions.getImageStack();
 
         final int imgCount = imageStack.size();
@@ -324,7 +412,7 @@ public class LegendMerger {
         }
 
         if (layout == LegendUtils.LegendLayout.VERTICAL) {
-            Column[] columns = createColumns(nodes, 0, false, legendOptions);
+            Column[] columns = createColumns(nodes, 0, false, legendOptions, getProfile(mergeOptions, legendOptions));
             finalLegend = buildFinalVLegend(columns, mergeOptions);
         }
 
@@ -398,10 +486,11 @@ public class LegendMerger {
      * @param maxColumns    maximum number of columns
      * @param legendOptions general mechanism for acquiring legend symbols
      * @param checkColor    check for presence of color in legend
+     * @param profile       the render profile of the legend options
      * @return column list
      */
     private static Column[] createColumns(List<BufferedImage> nodes, int maxColumns,
-                                          boolean checkColor, LegendOptions legendOptions) {
+                                          boolean checkColor, LegendOptions legendOptions, LegendRenderProfile profile) {
         Integer maxHeight = legendOptions.getMaxHeight();
         Column[] legendMatrix;
         /*
@@ -447,11 +536,12 @@ public class LegendMerger {
             int cn = 0;
             int rc = 0;
             boolean colourPresent;
+            final int background = profile.getBackgroundRGB();
             for (int i = 0; i < nodes.size(); i++) {
                 if (rc < rowNumber) {
                     if (checkColor) {
                         // check for presence of colour (ie. non-empty legend row)
-                        colourPresent = checkColor(nodes.get(i), legendOptions);
+                        colourPresent = !BlankDetector.isUniform(nodes.get(i), background);
                         if (colourPresent) {
                             legendMatrix[cn].addNode(nodes.get(i));
                             rc++;
@@ -480,17 +570,7 @@ public class LegendMerger {
      * @return false if no colours are detected
      */
     public static boolean checkColor(BufferedImage img, LegendOptions legendOptions) {
-        int w = img.getWidth();
-        int h = img.getHeight();
-        boolean colourPresent = false;
-        for (int j = 0; j < w; j++) {
-            for (int k = 0; k < h; k++) {
-                if (img.getRGB(j, k) != LegendUtils.getBackgroundColor(legendOptions).getRGB()) {
-                    colourPresent = true;
-                }
-            }
-        }
-        return colourPresent;
+        return !BlankDetector.isUniform(img, LegendRenderProfile.of(legendOptions).getBackgroundRGB());
     }
 
     /**
@@ -778,12 +858,39 @@ public class LegendMerger {
         if (!options.isForceLabelsOff() && rule != null) {
             String label = LegendUtils.getRuleLabel(rule);
             if (label != null && label.length() > 0) {
-                labelImg = getRenderedLabel((BufferedImage) img, label, legendOptions);
+                labelImg = getRenderedLabel((BufferedImage) img, label, legendOptions, options.getLabelCache(),
+                        getProfile(options, legendOptions));
             }
         }
         return labelImg;
     }
 
+    /**
+     * Returns the render profile of the merge options, resolving it from the legend options when
+     * they were given value by value.
+     */
+    private static LegendRenderProfile getProfile(MergeOptions options, LegendOptions legendOptions) {
+        LegendRenderProfile profile = options.getProfile();
+        return profile != null ? profile : LegendRenderProfile.of(legendOptions);
+    }
+
+    /**
+     * Commits the event of a merge.
+     *
+     * @param event        the event started before the merge
+     * @param operation    the name of the merge
+     * @param rules        the merged rules, may be null
+     * @param mergeOptions the merge options
+     * @param finalLegend  the merged image, may be null
+     */
+    private static void finishMergeEvent(LegendMergeEvent event, String operation, Rule[] rules,
+                                         MergeOptions mergeOptions, BufferedImage finalLegend) {
+        if (event.isEnabled()) {
+            event.finish(operation, rules != null ? rules.length : 0, mergeOptions.getImageStack().size(),
+                    finalLegend != null ? finalLegend.getWidth() : 0, finalLegend != null ? finalLegend.getHeight() : 0);
+        }
+    }
+
     /**
      * Renders a label on the given image, using parameters from the options for the rendering
      * style.
@@ -794,11 +901,57 @@ public class LegendMerger {
      * @return a customized label image
      */
     public static BufferedImage getRenderedLabel(BufferedImage image, String label, LegendOptions legendOptions) {
+        return getRenderedLabel(image, label, legendOptions, null);
+    }
+
+    /**
+     * Renders a label on the given image, or takes it from a cache of rendered labels.
+     *
+     * @param image         the BufferedImage
+     * @param label         the label
+     * @param legendOptions the legend options
+     * @param labelCache    the cache of the rendered labels, or null to render the label
+     * @return a customized label image, it must not be painted on when it comes from the cache
+     */
+    public static BufferedImage getRenderedLabel(BufferedImage image, String label, LegendOptions legendOptions,
+                                                 LabelRasterCache labelCache) {
+        return getRenderedLabel(image, label, legendOptions, labelCache, LegendRenderProfile.of(legendOptions));
+    }
+
+    /**
+     * Renders a label on the given image with an already resolved profile, or takes it from a cache
+     * of rendered labels.
+     *
+     * @param image         the BufferedImage
+     * @param label         the label
+     * @param legendOptions the legend options
+     * @param labelCache    the cache of the rendered labels, or null to render the label
+     * @param profile       the render profile of the legend options
+     * @return a customized label image, it must not be painted on when it comes from the cache
+     */
+    public static BufferedImage getRenderedLabel(BufferedImage image, String label, LegendOptions legendOptions,
+                                                 LabelRasterCache labelCache, LegendRenderProfile profile) {
+        final LabelRenderEvent event = new LabelRenderEvent();
+        event.start();
+        final long start = System.nanoTime();
         final Graphics2D graphics = image.createGraphics();
-        Font labelFont = LegendUtils.getLabelFont(legendOptions);
-        graphics.setFont(labelFont);
-        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        return LegendUtils.renderLabel(label, graphics, legendOptions);
+        BufferedImage renderedLabel = null;
+        try {
+            profile.applyLabelStyle(graphics);
+            if (labelCache != null) {
+                renderedLabel = labelCache.getLabel(label, graphics, legendOptions, profile);
+            } else {
+                renderedLabel = LegendUtils.renderLabel(label, graphics, legendOptions, profile);
+            }
+            return renderedLabel;
+        } finally {
+            graphics.dispose();
+            LegendMetricsRegistry.getMetrics().recordSince(LegendMetrics.Stage.LABEL_RENDER, start);
+            if (event.isEnabled()) {
+                event.finish(label, labelCache != null, renderedLabel != null ? renderedLabel.getWidth() : 0,
+                        renderedLabel != null ? renderedLabel.getHeight() : 0);
+            }
+        }
     }
 }
 
@@ -0,0 +1,193 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.geotools.geometry.jts.LiteShape2;
+import org.legend.options.LegendOptions;
+
+import java.awt.image.BufferedImage;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Holds the state of a single legend request.
+ *
+ * <p>A {@link LegendGraphicBuilder} keeps no per-request state in its own fields, everything that
+ * depends on the {@link LegendOptions} of a request lives here. A new context is created for every
+ * call to <code>buildLegendGraphic</code>, so a single builder instance can serve concurrent
+ * requests. A context itself is confined to the thread rendering the request and is not thread
+ * safe.
+ *
+ * @author Adrien Bessy
+ */
+public class LegendRenderContext {
+
+    private final LegendOptions legendOptions;
+
+    private final int width;
+
+    private final int height;
+
+    private final boolean transparent;
+
+    private final ExecutorService executor;
+
+    /**
+     * The fonts and colors of the options, resolved once for the request and its forks
+     */
+    private final LegendRenderProfile profile;
+
+    /**
+     * The pool the icon canvases are taken from, null to create a new image for every icon
+     */
+    private final IconCanvasPool canvasPool;
+
+    /**
+     * The canvases leased by the request, shared with the forked contexts
+     */
+    private final Queue<BufferedImage> leasedCanvases;
+
+    /**
+     * The resources shared by the jobs of a batch, null outside of a batch
+     */
+    LegendBatchResources batchResources;
+
+    /**
+     * Just a holder to avoid creating many line shapes from inside <code>getSampleShape()</code>
+     */
+    LiteShape2 sampleLine;
+
+    /**
+     * Just a holder to avoid creating many point shapes from inside <code>getSampleShape()</code>
+     */
+    LiteShape2 samplePoint;
+
+    /**
+     * Creates the context of a request.
+     *
+     * @param legendOptions the options of the request
+     */
+    public LegendRenderContext(LegendOptions legendOptions) {
+        this(legendOptions, null);
+    }
+
+    /**
+     * Creates the context of a request whose rendering may be split in tasks.
+     *
+     * @param legendOptions the options of the request
+     * @param executor      the executor running the tasks of the request, or null to render on the calling thread
+     */
+    public LegendRenderContext(LegendOptions legendOptions, ExecutorService executor) {
+        this(legendOptions, executor, null);
+    }
+
+    /**
+     * Creates the context of a request whose icons are painted on pooled canvases.
+     *
+     * @param legendOptions the options of the request
+     * @param executor      the executor running the tasks of the request, or null to render on the calling thread
+     * @param canvasPool    the pool of the icon canvases, or null to create a new image for every icon
+     */
+    public LegendRenderContext(LegendOptions legendOptions, ExecutorService executor, IconCanvasPool canvasPool) {
+        this(legendOptions, executor, canvasPool, new ConcurrentLinkedQueue<>(), LegendRenderProfile.of(legendOptions));
+    }
+
+    private LegendRenderContext(LegendOptions legendOptions, ExecutorService executor, IconCanvasPool canvasPool,
+                                Queue<BufferedImage> leasedCanvases, LegendRenderProfile profile) {
+        LegendUtils.ensureNotNull(legendOptions, "legendOptions");
+        this.legendOptions = legendOptions;
+        this.profile = profile;
+        this.width = legendOptions.getWidth();
+        this.height = legendOptions.getHeight();
+        this.transparent = legendOptions.isTransparent();
+        this.executor = executor;
+        this.canvasPool = canvasPool;
+        this.leasedCanvases = leasedCanvases;
+    }
+
+    /**
+     * Creates a context for the same request to be used by another thread. The cached sample
+     * shapes are not shared, the leased canvases, the render profile and the batch resources are.
+     *
+     * @return a new context with the same options, executor and canvas pool
+     */
+    public LegendRenderContext fork() {
+        LegendRenderContext context = new LegendRenderContext(legendOptions, executor, canvasPool, leasedCanvases, profile);
+        context.batchResources = batchResources;
+        return context;
+    }
+
+    /**
+     * Creates the image of a rule icon. With a canvas pool, the image is leased from the pool until
+     * {@link #releaseCanvases()} is called, so it must not outlive the request.
+     *
+     * @return an image of the size of the icons, to be prepared with {@link ImageUtils#prepareTransparency}
+     */
+    public BufferedImage createIconImage() {
+        if (canvasPool == null) {
+            return ImageUtils.createImage(width, height, null, transparent);
+        }
+        BufferedImage canvas = canvasPool.acquire(width, height, transparent);
+        leasedCanvases.add(canvas);
+        return canvas;
+    }
+
+    /**
+     * Gives the canvases leased by the request and its forks back to the pool. To be called once
+     * the icons have been composed into the output image, and only when no task of the request is
+     * still painting.
+     */
+    public void releaseCanvases() {
+        BufferedImage canvas;
+        while ((canvas = leasedCanvases.poll()) != null) {
+            canvasPool.release(canvas);
+        }
+    }
+
+    public LegendOptions getLegendOptions() {
+        return legendOptions;
+    }
+
+    /**
+     * @return the fonts and colors of the options of the request
+     */
+    public LegendRenderProfile getProfile() {
+        return profile;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isTransparent() {
+        return transparent;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.legend.options.LegendOptions;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The drawing resources of a {@link LegendOptions}, resolved once.
+ *
+ * <p>Resolving the label font, the label color and the background color of the options means
+ * creating a {@link Font} and decoding hexadecimal colors, a profile does it once and is then
+ * shared by every rule, layer and request drawn with the same options. Profiles are immutable and
+ * thread safe. {@link #of(LegendOptions)} keeps the profiles of the options seen, up to {@link
+ * #MAX_CACHED_PROFILES}, so requests with equal options get the same profile. A request resolves its
+ * profile once, in its {@link LegendRenderContext}, and hands it down to the drawing code.
+ *
+ * @author Adrien Bessy
+ */
+public final class LegendRenderProfile {
+
+    /**
+     * Maximum number of profiles kept by {@link #of(LegendOptions)}.
+     */
+    static final int MAX_CACHED_PROFILES = 64;
+
+    private static final ConcurrentMap<Key, LegendRenderProfile> PROFILES = new ConcurrentHashMap<>();
+
+    private final Font labelFont;
+
+    private final Color labelFontColor;
+
+    private final Color backgroundColor;
+
+    private final int backgroundRGB;
+
+    /**
+     * The hints the labels are drawn with
+     */
+    private final RenderingHints labelHints;
+
+    /**
+     * The font render context of a graphics drawing labels, texts are measured with it
+     */
+    private final FontRenderContext fontRenderContext;
+
+    private final int ascent;
+
+    private final int descent;
+
+    private final int lineHeight;
+
+    private LegendRenderProfile(LegendOptions legendOptions) {
+        this.labelFont = LegendUtils.getLabelFont(legendOptions);
+        this.labelFontColor = LegendUtils.getLabelFontColor(legendOptions);
+        this.backgroundColor = LegendUtils.getBackgroundColor(legendOptions);
+        this.backgroundRGB = backgroundColor.getRGB();
+        this.labelHints = new RenderingHints(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            applyLabelStyle(graphics);
+            FontMetrics metrics = graphics.getFontMetrics();
+            this.fontRenderContext = graphics.getFontRenderContext();
+            this.ascent = metrics.getAscent();
+            this.descent = metrics.getDescent();
+            this.lineHeight = metrics.getHeight();
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * Returns the profile of the given options, compiling it if no options with the same values
+     * were seen recently. The options are read when the method is called, changing them afterwards
+     * does not change the returned profile.
+     *
+     * @param legendOptions the options
+     * @return the profile of the options
+     */
+    public static LegendRenderProfile of(LegendOptions legendOptions) {
+        LegendUtils.ensureNotNull(legendOptions, "legendOptions");
+        Key key = new Key(legendOptions);
+        LegendRenderProfile profile = PROFILES.get(key);
+        if (profile != null) {
+            return profile;
+        }
+        // two threads may compile the same profile, they are equivalent
+        profile = compile(legendOptions);
+        if (PROFILES.size() >= MAX_CACHED_PROFILES) {
+            PROFILES.clear();
+        }
+        LegendRenderProfile previous = PROFILES.putIfAbsent(key, profile);
+        return previous != null ? previous : profile;
+    }
+
+    /**
+     * Compiles the profile of the given options without looking at the profiles already compiled.
+     *
+     * @param legendOptions the options
+     * @return a new profile
+     */
+    public static LegendRenderProfile compile(LegendOptions legendOptions) {
+        LegendUtils.ensureNotNull(legendOptions, "legendOptions");
+        return new LegendRenderProfile(legendOptions);
+    }
+
+    /**
+     * Sets the label font and the label hints on a graphics.
+     *
+     * @param graphics the graphics the labels will be drawn with
+     */
+    public void applyLabelStyle(Graphics2D graphics) {
+        graphics.setFont(labelFont);
+        graphics.addRenderingHints(labelHints);
+    }
+
+    /**
+     * Measures a single line of text drawn with the label font. The bounds are the ones the
+     * {@link FontMetrics} of a graphics prepared with {@link #applyLabelStyle(Graphics2D)} returns.
+     *
+     * @param text the text
+     * @return the logical bounds of the text
+     */
+    public Rectangle2D getStringBounds(String text) {
+        return labelFont.getStringBounds(text, fontRenderContext);
+    }
+
+    public Font getLabelFont() {
+        return labelFont;
+    }
+
+    public Color getLabelFontColor() {
+        return labelFontColor;
+    }
+
+    public Color getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * @return the ARGB value of the background color
+     */
+    public int getBackgroundRGB() {
+        return backgroundRGB;
+    }
+
+    /**
+     * @return a copy of the hints the labels are drawn with
+     */
+    public RenderingHints getLabelHints() {
+        return (RenderingHints) labelHints.clone();
+    }
+
+    public FontRenderContext getFontRenderContext() {
+        return fontRenderContext;
+    }
+
+    /**
+     * @return the ascent of the label font, as given by its {@link FontMetrics}
+     */
+    public int getAscent() {
+        return ascent;
+    }
+
+    /**
+     * @return the descent of the label font, as given by its {@link FontMetrics}
+     */
+    public int getDescent() {
+        return descent;
+    }
+
+    /**
+     * @return the height of a line of the label font, as given by its {@link FontMetrics}
+     */
+    public int getLineHeight() {
+        return lineHeight;
+    }
+
+    /**
+     * The values of the options a profile is compiled from.
+     */
+    private static final class Key {
+        private final Object bgColor;
+        private final Object fontColor;
+        private final String fontName;
+        private final String fontStyle;
+        private final Integer fontSize;
+        private final int hash;
+
+        private Key(LegendOptions legendOptions) {
+            this.bgColor = legendOptions.getBgColor();
+            this.fontColor = legendOptions.getFontColor();
+            this.fontName = legendOptions.getFontName();
+            this.fontStyle = legendOptions.getFontStyle();
+            this.fontSize = legendOptions.getFontSize();
+            this.hash = Objects.hash(bgColor, fontColor, fontName, fontStyle, fontSize);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(bgColor, key.bgColor)
+                    && Objects.equals(fontColor, key.fontColor)
+                    && Objects.equals(fontName, key.fontName)
+                    && Objects.equals(fontStyle, key.fontStyle)
+                    && Objects.equals(fontSize, key.fontSize);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the identical legend requests running at the same time: the first caller of a key
+ * renders the legend and the callers arriving while it renders wait for its result instead of
+ * rendering it again.
+ *
+ * <p>The key is the {@link LegendFingerprint} of the request, so only requests producing the same
+ * legend are coalesced. The result is shared by all the callers of a flight and must be treated as
+ * read only. When the rendering fails, all the waiting callers get its exception. A waiting caller
+ * gives up after the timeout of the coalescer, the rendering goes on for the first caller. Once a
+ * flight completes it is forgotten: it is not a cache, the next request renders again unless a
+ * {@link LegendCache} serves it.
+ *
+ * <p>A coalescer can be shared by builders having the same {@link org.legend.options.LegendBuilderOptions}
+ * rendering options, as the fingerprint does not cover them.
+ *
+ * @author Adrien Bessy
+ */
+public class LegendRequestCoalescer {
+
+    /**
+     * Default time a caller waits for the result of an identical request.
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ConcurrentMap<Object, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+
+    private final long timeoutNanos;
+
+    private final AtomicLong executions = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Creates a coalescer waiting at most {@link #DEFAULT_TIMEOUT}.
+     */
+    public LegendRequestCoalescer() {
+        this(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a coalescer.
+     *
+     * @param timeout the time a caller waits for the result of an identical request
+     */
+    public LegendRequestCoalescer(final Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("The timeout must be positive");
+        }
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    /**
+     * Runs the task, or waits for the result of the task of the same key already running.
+     *
+     * @param key  the key of the request, usually derived from its {@link LegendFingerprint}
+     * @param task renders the legend
+     * @param <T>  the type of the result
+     * @return the result of the task, shared with the other callers of the key
+     * @throws TimeoutException if the identical request did not complete in time
+     * @throws Exception        the exception of the task
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Object key, Callable<T> task) throws Exception {
+        LegendUtils.ensureNotNull(key, "key");
+        LegendUtils.ensureNotNull(task, "task");
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            LegendMetricsRegistry.getMetrics().increment(LegendMetrics.Counter.COALESCED_REQUESTS);
+            return (T) await(running);
+        }
+        executions.incrementAndGet();
+        T result;
+        try {
+            result = task.call();
+        } catch (Exception | Error e) {
+            // the callers arriving from now on start a new flight
+            flights.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        flights.remove(key, flight);
+        flight.complete(result);
+        return result;
+    }
+
+    private Object await(CompletableFuture<Object> flight) throws Exception {
+        try {
+            return flight.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            TimeoutException timeout = new TimeoutException(
+                    "The identical legend request did not complete in " + Duration.ofNanos(timeoutNanos));
+            timeout.initCause(e);
+            throw timeout;
+        }
+    }
+
+    /**
+     * @return the number of requests running right now
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * @return the number of tasks run since the coalescer was created
+     */
+    public long getExecutionCount() {
+        return executions.get();
+    }
+
+    /**
+     * @return the number of callers that waited for an identical request instead of running their task
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+}
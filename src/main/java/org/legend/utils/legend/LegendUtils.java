@@ -250,12 +250,28 @@ public class LegendUtils {
      * @return a {@link BufferedImage} of the properly rendered label.
      */
     public static BufferedImage renderLabel(String label, final Graphics2D g, LegendOptions legendOptions) {
+        return renderLabel(label, g, legendOptions, LegendRenderProfile.of(legendOptions));
+    }
+
+    /**
+     * Return a {@link BufferedImage} representing this label, drawn with the label color of an
+     * already compiled render profile.
+     *
+     * @param label         - the label to render
+     * @param g             - the Graphics2D that will be used to render this label
+     * @param legendOptions - the legend option param
+     * @param profile       - the render profile of the legend options
+     * @return a {@link BufferedImage} of the properly rendered label.
+     * @see #renderLabel(String, Graphics2D, LegendOptions)
+     */
+    public static BufferedImage renderLabel(String label, final Graphics2D g, LegendOptions legendOptions,
+                                            LegendRenderProfile profile) {
         ensureNotNull(label);
         ensureNotNull(g);
         // We'll accept '/n' as a text string
         // to indicate a line break, as well as a traditional 'real' line-break in the XML.
         BufferedImage renderedLabel;
-        Color labelColor = getLabelFontColor(legendOptions);
+        Color labelColor = profile.getLabelFontColor();
         if ((label.contains("\n")) || (label.contains("\\n"))) {
             // this is a label WITH line-breaks...we need to figure out it's height *and*
             // width, and then adjust the legend size accordingly
@@ -307,8 +323,9 @@ public class LegendUtils {
         } else {
             // this is a traditional 'regular-old' label.  Just figure the
             // size and act accordingly.
-            int height = (int) Math.ceil(g.getFontMetrics().getStringBounds(label, g).getHeight());
-            int width = (int) Math.ceil(g.getFontMetrics().getStringBounds(label, g).getWidth());
+            Rectangle2D bounds = g.getFontMetrics().getStringBounds(label, g);
+            int height = (int) Math.ceil(bounds.getHeight());
+            int width = (int) Math.ceil(bounds.getWidth());
             renderedLabel = new BufferedImage(width + legendOptions.getTitleOffsetX(), height, BufferedImage.TYPE_INT_ARGB);
             Graphics2D rlg = renderedLabel.createGraphics();
             rlg.setColor(labelColor);
@@ -0,0 +1,478 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder tuned for legends, which are mostly made of flat colors.
+ *
+ * <p>The distinct colors of the image are counted first: with at most {@link #MAX_PALETTE_SIZE}
+ * colors the image is written as an 8-bit paletted PNG (with a <code>tRNS</code> chunk for
+ * translucent colors), otherwise as RGB or RGBA. The rows are filtered and deflated one at a time
+ * and written as bounded <code>IDAT</code> chunks, so the PNG is streamed to the output without
+ * ever being held in memory.
+ *
+ * <p>The encoder is immutable and can be shared by concurrent requests.
+ *
+ * @author Adrien Bessy
+ */
+public final class PngEncoder {
+
+    /**
+     * The PNG row filters.
+     */
+    public enum FilterStrategy {
+        NONE,
+        SUB,
+        UP,
+        AVERAGE,
+        PAETH,
+        /**
+         * Picks for every row the filter giving the smallest sum of absolute differences, except for
+         * paletted images which are not filtered, as the PNG specification recommends.
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * The maximum number of colors of a paletted image.
+     */
+    public static final int MAX_PALETTE_SIZE = 256;
+
+    /**
+     * Maximum number of compressed bytes per IDAT chunk.
+     */
+    private static final int IDAT_SIZE = 32 * 1024;
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    private static final int COLOR_TYPE_RGB = 2;
+
+    private static final int COLOR_TYPE_PALETTE = 3;
+
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private static final PngEncoder DEFAULT = new PngEncoder();
+
+    private final int compressionLevel;
+
+    private final FilterStrategy filterStrategy;
+
+    /**
+     * Creates an encoder with the default deflate level and the adaptive filter strategy.
+     */
+    public PngEncoder() {
+        this(Deflater.DEFAULT_COMPRESSION, FilterStrategy.ADAPTIVE);
+    }
+
+    /**
+     * Creates an encoder.
+     *
+     * @param compressionLevel the deflate level, from 0 (no compression) to 9, or -1 for the default level
+     * @param filterStrategy   the row filter
+     */
+    public PngEncoder(int compressionLevel, FilterStrategy filterStrategy) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level must be between -1 and 9");
+        }
+        LegendUtils.ensureNotNull(filterStrategy, "filterStrategy");
+        this.compressionLevel = compressionLevel;
+        this.filterStrategy = filterStrategy;
+    }
+
+    /**
+     * @return the encoder with the default configuration
+     */
+    public static PngEncoder getDefault() {
+        return DEFAULT;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public FilterStrategy getFilterStrategy() {
+        return filterStrategy;
+    }
+
+    @Override
+    public String toString() {
+        return "PngEncoder[compressionLevel=" + compressionLevel + ", filterStrategy=" + filterStrategy + "]";
+    }
+
+    /**
+     * Encodes an image as PNG. The stream is flushed but not closed.
+     *
+     * @param image the image
+     * @param out   the stream receiving the PNG
+     */
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        LegendUtils.ensureNotNull(image, "image");
+        LegendUtils.ensureNotNull(out, "out");
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final boolean alpha = image.getColorModel().hasAlpha();
+        final ColorTable palette = ColorTable.of(image, alpha);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        ChunkOutputStream header = new ChunkOutputStream(data, "IHDR");
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8);
+        ihdr.writeByte(palette != null ? COLOR_TYPE_PALETTE : alpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+        // deflate compression, adaptive filtering, no interlace
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        header.writeChunk();
+        if (palette != null) {
+            palette.write(data);
+        }
+
+        final int bytesPerPixel = palette != null ? 1 : alpha ? 4 : 3;
+        final FilterStrategy strategy = palette != null && filterStrategy == FilterStrategy.ADAPTIVE
+                ? FilterStrategy.NONE : filterStrategy;
+        final int[] pixels = new int[width];
+        byte[] previous = new byte[width * bytesPerPixel];
+        byte[] current = new byte[width * bytesPerPixel];
+        final RowFilter rowFilter = new RowFilter(current.length, bytesPerPixel);
+
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            ChunkOutputStream idat = new ChunkOutputStream(data, "IDAT", IDAT_SIZE);
+            DeflaterOutputStream deflated = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+                if (palette != null) {
+                    for (int x = 0; x < width; x++) {
+                        current[x] = (byte) palette.indexOf(pixels[x]);
+                    }
+                } else {
+                    for (int x = 0, i = 0; x < width; x++) {
+                        int argb = pixels[x];
+                        current[i++] = (byte) (argb >> 16);
+                        current[i++] = (byte) (argb >> 8);
+                        current[i++] = (byte) argb;
+                        if (alpha) {
+                            current[i++] = (byte) (argb >>> 24);
+                        }
+                    }
+                }
+                rowFilter.write(deflated, strategy, current, previous);
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            deflated.finish();
+            idat.writeChunk();
+        } finally {
+            deflater.end();
+        }
+        new ChunkOutputStream(data, "IEND").writeChunk();
+        data.flush();
+    }
+
+    /**
+     * The palette of an image, in the order the colors are met, the translucent colors first so
+     * that the tRNS chunk stays short.
+     */
+    private static final class ColorTable {
+        private static final int SLOTS = 1024;
+        private final int[] keys = new int[SLOTS];
+        private final short[] indexes = new short[SLOTS];
+        private final boolean[] used = new boolean[SLOTS];
+        private final int[] colors = new int[MAX_PALETTE_SIZE];
+        private final boolean alpha;
+        private int size;
+
+        private ColorTable(boolean alpha) {
+            this.alpha = alpha;
+        }
+
+        /**
+         * Collects the colors of an image.
+         *
+         * @return the palette, null if the image has more than {@link #MAX_PALETTE_SIZE} colors
+         */
+        private static ColorTable of(BufferedImage image, boolean alpha) {
+            ColorTable table = new ColorTable(alpha);
+            int width = image.getWidth();
+            int[] pixels = new int[width];
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int color = table.normalize(pixels[x]);
+                    if (table.find(color) < 0) {
+                        if (table.size == MAX_PALETTE_SIZE) {
+                            return null;
+                        }
+                        table.colors[table.size++] = color;
+                        table.put(color, table.size - 1);
+                    }
+                }
+            }
+            table.sortTranslucentFirst();
+            return table;
+        }
+
+        private int normalize(int argb) {
+            if (!alpha) {
+                return argb | 0xFF000000;
+            }
+            // every fully transparent pixel is the same color
+            return (argb >>> 24) == 0 ? 0 : argb;
+        }
+
+        private int find(int color) {
+            int slot = slot(color);
+            while (used[slot]) {
+                if (keys[slot] == color) {
+                    return indexes[slot];
+                }
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            return -1;
+        }
+
+        private void put(int color, int index) {
+            int slot = slot(color);
+            while (used[slot] && keys[slot] != color) {
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            used[slot] = true;
+            keys[slot] = color;
+            indexes[slot] = (short) index;
+        }
+
+        private static int slot(int color) {
+            int hash = color * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        }
+
+        private void sortTranslucentFirst() {
+            if (!alpha) {
+                return;
+            }
+            int[] sorted = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if ((colors[i] >>> 24) != 0xFF) {
+                    sorted[count++] = colors[i];
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if ((colors[i] >>> 24) == 0xFF) {
+                    sorted[count++] = colors[i];
+                }
+            }
+            System.arraycopy(sorted, 0, colors, 0, size);
+            for (int i = 0; i < size; i++) {
+                put(colors[i], i);
+            }
+        }
+
+        private int indexOf(int argb) {
+            return find(normalize(argb));
+        }
+
+        private void write(DataOutputStream data) throws IOException {
+            ChunkOutputStream plte = new ChunkOutputStream(data, "PLTE");
+            int translucent = 0;
+            for (int i = 0; i < size; i++) {
+                plte.write(colors[i] >> 16);
+                plte.write(colors[i] >> 8);
+                plte.write(colors[i]);
+                if ((colors[i] >>> 24) != 0xFF) {
+                    translucent = i + 1;
+                }
+            }
+            plte.writeChunk();
+            if (translucent > 0) {
+                ChunkOutputStream trns = new ChunkOutputStream(data, "tRNS");
+                for (int i = 0; i < translucent; i++) {
+                    trns.write(colors[i] >>> 24);
+                }
+                trns.writeChunk();
+            }
+        }
+    }
+
+    /**
+     * Filters the rows of an image.
+     */
+    private static final class RowFilter {
+        private final int bytesPerPixel;
+        private final byte[][] candidates = new byte[5][];
+
+        private RowFilter(int rowLength, int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+            for (int i = 0; i < candidates.length; i++) {
+                candidates[i] = new byte[rowLength];
+            }
+        }
+
+        /**
+         * Writes a filtered row, preceded by its filter type.
+         */
+        private void write(OutputStream out, FilterStrategy strategy, byte[] row, byte[] previous) throws IOException {
+            int type;
+            if (strategy == FilterStrategy.ADAPTIVE) {
+                type = 0;
+                long best = Long.MAX_VALUE;
+                for (int t = 0; t < candidates.length; t++) {
+                    long cost = filter(t, row, previous, candidates[t]);
+                    if (cost < best) {
+                        best = cost;
+                        type = t;
+                    }
+                }
+            } else {
+                type = strategy.ordinal();
+                filter(type, row, previous, candidates[type]);
+            }
+            out.write(type);
+            out.write(candidates[type]);
+        }
+
+        /**
+         * Applies a filter to a row.
+         *
+         * @return the sum of the absolute values of the filtered bytes, taken as signed
+         */
+        private long filter(int type, byte[] row, byte[] previous, byte[] filtered) {
+            long cost = 0;
+            for (int i = 0; i < row.length; i++) {
+                int raw = row[i] & 0xFF;
+                int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                int up = previous[i] & 0xFF;
+                int upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+                int value;
+                switch (type) {
+                    case 1:
+                        value = raw - left;
+                        break;
+                    case 2:
+                        value = raw - up;
+                        break;
+                    case 3:
+                        value = raw - ((left + up) >>> 1);
+                        break;
+                    case 4:
+                        value = raw - paeth(left, up, upLeft);
+                        break;
+                    default:
+                        value = raw;
+                }
+                filtered[i] = (byte) value;
+                cost += Math.abs(filtered[i]);
+            }
+            return cost;
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+            return pb <= pc ? b : c;
+        }
+    }
+
+    /**
+     * Collects the data of a chunk and writes it with its length, type and CRC. With a maximum
+     * size, a chunk is written every time the data reaches it.
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] type;
+        private byte[] buffer;
+        private int count;
+        private final int maxSize;
+
+        private ChunkOutputStream(DataOutputStream out, String type) {
+            this(out, type, Integer.MAX_VALUE);
+        }
+
+        private ChunkOutputStream(DataOutputStream out, String type, int maxSize) {
+            this.out = out;
+            this.type = type.getBytes(StandardCharsets.US_ASCII);
+            this.maxSize = maxSize;
+            this.buffer = new byte[Math.min(maxSize, 64)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == maxSize) {
+                writeChunk();
+            }
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(maxSize, buffer.length * 2L));
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == maxSize) {
+                    writeChunk();
+                }
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(maxSize, buffer.length * 2L));
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Writes the collected data as a chunk, even when there is none.
+         */
+        private void writeChunk() throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(buffer, 0, count);
+            out.writeInt(count);
+            out.write(type);
+            out.write(buffer, 0, count);
+            out.writeInt((int) crc.getValue());
+            count = 0;
+        }
+    }
+}
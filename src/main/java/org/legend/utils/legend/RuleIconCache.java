@@ -0,0 +1,235 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.geotools.api.feature.type.FeatureType;
+import org.geotools.api.style.Rule;
+import org.geotools.api.style.Symbolizer;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded LRU cache of rendered rule icons, shared by all the requests of a builder.
+ *
+ * <p>Icons are keyed by the content of the symbolizers of the rule (GeoTools symbolizers compare
+ * structurally) and by the options affecting the icon: its size, the transparency and the
+ * background color. Two rules with the same symbolizers share their icon, even if they come from
+ * different styles. The cached icons are shared between requests and threads, they must never be
+ * painted on, only drawn into other images.
+ *
+ * @author Adrien Bessy
+ */
+public class RuleIconCache {
+
+    /**
+     * Default maximum number of icons kept in the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final int maxEntries;
+
+    private final Map<Key, RenderedImage> icons;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAX_ENTRIES} icons.
+     */
+    public RuleIconCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a cache holding at most maxEntries icons, the least recently used icons are evicted
+     * first.
+     *
+     * @param maxEntries the maximum number of icons
+     */
+    public RuleIconCache(final int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.icons = new LinkedHashMap<Key, RenderedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, RenderedImage> eldest) {
+                return size() > RuleIconCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates the key of the icon of a rule.
+     *
+     * @param rule              the rule
+     * @param featureType       the type of the sample feature the symbolizers are evaluated against, may be null
+     * @param context           the render context of the current request
+     * @param minimumSymbolSize the minimum symbol size used to render the icon
+     * @return the key of the icon
+     */
+    public Key createKey(Rule rule, FeatureType featureType, LegendRenderContext context, double minimumSymbolSize) {
+        return new Key(new ArrayList<>(rule.symbolizers()), featureType, context.getWidth(), context.getHeight(),
+                context.isTransparent(), context.getProfile().getBackgroundRGB(), minimumSymbolSize);
+    }
+
+    /**
+     * Returns the icon cached for the given key.
+     *
+     * @param key the key of the icon
+     * @return the icon, or null if it is not in the cache
+     */
+    public RenderedImage get(Key key) {
+        RenderedImage icon;
+        synchronized (icons) {
+            icon = icons.get(key);
+        }
+        if (icon == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return icon;
+    }
+
+    /**
+     * Puts an icon in the cache. The symbolizers of the key are copied, so later changes to the
+     * style do not alter the cached entry.
+     *
+     * @param key  the key of the icon
+     * @param icon the icon, it must not be painted on afterwards
+     */
+    public void put(Key key, RenderedImage icon) {
+        Key detachedKey = key.detach();
+        synchronized (icons) {
+            icons.put(detachedKey, icon);
+        }
+    }
+
+    /**
+     * Removes all the icons from the cache.
+     */
+    public void clear() {
+        synchronized (icons) {
+            icons.clear();
+        }
+    }
+
+    /**
+     * @return the number of icons in the cache
+     */
+    public int size() {
+        synchronized (icons) {
+            return icons.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of lookups that found an icon
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that found no icon
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The key of a rule icon.
+     */
+    public static final class Key {
+        private final List<Symbolizer> symbolizers;
+        private final FeatureType featureType;
+        private final int width;
+        private final int height;
+        private final boolean transparent;
+        private final int backgroundRGB;
+        private final double minimumSymbolSize;
+        private final int hash;
+
+        private Key(List<Symbolizer> symbolizers, FeatureType featureType, int width, int height,
+                    boolean transparent, int backgroundRGB, double minimumSymbolSize) {
+            this.symbolizers = symbolizers;
+            this.featureType = featureType;
+            this.width = width;
+            this.height = height;
+            this.transparent = transparent;
+            this.backgroundRGB = backgroundRGB;
+            this.minimumSymbolSize = minimumSymbolSize;
+            this.hash = Objects.hash(symbolizers, featureType, width, height, transparent, backgroundRGB,
+                    minimumSymbolSize);
+        }
+
+        /**
+         * @return a copy of this key that does not reference the symbolizers of the style
+         */
+        private Key detach() {
+            List<Symbolizer> copies = new ArrayList<>(symbolizers.size());
+            for (Symbolizer symbolizer : symbolizers) {
+                DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+                symbolizer.accept(duplicator);
+                copies.add((Symbolizer) duplicator.getCopy());
+            }
+            return new Key(copies, featureType, width, height, transparent, backgroundRGB, minimumSymbolSize);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash
+                    && width == other.width
+                    && height == other.height
+                    && transparent == other.transparent
+                    && backgroundRGB == other.backgroundRGB
+                    && Double.compare(minimumSymbolSize, other.minimumSymbolSize) == 0
+                    && Objects.equals(featureType, other.featureType)
+                    && symbolizers.equals(other.symbolizers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.geotools.api.data.DataAccess;
+import org.geotools.api.data.FeatureSource;
+import org.geotools.api.data.Query;
+import org.geotools.api.feature.Feature;
+import org.geotools.api.feature.type.Name;
+import org.geotools.api.filter.Filter;
+import org.geotools.api.filter.FilterFactory;
+import org.geotools.api.style.FeatureTypeStyle;
+import org.geotools.api.style.Rule;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureIterator;
+import org.legend.utils.vector.AttributeStatsIndex;
+import org.legend.utils.vector.FeatureSourceUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the rules of a style whose filter matches at least one feature of a layer, so that the legend
+ * only shows the rules present in the data.
+ *
+ * <p>For a layer stored in a file, the filters which are not cached yet are first checked against the
+ * statistics of its attributes ({@link AttributeStatsIndex}): equality and range filters are usually
+ * answered without reading any feature. The remaining filters are checked in a single pass: they are
+ * pushed down to the feature source as one query (the union of the filters), and every returned
+ * feature is tested against the filters not matched yet. A filter is dropped at its first match and the pass stops
+ * as soon as every filter matched, so the source is at most read once per layer. The results are kept
+ * in a size bounded LRU cache keyed by the data source, the feature type and the filter; a file data
+ * source is identified with its last modified time, so that a modified file is checked again. A data
+ * source without location is identified by its store, which the cache does not keep from being
+ * collected. The cache can not tell when such a source, or a remote one, changes: an in-memory store
+ * whose features are added or removed is not checked again until {@link #invalidate(FeatureSource)}
+ * is called for it.
+ *
+ * @author Adrien Bessy
+ */
+public class RulePresenceIndex {
+
+    /**
+     * Default maximum number of filters kept in the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private static final RulePresenceIndex DEFAULT = new RulePresenceIndex();
+
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory();
+
+    /**
+     * The identifiers of the sources without location, by store identity
+     */
+    private static final Map<SourceKey, String> MEMORY_IDS = new HashMap<>();
+
+    private static final ReferenceQueue<Object> COLLECTED_SOURCES = new ReferenceQueue<>();
+
+    private static final AtomicLong MEMORY_ID_SEQUENCE = new AtomicLong();
+
+    private final int maxEntries;
+
+    private final boolean useAttributeStats;
+
+    private final Map<Key, Boolean> presences;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates an index caching at most {@link #DEFAULT_MAX_ENTRIES} filters.
+     */
+    public RulePresenceIndex() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates an index caching at most maxEntries filters, the least recently used filters are evicted
+     * first.
+     *
+     * @param maxEntries the maximum number of filters
+     */
+    public RulePresenceIndex(final int maxEntries) {
+        this(maxEntries, true);
+    }
+
+    /**
+     * Creates an index caching at most maxEntries filters, the least recently used filters are evicted
+     * first.
+     *
+     * @param maxEntries        the maximum number of filters
+     * @param useAttributeStats true to answer from the {@link AttributeStatsIndex} of file layers before
+     *                          reading their features
+     */
+    public RulePresenceIndex(final int maxEntries, final boolean useAttributeStats) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.useAttributeStats = useAttributeStats;
+        this.presences = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > RulePresenceIndex.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the index used by the builders which are not given their own
+     */
+    public static RulePresenceIndex getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the rules of the feature type styles matching at least one feature of the source. An
+     * else rule is kept when a feature matches none of the other rules of its feature type style.
+     *
+     * @param featureSource the data of the layer
+     * @param ftStyles      the feature type styles of the layer
+     * @return the rules present in the data, in the order of the styles
+     */
+    public Rule[] getPresentRules(FeatureSource<?, ?> featureSource, FeatureTypeStyle[] ftStyles) throws IOException {
+        Map<Rule, Filter> filters = new LinkedHashMap<>();
+        for (FeatureTypeStyle ftStyle : ftStyles) {
+            List<Filter> others = new ArrayList<>();
+            for (Rule rule : ftStyle.rules()) {
+                if (!rule.isElseFilter()) {
+                    others.add(rule.getFilter() == null ? Filter.INCLUDE : rule.getFilter());
+                }
+            }
+            for (Rule rule : ftStyle.rules()) {
+                filters.put(rule, getFilter(rule, others));
+            }
+        }
+        Map<Filter, Boolean> presences = getPresences(featureSource, new LinkedHashSet<>(filters.values()));
+        List<Rule> present = new ArrayList<>(filters.size());
+        for (Map.Entry<Rule, Filter> entry : filters.entrySet()) {
+            if (presences.get(entry.getValue())) {
+                present.add(entry.getKey());
+            }
+        }
+        return present.toArray(new Rule[0]);
+    }
+
+    /**
+     * Checks whether filters match at least one feature of the source.
+     *
+     * @param featureSource the data of the layer
+     * @param filters       the filters
+     * @return for every filter, true when at least one feature matches it
+     */
+    public Map<Filter, Boolean> getPresences(FeatureSource<?, ?> featureSource, Collection<Filter> filters) throws IOException {
+        Object source = getSource(featureSource);
+        Name typeName = featureSource.getSchema().getName();
+        Map<Filter, Boolean> result = new HashMap<>();
+        Set<Filter> pending = new LinkedHashSet<>();
+        synchronized (presences) {
+            for (Filter filter : filters) {
+                Boolean presence = presences.get(new Key(source, typeName, filter));
+                if (presence != null) {
+                    result.put(filter, presence);
+                    hits.incrementAndGet();
+                } else if (filter == Filter.EXCLUDE) {
+                    result.put(filter, false);
+                } else {
+                    pending.add(filter);
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            return result;
+        }
+        misses.addAndGet(pending.size());
+        Map<Filter, Boolean> found = new HashMap<>();
+        AttributeStatsIndex stats = useAttributeStats ? AttributeStatsIndex.get(featureSource) : null;
+        if (stats != null) {
+            for (Iterator<Filter> it = pending.iterator(); it.hasNext(); ) {
+                Filter filter = it.next();
+                AttributeStatsIndex.Presence presence = stats.evaluate(filter);
+                if (presence != AttributeStatsIndex.Presence.UNKNOWN) {
+                    found.put(filter, presence == AttributeStatsIndex.Presence.PRESENT);
+                    it.remove();
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            Set<Filter> unmatched = scan(featureSource, pending);
+            for (Filter filter : pending) {
+                found.put(filter, !unmatched.contains(filter));
+            }
+        }
+        synchronized (presences) {
+            for (Map.Entry<Filter, Boolean> entry : found.entrySet()) {
+                presences.put(new Key(source, typeName, entry.getKey()), entry.getValue());
+            }
+        }
+        result.putAll(found);
+        return result;
+    }
+
+    /**
+     * Reads the features matching any of the filters until every filter matched a feature.
+     *
+     * @param featureSource the data of the layer
+     * @param filters       the filters to check
+     * @return the filters which did not match any feature
+     */
+    private static Set<Filter> scan(FeatureSource<?, ?> featureSource, Set<Filter> filters) throws IOException {
+        Set<Filter> unmatched = new LinkedHashSet<>(filters);
+        Filter queryFilter;
+        if (filters.contains(Filter.INCLUDE)) {
+            queryFilter = Filter.INCLUDE;
+        } else if (filters.size() == 1) {
+            queryFilter = filters.iterator().next();
+        } else {
+            queryFilter = FF.or(new ArrayList<>(filters));
+        }
+        Query query = new Query(featureSource.getSchema().getName().getLocalPart(), queryFilter);
+        try (FeatureIterator<? extends Feature> features = featureSource.getFeatures(query).features()) {
+            while (!unmatched.isEmpty() && features.hasNext()) {
+                Feature feature = features.next();
+                unmatched.removeIf(filter -> filter.evaluate(feature));
+            }
+        }
+        return unmatched;
+    }
+
+    /**
+     * Returns the filter selecting the features of a rule.
+     *
+     * @param rule   the rule
+     * @param others the filters of the other rules of its feature type style
+     * @return the filter of the rule, or for an else rule the filter rejecting the other rules
+     */
+    private static Filter getFilter(Rule rule, List<Filter> others) {
+        if (!rule.isElseFilter()) {
+            return rule.getFilter() == null ? Filter.INCLUDE : rule.getFilter();
+        }
+        if (others.isEmpty()) {
+            return Filter.INCLUDE;
+        }
+        return FF.not(others.size() == 1 ? others.get(0) : FF.or(others));
+    }
+
+    /**
+     * Identifies the data of a feature source in a way that changes when its files are modified,
+     * including the side files of a shapefile.
+     *
+     * @param featureSource the feature source
+     * @return the identity of the data, as a string
+     */
+    public static String getSourceId(FeatureSource<?, ?> featureSource) {
+        return getSource(featureSource).toString();
+    }
+
+    /**
+     * Identifies the data of a feature source. A source without location is identified by its store,
+     * with an identifier which is never given to another store, even once the store is collected.
+     */
+    private static Object getSource(FeatureSource<?, ?> featureSource) {
+        URI uri = FeatureSourceUtils.getSourceUri(featureSource);
+        if (uri == null) {
+            return getMemoryId(getMemorySource(featureSource));
+        }
+        if ("file".equals(uri.getScheme())) {
+            return URI.create(uri + "#" + FeatureSourceUtils.getSourceVersion(new File(uri)));
+        }
+        return uri;
+    }
+
+    /**
+     * @return the object identifying a feature source without location: its store, or the source
+     * itself when it has no store
+     */
+    private static Object getMemorySource(FeatureSource<?, ?> featureSource) {
+        DataAccess<?, ?> dataStore;
+        try {
+            dataStore = featureSource.getDataStore();
+        } catch (UnsupportedOperationException e) {
+            dataStore = null;
+        }
+        return dataStore != null ? dataStore : featureSource;
+    }
+
+    /**
+     * Returns the identifier of a source without location, assigning it on the first call. The
+     * source is only weakly referenced.
+     */
+    private static String getMemoryId(Object source) {
+        synchronized (MEMORY_IDS) {
+            Object collected;
+            while ((collected = COLLECTED_SOURCES.poll()) != null) {
+                MEMORY_IDS.remove(collected);
+            }
+            String id = MEMORY_IDS.get(new SourceKey(source, null));
+            if (id == null) {
+                id = "memory:" + source.getClass().getName() + "#" + MEMORY_ID_SEQUENCE.incrementAndGet();
+                MEMORY_IDS.put(new SourceKey(source, COLLECTED_SOURCES), id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Forgets the presences cached for the data of a feature source, to be called once its features
+     * changed when the source is not a file. A source without location also gets a new identifier,
+     * so the legends fingerprinted with its former identifier are not served from a legend cache
+     * either, and the other indexes check it again too.
+     *
+     * @param featureSource the feature source whose features changed
+     */
+    public void invalidate(FeatureSource<?, ?> featureSource) {
+        Object source = getSource(featureSource);
+        synchronized (presences) {
+            presences.keySet().removeIf(key -> key.source.equals(source));
+        }
+        if (FeatureSourceUtils.getSourceUri(featureSource) == null) {
+            synchronized (MEMORY_IDS) {
+                MEMORY_IDS.remove(new SourceKey(getMemorySource(featureSource), null));
+            }
+        }
+    }
+
+    /**
+     * Removes all the filters from the cache.
+     */
+    public void clear() {
+        synchronized (presences) {
+            presences.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached filters
+     */
+    public int size() {
+        synchronized (presences) {
+            return presences.size();
+        }
+    }
+
+    /**
+     * @return the maximum number of cached filters
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of filters found in the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of filters which had to be checked against the data
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * A weak key comparing the sources by identity.
+     */
+    private static final class SourceKey extends WeakReference<Object> {
+        private final int hash;
+
+        private SourceKey(Object source, ReferenceQueue<Object> queue) {
+            super(source, queue);
+            this.hash = System.identityHashCode(source);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SourceKey)) {
+                return false;
+            }
+            Object source = get();
+            return source != null && source == ((SourceKey) o).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A cached filter: the source is a location or a memory identifier, never the store itself.
+     */
+    private static final class Key {
+        private final Object source;
+        private final Name typeName;
+        private final Filter filter;
+        private final int hash;
+
+        private Key(Object source, Name typeName, Filter filter) {
+            this.source = source;
+            this.typeName = typeName;
+            this.filter = filter;
+            this.hash = Objects.hash(source, typeName, filter);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return source.equals(key.source) && typeName.equals(key.typeName) && filter.equals(key.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.*;
+
+/**
+ * The icons of the rules of a style packed into one image, with the index of their rectangles in
+ * the format of the Mapbox sprites:
+ *
+ * <pre>
+ * {"Forest": {"x": 0, "y": 0, "width": 24, "height": 24, "pixelRatio": 1},
+ *  "landcover-1": {"x": 25, "y": 0, "width": 24, "height": 24, "pixelRatio": 1}, ...}
+ * </pre>
+ *
+ * <p>The icons built by {@link BufferedImageLegendGraphicBuilder#buildSpriteAtlas} are named after
+ * the label of their rule, "Forest" above, or after the type name of the layer and the position of
+ * the rule when the rule has no label, "landcover-1" above.
+ *
+ * <p>The icons are packed with a shelf algorithm: sorted by decreasing height, they fill rows of
+ * a width close to the square root of their total area, a new row starting when an icon does not
+ * fit any more. One pixel is left between the icons so that they do not bleed into each other when
+ * the sprite is sampled.
+ *
+ * @author Adrien Bessy
+ */
+public final class SpriteAtlas {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Space left between two icons.
+     */
+    private static final int PADDING = 1;
+
+    private final BufferedImage image;
+
+    private final Map<String, Rectangle> icons;
+
+    private SpriteAtlas(BufferedImage image, Map<String, Rectangle> icons) {
+        this.image = image;
+        this.icons = Collections.unmodifiableMap(icons);
+    }
+
+    /**
+     * Packs icons into an atlas.
+     *
+     * @param icons the icons by name, in the order of the index
+     * @return the atlas
+     */
+    static SpriteAtlas pack(Map<String, RenderedImage> icons) {
+        if (icons.isEmpty()) {
+            throw new IllegalArgumentException("no icon to pack");
+        }
+        List<Map.Entry<String, RenderedImage>> sorted = new ArrayList<>(icons.entrySet());
+        // the sort is stable, icons of the same height stay in the order of the rules
+        sorted.sort((a, b) -> Integer.compare(b.getValue().getHeight(), a.getValue().getHeight()));
+
+        long area = 0;
+        int maxWidth = 0;
+        for (RenderedImage icon : icons.values()) {
+            area += (long) (icon.getWidth() + PADDING) * (icon.getHeight() + PADDING);
+            maxWidth = Math.max(maxWidth, icon.getWidth());
+        }
+        final int shelfWidth = Math.max(maxWidth, (int) Math.ceil(Math.sqrt(area)));
+
+        Map<String, Rectangle> rectangles = new HashMap<>();
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        int width = 0;
+        for (Map.Entry<String, RenderedImage> entry : sorted) {
+            RenderedImage icon = entry.getValue();
+            if (x > 0 && x + icon.getWidth() > shelfWidth) {
+                y += shelfHeight + PADDING;
+                x = 0;
+                shelfHeight = 0;
+            }
+            rectangles.put(entry.getKey(), new Rectangle(x, y, icon.getWidth(), icon.getHeight()));
+            width = Math.max(width, x + icon.getWidth());
+            shelfHeight = Math.max(shelfHeight, icon.getHeight());
+            x += icon.getWidth() + PADDING;
+        }
+        int height = y + shelfHeight;
+
+        BufferedImage image = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        Map<String, Rectangle> index = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, RenderedImage> entry : icons.entrySet()) {
+                Rectangle rectangle = rectangles.get(entry.getKey());
+                graphics.drawRenderedImage(entry.getValue(), AffineTransform.getTranslateInstance(rectangle.x, rectangle.y));
+                index.put(entry.getKey(), rectangle);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return new SpriteAtlas(image, index);
+    }
+
+    /**
+     * @return the image holding all the icons
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return the rectangles of the icons in the image, by icon name
+     */
+    public Map<String, Rectangle> getIcons() {
+        return icons;
+    }
+
+    /**
+     * Writes the image of the atlas as PNG. The stream is flushed but not closed.
+     *
+     * @param encoder the PNG encoder
+     * @param out     the stream receiving the PNG
+     */
+    public void writePng(PngEncoder encoder, OutputStream out) throws IOException {
+        encoder.encode(image, out);
+    }
+
+    /**
+     * Writes the index of the icons as a Mapbox sprite JSON document. The stream is flushed but not
+     * closed.
+     *
+     * @param out the stream receiving the JSON document, encoded in UTF-8
+     */
+    public void writeIndex(OutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            for (Map.Entry<String, Rectangle> icon : icons.entrySet()) {
+                Rectangle rectangle = icon.getValue();
+                generator.writeObjectFieldStart(icon.getKey());
+                generator.writeNumberField("x", rectangle.x);
+                generator.writeNumberField("y", rectangle.y);
+                generator.writeNumberField("width", rectangle.width);
+                generator.writeNumberField("height", rectangle.height);
+                generator.writeNumberField("pixelRatio", 1);
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Legend is a library that generates a legend.
+ * Legend is developed by CNRS http://www.cnrs.fr/.
+ *
+ * Most of the code had been picked up from Geoserver (https://github.com/geoserver/geoserver). Legend is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation;
+ * version 3.0 of the License.
+ *
+ * Legend is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details http://www.gnu.org/licenses.
+ *
+ *
+ *For more information, please consult: http://www.orbisgis.org
+ *or contact directly: info_at_orbisgis.org
+ *
+ */
+
+
+package org.legend.utils.legend;
+
+import org.apache.batik.dom.GenericDOMImplementation;
+import org.apache.batik.svggen.SVGGeneratorContext;
+import org.apache.batik.svggen.SVGGraphics2D;
+import org.geotools.api.feature.Feature;
+import org.geotools.api.feature.type.FeatureType;
+import org.geotools.api.style.Rule;
+import org.geotools.map.FeatureLayer;
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.renderer.style.SLDStyleFactory;
+import org.geotools.util.NumberRange;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Produces the legend of a layer list as SVG, written straight to a stream.
+ *
+ * <p>The rules and the geometry are the ones of {@link BufferedImageLegendGraphicBuilder}: the
+ * rules are selected and painted by the shared {@link LegendGraphicBuilder} code and laid out by the
+ * {@link LegendLayoutEngine}, so the SVG legend has the size of the raster one. No bitmap is
+ * created: the symbolizers of a rule are painted on a Batik {@link SVGGraphics2D} into a
+ * <code>&lt;symbol&gt;</code> of the <code>&lt;defs&gt;</code>, and every entry of the legend is a
+ * <code>&lt;use&gt;</code> of it. Rules with the same symbolizers share a single symbol, even
+ * across layers. Labels and titles are <code>&lt;text&gt;</code> elements, so they stay sharp when
+ * the legend is scaled.
+ *
+ * @author Adrien Bessy
+ */
+public class SvgLegendGraphicBuilder extends LegendGraphicBuilder {
+
+    private static final String SVG_NAMESPACE_URI = "http://www.w3.org/2000/svg";
+
+    private static final String XLINK_NAMESPACE_URI = "http://www.w3.org/1999/xlink";
+
+    /**
+     * Default constructor.
+     *
+     * <p>The builder is immutable: all the state of a request lives in a {@link LegendRenderContext},
+     * so a single instance can be shared by concurrent requests.
+     */
+    public SvgLegendGraphicBuilder() {
+        super();
+    }
+
+    /**
+     * Creates a builder with the given configuration.
+     *
+     * @param builderOptions the configuration of the builder
+     */
+    public SvgLegendGraphicBuilder(LegendBuilderOptions builderOptions) {
+        super(builderOptions);
+    }
+
+    /**
+     * Takes a featureLayerList and legendOptions and produces the legend as SVG.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @return the SVG document, encoded in UTF-8
+     * @throws Exception if the legend could not be rendered
+     */
+    public byte[] buildLegendSvg(List<FeatureLayer> featureLayerList, LegendOptions legendOptions) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buildLegendGraphic(featureLayerList, legendOptions, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Takes a featureLayerList and legendOptions and writes the legend as SVG to a stream. The
+     * stream is flushed but not closed.
+     *
+     * @param featureLayerList feature layer list
+     * @param legendOptions    legend options
+     * @param out              the stream receiving the SVG document, encoded in UTF-8
+     * @throws Exception if the legend could not be rendered
+     */
+    public void buildLegendGraphic(List<FeatureLayer> featureLayerList, LegendOptions legendOptions,
+                                   OutputStream out) throws Exception {
+        LegendUtils.ensureNotNull(featureLayerList, "featureLayerList");
+        LegendUtils.ensureNotNull(out, "out");
+        final LegendRenderContext context = setup(legendOptions);
+        final Document document = GenericDOMImplementation.getDOMImplementation()
+                .createDocument(SVG_NAMESPACE_URI, "svg", null);
+        final SVGGeneratorContext generatorContext = SVGGeneratorContext.createDefault(document);
+        generatorContext.setComment(null);
+        final SymbolDefinitions symbols = new SymbolDefinitions(document, generatorContext,
+                context.getWidth(), context.getHeight());
+
+        List<LegendLayoutEngine.Layer<Element>> layers = new ArrayList<>(featureLayerList.size());
+        for (FeatureLayer featureLayer : featureLayerList) {
+            layers.add(renderLayer(context, featureLayer, symbols));
+        }
+
+        LegendLayoutEngine engine = new LegendLayoutEngine(legendOptions, context.getProfile());
+        LegendLayoutEngine.Layout<Element> layout = engine.layout(layers);
+        SVGGraphics2D graphics = new SVGGraphics2D(generatorContext, false);
+        try {
+            graphics.setSVGCanvasSize(new Dimension(layout.getWidth(), layout.getHeight()));
+            final List<Element> uses = new ArrayList<>();
+            engine.paint(layout, graphics, (g, symbol, x, y) -> uses.add(symbols.use(symbol, x, y)));
+
+            Element root = graphics.getRoot();
+            root.setAttributeNS(null, "viewBox", "0 0 " + layout.getWidth() + " " + layout.getHeight());
+            root.insertBefore(symbols.defs, root.getFirstChild());
+            for (Element use : uses) {
+                root.appendChild(use);
+            }
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            graphics.stream(root, writer, false, false);
+            writer.flush();
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * Paints the rules of a layer into symbols.
+     *
+     * @param context      the render context of the current request
+     * @param featureLayer the layer
+     * @param symbols      the symbols of the legend
+     * @return the title and the entries of the layer, the rules without any symbolizer to paint are skipped
+     */
+    private LegendLayoutEngine.Layer<Element> renderLayer(final LegendRenderContext context, FeatureLayer featureLayer,
+                                                          SymbolDefinitions symbols) throws Exception {
+        final LegendOptions legendOptions = context.getLegendOptions();
+        final int width = context.getWidth();
+        final int height = context.getHeight();
+        final Rule[] rules = getLegendRules(featureLayer, legendOptions);
+        final String title = forceTitlesOff ? null : getLayerTitle(featureLayer, legendOptions);
+
+        double minimumSymbolSize = 3.0;
+        int defaultSize = Math.min(width, height);
+        final LegendMetrics metrics = LegendMetricsRegistry.getMetrics();
+        metrics.increment(LegendMetrics.Counter.RULES, rules.length);
+        FeatureType featureType = featureLayer.getFeatureSource().getSchema();
+        long start = System.nanoTime();
+        Feature sampleFeature = createSampleFeature(featureType);
+        metrics.recordSince(LegendMetrics.Stage.SAMPLE_FEATURE, start);
+        start = System.nanoTime();
+        double[] minMax = calcSymbolSize(defaultSize, minimumSymbolSize, sampleFeature, rules);
+        metrics.recordSince(LegendMetrics.Stage.SYMBOL_SIZE, start);
+        boolean rescalingRequired = false;
+        Function<Double, Double> rescaler = size -> (size / minMax[1]) * defaultSize;
+
+        final SLDStyleFactory styleFactory = new SLDStyleFactory();
+        final NumberRange<Double> scaleRange = NumberRange.create(-1.0, -1.0);
+        final MetaBufferEstimator estimator = new MetaBufferEstimator(sampleFeature);
+        List<LegendLayoutEngine.Entry<Element>> entries = new ArrayList<>(rules.length);
+        for (Rule rule : rules) {
+            if (!hasVectorSymbolizer(rule)) {
+                continue;
+            }
+            // the symbolizers are painted the same way for the same feature type, unless they are rescaled for the layer
+            List<Object> key = Arrays.asList(featureType, new ArrayList<>(rule.symbolizers()),
+                    rescalingRequired ? rescaler : null);
+            Element symbol = symbols.get(key);
+            if (symbol == null) {
+                SVGGraphics2D graphics = symbols.createGraphics();
+                final long paintStart = System.nanoTime();
+                try {
+                    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    paintRule(context, graphics, rule, estimator, sampleFeature, scaleRange, styleFactory,
+                            minimumSymbolSize, rescalingRequired, rescaler);
+                    symbol = symbols.define(key, graphics.getTopLevelGroup(true));
+                } finally {
+                    graphics.dispose();
+                    metrics.recordSince(LegendMetrics.Stage.RULE_PAINT, paintStart);
+                }
+            }
+            String label = forceLabelsOff ? null : LegendUtils.getRuleLabel(rule);
+            entries.add(new LegendLayoutEngine.Entry<>(symbol, width, height, label, isBlank(symbol)));
+        }
+        return new LegendLayoutEngine.Layer<>(title, entries);
+    }
+
+    /**
+     * Checks whether the painting of a rule produced nothing but definitions.
+     *
+     * @param symbol the symbol of the rule
+     * @return true if the symbol has no drawing element
+     */
+    private static boolean isBlank(Element symbol) {
+        for (Node group = symbol.getFirstChild(); group != null; group = group.getNextSibling()) {
+            for (Node child = group.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child instanceof Element && !"defs".equals(child.getLocalName())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The symbols of a legend, defined once and referenced by every entry using them.
+     */
+    private static final class SymbolDefinitions {
+        private final Document document;
+        private final SVGGeneratorContext generatorContext;
+        private final String viewBox;
+        private final String width;
+        private final String height;
+        private final Element defs;
+        private final Map<List<Object>, Element> symbols = new HashMap<>();
+
+        private SymbolDefinitions(Document document, SVGGeneratorContext generatorContext, int width, int height) {
+            this.document = document;
+            this.generatorContext = generatorContext;
+            this.viewBox = "0 0 " + width + " " + height;
+            this.width = String.valueOf(width);
+            this.height = String.valueOf(height);
+            this.defs = document.createElementNS(SVG_NAMESPACE_URI, "defs");
+        }
+
+        private Element get(List<Object> key) {
+            return symbols.get(key);
+        }
+
+        /**
+         * @return a graphics painting into the document of the legend, with ids unique in the legend
+         */
+        private SVGGraphics2D createGraphics() {
+            return new SVGGraphics2D(generatorContext, false);
+        }
+
+        private Element define(List<Object> key, Element group) {
+            Element symbol = document.createElementNS(SVG_NAMESPACE_URI, "symbol");
+            symbol.setAttributeNS(null, "id", generatorContext.getIDGenerator().generateID("symbol"));
+            // the symbol clips its content to the icon, like the raster icon does
+            symbol.setAttributeNS(null, "viewBox", viewBox);
+            symbol.appendChild(group);
+            defs.appendChild(symbol);
+            symbols.put(key, symbol);
+            return symbol;
+        }
+
+        private Element use(Element symbol, int x, int y) {
+            Element use = document.createElementNS(SVG_NAMESPACE_URI, "use");
+            use.setAttributeNS(XLINK_NAMESPACE_URI, "xlink:href", "#" + symbol.getAttributeNS(null, "id"));
+            use.setAttributeNS(null, "x", String.valueOf(x));
+            use.setAttributeNS(null, "y", String.valueOf(y));
+            use.setAttributeNS(null, "width", width);
+            use.setAttributeNS(null, "height", height);
+            return use;
+        }
+    }
+}
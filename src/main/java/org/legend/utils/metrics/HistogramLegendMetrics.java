@@ -0,0 +1,198 @@
+package org.legend.utils.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics kept in memory: a {@link LatencyHistogram} per stage and a total per counter.
+ *
+ * <p>The metrics are a {@link DynamicMBean}, once registered with {@link #registerMBean()} every
+ * stage has the attributes <code>STAGE.count</code>, <code>STAGE.meanMillis</code>,
+ * <code>STAGE.p50Millis</code>, <code>STAGE.p90Millis</code>, <code>STAGE.p99Millis</code> and
+ * <code>STAGE.maxMillis</code>, every counter has an attribute of its name, and the
+ * <code>reset</code> operation clears everything. The values are the totals since the creation
+ * or the last reset.
+ */
+public class HistogramLegendMetrics implements LegendMetrics, DynamicMBean {
+
+    /**
+     * The name the metrics are registered under by {@link #registerMBean()}
+     */
+    public static final String DEFAULT_OBJECT_NAME = "org.legend:type=LegendMetrics";
+
+    private static final String[] STATISTICS = {"count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis"};
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+
+    private final MBeanInfo mBeanInfo;
+
+    public HistogramLegendMetrics() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+            for (String statistic : STATISTICS) {
+                String type = "count".equals(statistic) ? long.class.getName() : double.class.getName();
+                attributes.add(new MBeanAttributeInfo(stage + "." + statistic, type,
+                        statistic + " of the " + stage + " stage", true, false, false));
+            }
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+            attributes.add(new MBeanAttributeInfo(counter.name(), long.class.getName(),
+                    "total of the " + counter + " counter", true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "clears all the metrics",
+                null, void.class.getName(), MBeanOperationInfo.ACTION);
+        this.mBeanInfo = new MBeanInfo(getClass().getName(), "Legend building metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+    }
+
+    @Override
+    public void record(Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    @Override
+    public void increment(Counter counter, long delta) {
+        counters.get(counter).add(delta);
+    }
+
+    /**
+     * @param stage the stage
+     * @return the histogram of the durations of the stage, in nanoseconds
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * @param counter the counter
+     * @return the total of the counter
+     */
+    public long getCount(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    /**
+     * Clears all the histograms and the counters.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        for (LongAdder counter : counters.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server under {@link #DEFAULT_OBJECT_NAME}.
+     *
+     * @return the name of the MBean
+     * @throws InstanceAlreadyExistsException if other metrics are already registered under this name
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(DEFAULT_OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * Removes the metrics registered by {@link #registerMBean()} from the platform MBean server.
+     */
+    public void unregisterMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(new ObjectName(DEFAULT_OBJECT_NAME));
+        } catch (InstanceNotFoundException e) {
+            // not registered
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        int dot = attribute.lastIndexOf('.');
+        try {
+            if (dot < 0) {
+                return getCount(Counter.valueOf(attribute));
+            }
+            LatencyHistogram histogram = getHistogram(Stage.valueOf(attribute.substring(0, dot)));
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return histogram.getCount();
+                case "meanMillis":
+                    return histogram.getMean() / NANOS_PER_MILLI;
+                case "p50Millis":
+                    return histogram.getValueAtPercentile(50) / NANOS_PER_MILLI;
+                case "p90Millis":
+                    return histogram.getValueAtPercentile(90) / NANOS_PER_MILLI;
+                case "p99Millis":
+                    return histogram.getValueAtPercentile(99) / NANOS_PER_MILLI;
+                case "maxMillis":
+                    return histogram.getMax() / NANOS_PER_MILLI;
+                default:
+                    throw new AttributeNotFoundException(attribute);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("The attributes are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // unknown attributes are left out
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName) && (params == null || params.length == 0)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return mBeanInfo;
+    }
+}
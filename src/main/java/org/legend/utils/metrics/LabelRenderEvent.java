@@ -0,0 +1,43 @@
+package org.legend.utils.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The rendering of a label image by the LegendMerger, or its lookup in the label cache.
+ */
+@Name("org.legend.LabelRender")
+@Label("Label Render")
+@Description("Rendering of a label image")
+public final class LabelRenderEvent extends LegendEvent {
+
+    @Label("Label")
+    private String label;
+
+    @Label("Cached")
+    @Description("True if the label cache was looked up")
+    private boolean cached;
+
+    @Label("Width")
+    private int width;
+
+    @Label("Height")
+    private int height;
+
+    /**
+     * Ends the event and commits it.
+     *
+     * @param label  the text of the label
+     * @param cached true if the label cache was looked up
+     * @param width  the width of the label image
+     * @param height the height of the label image
+     */
+    public void finish(String label, boolean cached, int width, int height) {
+        this.label = label;
+        this.cached = cached;
+        this.width = width;
+        this.height = height;
+        finish();
+    }
+}
@@ -0,0 +1,124 @@
+package org.legend.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations with a bounded relative error, in the manner of an HDR
+ * histogram.
+ *
+ * <p>The values below 64 are counted exactly, the larger values fall in log-linear buckets: every
+ * power of two is split in 32 buckets, so a recorded value is known within about 3%, whatever its
+ * magnitude. The histogram uses a fixed amount of memory, about 15 KB, and recording a value is a
+ * couple of atomic increments. Reads may miss the values recorded concurrently.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value the value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        counts.incrementAndGet(indexOf(recorded));
+        count.increment();
+        sum.add(recorded);
+        if (recorded > max.get()) {
+            max.accumulateAndGet(recorded, Math::max);
+        }
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall. The value is
+     * the highest value of its bucket, bounded by the maximum recorded value.
+     *
+     * @param percentile the percentage, between 0 and 100
+     * @return the value at the percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long cumulated = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            cumulated += snapshot[i];
+            if (cumulated >= target) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return the largest recorded value, 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Forgets all the recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // the value shifted right keeps SUB_BUCKET_BITS + 1 significant bits
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
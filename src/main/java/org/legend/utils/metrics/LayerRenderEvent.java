@@ -0,0 +1,48 @@
+package org.legend.utils.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The rendering of the icons of the rules of a layer.
+ */
+@Name("org.legend.LayerRender")
+@Label("Layer Render")
+@Description("Rendering of the rule icons of a layer")
+public final class LayerRenderEvent extends LegendEvent {
+
+    @Label("Style Name")
+    private String styleName;
+
+    @Label("Layer Title")
+    private String layerTitle;
+
+    @Label("Rule Count")
+    @Description("Number of rules of the style applying to the legend")
+    private int ruleCount;
+
+    @Label("Icon Width")
+    private int width;
+
+    @Label("Icon Height")
+    private int height;
+
+    /**
+     * Ends the event and commits it.
+     *
+     * @param styleName  the name of the style of the layer
+     * @param layerTitle the title of the layer
+     * @param ruleCount  the number of rules of the layer
+     * @param width      the width of the icons
+     * @param height     the height of the icons
+     */
+    public void finish(String styleName, String layerTitle, int ruleCount, int width, int height) {
+        this.styleName = styleName;
+        this.layerTitle = layerTitle;
+        this.ruleCount = ruleCount;
+        this.width = width;
+        this.height = height;
+        finish();
+    }
+}
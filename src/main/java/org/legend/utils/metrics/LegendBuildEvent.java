@@ -0,0 +1,49 @@
+package org.legend.utils.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The rendering of a legend, from the rules of its layers to the composed image.
+ */
+@Name("org.legend.LegendBuild")
+@Label("Legend Build")
+@Description("Rendering of a legend")
+public final class LegendBuildEvent extends LegendEvent {
+
+    @Label("Style Name")
+    @Description("Names of the styles of the layers, comma separated")
+    private String styleName;
+
+    @Label("Layer Count")
+    private int layerCount;
+
+    @Label("Rule Count")
+    @Description("Number of rules drawn in the legend")
+    private int ruleCount;
+
+    @Label("Width")
+    private int width;
+
+    @Label("Height")
+    private int height;
+
+    /**
+     * Ends the event and commits it.
+     *
+     * @param styleName  the names of the styles of the layers
+     * @param layerCount the number of layers
+     * @param ruleCount  the number of rules drawn in the legend
+     * @param width      the width of the legend
+     * @param height     the height of the legend
+     */
+    public void finish(String styleName, int layerCount, int ruleCount, int width, int height) {
+        this.styleName = styleName;
+        this.layerCount = layerCount;
+        this.ruleCount = ruleCount;
+        this.width = width;
+        this.height = height;
+        finish();
+    }
+}
@@ -0,0 +1,80 @@
+package org.legend.utils.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Base of the Java Flight Recorder events of the legend building stages.
+ *
+ * <p>An event is created on the stack and started before its stage, its fields are set once the
+ * stage is over. While no recording enables it, starting and finishing an event does not measure
+ * anything and the JIT removes the event object. When it is enabled, the event also records the
+ * bytes allocated by the current thread during the stage: the work done by other threads, like the
+ * rule chunks rendered by an executor, is not counted.
+ *
+ * <p>The events do not record their stack trace, they are cheap enough to be recorded continuously.
+ */
+@Category("Legend")
+@StackTrace(false)
+public abstract class LegendEvent extends Event {
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = getThreadBean();
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread of the event during the stage, -1 if the JVM does not measure them")
+    @DataAmount
+    // not private: the fields of a super class are recorded only when the event class can access them
+    long allocatedBytes = -1;
+
+    /**
+     * The bytes allocated by the thread when the event started, not part of the event
+     */
+    private transient long allocationStart = -1;
+
+    /**
+     * Starts the event.
+     */
+    public void start() {
+        if (isEnabled()) {
+            allocationStart = getAllocatedBytes();
+            begin();
+        }
+    }
+
+    /**
+     * Ends the event and commits it, once its fields are set.
+     */
+    protected void finish() {
+        end();
+        if (shouldCommit()) {
+            if (allocationStart >= 0) {
+                allocatedBytes = getAllocatedBytes() - allocationStart;
+            }
+            commit();
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread until now, -1 if they are not measured
+     */
+    private static long getAllocatedBytes() {
+        return THREAD_BEAN != null ? THREAD_BEAN.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        return threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()
+                ? threadBean : null;
+    }
+}
@@ -0,0 +1,51 @@
+package org.legend.utils.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The composition of icons and labels into a legend: the merge of the rules of a layer or of the
+ * layers by the LegendMerger, or the single pass layout of the whole legend.
+ */
+@Name("org.legend.LegendMerge")
+@Label("Legend Merge")
+@Description("Composition of icons and labels into a legend")
+public final class LegendMergeEvent extends LegendEvent {
+
+    @Label("Operation")
+    @Description("mergeLegends, mergeGroups or layout")
+    private String operation;
+
+    @Label("Rule Count")
+    @Description("Number of rules composed, 0 when merging layers")
+    private int ruleCount;
+
+    @Label("Image Count")
+    @Description("Number of images composed")
+    private int imageCount;
+
+    @Label("Width")
+    private int width;
+
+    @Label("Height")
+    private int height;
+
+    /**
+     * Ends the event and commits it.
+     *
+     * @param operation  the kind of composition
+     * @param ruleCount  the number of rules composed
+     * @param imageCount the number of images composed
+     * @param width      the width of the composed image, 0 if there is none
+     * @param height     the height of the composed image, 0 if there is none
+     */
+    public void finish(String operation, int ruleCount, int imageCount, int width, int height) {
+        this.operation = operation;
+        this.ruleCount = ruleCount;
+        this.imageCount = imageCount;
+        this.width = width;
+        this.height = height;
+        finish();
+    }
+}
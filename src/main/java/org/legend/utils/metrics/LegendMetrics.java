@@ -0,0 +1,118 @@
+package org.legend.utils.metrics;
+
+/**
+ * Receives the timings and the counts of the legend building stages.
+ *
+ * <p>The library reports to the metrics returned by {@link LegendMetricsRegistry#getMetrics()}, which
+ * do nothing unless an implementation is installed, either with
+ * {@link LegendMetricsRegistry#setMetrics(LegendMetrics)} or as a {@link java.util.ServiceLoader}
+ * provider of this interface. Implementations are called concurrently by all the threads building
+ * legends and must be thread safe and cheap: they are called once per rule.
+ *
+ * @see HistogramLegendMetrics
+ */
+public interface LegendMetrics {
+
+    /**
+     * The timed stages of legend building.
+     */
+    enum Stage {
+        /**
+         * Reading and parsing a SLD file or converting a MapBox style
+         */
+        STYLE_LOAD,
+        /**
+         * Opening the data store of a data file
+         */
+        DATASTORE_OPEN,
+        /**
+         * Creating the sample feature of a layer
+         */
+        SAMPLE_FEATURE,
+        /**
+         * Computing the symbol sizes of the rules of a layer
+         */
+        SYMBOL_SIZE,
+        /**
+         * Painting the icon of a rule
+         */
+        RULE_PAINT,
+        /**
+         * Rendering a label image for the LegendMerger. The single pass layout draws the labels
+         * directly, as part of {@link #MERGE}
+         */
+        LABEL_RENDER,
+        /**
+         * Composing the icons and the labels into the legend
+         */
+        MERGE,
+        /**
+         * Encoding the legend as PNG
+         */
+        ENCODE
+    }
+
+    /**
+     * The counted events of legend building.
+     */
+    enum Counter {
+        LAYERS,
+        RULES,
+        OUTPUT_PIXELS,
+        ICON_CACHE_HITS,
+        ICON_CACHE_MISSES,
+        LABEL_CACHE_HITS,
+        LABEL_CACHE_MISSES,
+        LEGEND_CACHE_HITS,
+        LEGEND_CACHE_MISSES,
+        COALESCED_REQUESTS
+    }
+
+    /**
+     * Metrics ignoring everything.
+     */
+    LegendMetrics NOOP = new LegendMetrics() {
+        @Override
+        public void record(Stage stage, long nanos) {
+        }
+
+        @Override
+        public void increment(Counter counter, long delta) {
+        }
+    };
+
+    /**
+     * Records the duration of a stage.
+     *
+     * @param stage the stage
+     * @param nanos the duration of the stage, in nanoseconds
+     */
+    void record(Stage stage, long nanos);
+
+    /**
+     * Adds to a counter.
+     *
+     * @param counter the counter
+     * @param delta   the value to add
+     */
+    void increment(Counter counter, long delta);
+
+    /**
+     * Records the time elapsed since start.
+     *
+     * @param stage the stage
+     * @param start the {@link System#nanoTime()} at the start of the stage
+     */
+    default void recordSince(Stage stage, long start) {
+        record(stage, System.nanoTime() - start);
+    }
+
+    /**
+     * Adds one to a counter.
+     *
+     * @param counter the counter
+     */
+    default void increment(Counter counter) {
+        increment(counter, 1);
+    }
+}
@@ -0,0 +1,62 @@
+package org.legend.utils.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the {@link LegendMetrics} the library reports to.
+ *
+ * <p>Until {@link #setMetrics(LegendMetrics)} is called, the metrics are the first {@link
+ * ServiceLoader} provider of {@link LegendMetrics} found on the class path, or
+ * {@link LegendMetrics#NOOP} if there is none.
+ */
+public final class LegendMetricsRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(LegendMetricsRegistry.class.getName());
+
+    private static volatile LegendMetrics metrics;
+
+    private LegendMetricsRegistry() {
+    }
+
+    /**
+     * @return the metrics the library reports to, never null
+     */
+    public static LegendMetrics getMetrics() {
+        LegendMetrics current = metrics;
+        if (current == null) {
+            synchronized (LegendMetricsRegistry.class) {
+                current = metrics;
+                if (current == null) {
+                    current = load();
+                    metrics = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Sets the metrics the library reports to.
+     *
+     * @param legendMetrics the metrics, null to go back to {@link LegendMetrics#NOOP}
+     */
+    public static void setMetrics(LegendMetrics legendMetrics) {
+        metrics = legendMetrics != null ? legendMetrics : LegendMetrics.NOOP;
+    }
+
+    private static LegendMetrics load() {
+        try {
+            Iterator<LegendMetrics> providers = ServiceLoader.load(LegendMetrics.class).iterator();
+            if (providers.hasNext()) {
+                return providers.next();
+            }
+        } catch (ServiceConfigurationError e) {
+            LOGGER.log(Level.WARNING, "Could not load the legend metrics provider, metrics are disabled", e);
+        }
+        return LegendMetrics.NOOP;
+    }
+}
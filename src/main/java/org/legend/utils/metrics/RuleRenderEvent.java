@@ -0,0 +1,43 @@
+package org.legend.utils.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The painting of the icon of a rule. The style of the rule is the one of the enclosing
+ * {@link LayerRenderEvent}, unless the rule is painted by another thread.
+ */
+@Name("org.legend.RuleRender")
+@Label("Rule Render")
+@Description("Painting of the icon of a rule")
+public final class RuleRenderEvent extends LegendEvent {
+
+    @Label("Rule Name")
+    private String ruleName;
+
+    @Label("Symbolizer Count")
+    private int symbolizerCount;
+
+    @Label("Width")
+    private int width;
+
+    @Label("Height")
+    private int height;
+
+    /**
+     * Ends the event and commits it.
+     *
+     * @param ruleName        the name of the rule
+     * @param symbolizerCount the number of symbolizers of the rule
+     * @param width           the width of the icon
+     * @param height          the height of the icon
+     */
+    public void finish(String ruleName, int symbolizerCount, int width, int height) {
+        this.ruleName = ruleName;
+        this.symbolizerCount = symbolizerCount;
+        this.width = width;
+        this.height = height;
+        finish();
+    }
+}
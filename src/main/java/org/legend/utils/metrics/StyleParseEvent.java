@@ -0,0 +1,44 @@
+package org.legend.utils.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The parsing of a SLD file or the conversion of a MapBox style. The SLD styles served by the
+ * style cache are not parsed again and do not emit this event.
+ */
+@Name("org.legend.StyleParse")
+@Label("Style Parse")
+@Description("Parsing of a SLD file or conversion of a MapBox style")
+public final class StyleParseEvent extends LegendEvent {
+
+    @Label("Style Name")
+    private String styleName;
+
+    @Label("Path")
+    private String path;
+
+    @Label("Format")
+    @Description("SLD or MapBox")
+    private String format;
+
+    @Label("Rule Count")
+    private int ruleCount;
+
+    /**
+     * Ends the event and commits it.
+     *
+     * @param styleName the name of the parsed style, null if it could not be parsed
+     * @param path      the path of the style file
+     * @param format    the format of the style file
+     * @param ruleCount the number of rules of the style
+     */
+    public void finish(String styleName, String path, String format, int ruleCount) {
+        this.styleName = styleName;
+        this.path = path;
+        this.format = format;
+        this.ruleCount = ruleCount;
+        finish();
+    }
+}
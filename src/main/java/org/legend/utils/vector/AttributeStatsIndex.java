@@ -0,0 +1,493 @@
+package org.legend.utils.vector;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.geotools.api.data.FeatureSource;
+import org.geotools.api.feature.Feature;
+import org.geotools.api.feature.Property;
+import org.geotools.api.feature.type.AttributeDescriptor;
+import org.geotools.api.feature.type.GeometryDescriptor;
+import org.geotools.api.feature.type.PropertyDescriptor;
+import org.geotools.api.filter.*;
+import org.geotools.api.filter.expression.Expression;
+import org.geotools.api.filter.expression.Literal;
+import org.geotools.api.filter.expression.PropertyName;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.util.Converters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoublePredicate;
+
+/**
+ * Statistics of the attributes of a layer: the distinct values of every attribute and the min/max of
+ * the numeric ones, used to tell whether a filter matches a feature without reading the features.
+ *
+ * <p>The statistics are built in a single streaming pass over the feature source and stored as JSON
+ * next to the data file, like the <code>.qix</code> spatial index of a shapefile: <code>landcover2000.shp</code>
+ * gets a <code>landcover2000.stats.json</code>, and the layers of a multi-layer file get a
+ * <code>&lt;file&gt;.&lt;typeName&gt;.stats.json</code> each. The last modified time and size of the data file,
+ * and of the <code>.dbf</code>, <code>.shx</code> and <code>.cpg</code> of a shapefile, are stored with the
+ * statistics, which are rebuilt when they change. When the directory is not writable the statistics are
+ * only kept in memory.
+ *
+ * <p>The distinct values of an attribute are only kept up to {@link #DEFAULT_MAX_DISTINCT_VALUES}
+ * values, beyond that only its min/max are known. Only the numeric and string attributes have
+ * statistics, the filters on other attributes are {@link Presence#UNKNOWN}.
+ */
+public final class AttributeStatsIndex {
+
+    /**
+     * Answer of the index to the question "does a feature match this filter".
+     */
+    public enum Presence {
+        PRESENT,
+        ABSENT,
+        /**
+         * The statistics can not tell, the features have to be read.
+         */
+        UNKNOWN
+    }
+
+    public static final int DEFAULT_MAX_DISTINCT_VALUES = 1024;
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Maximum number of indexes kept in memory
+     */
+    private static final int MAX_INDEXES = 256;
+
+    private static final String SUFFIX = ".stats.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The indexes already read, keyed by the path of their JSON file.
+     */
+    private static final ConcurrentMap<Path, AttributeStatsIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final String typeName;
+    private final String sourceVersion;
+    private final long featureCount;
+    private final Map<String, AttributeStats> attributes;
+
+    private AttributeStatsIndex(String typeName, String sourceVersion, long featureCount,
+                                Map<String, AttributeStats> attributes) {
+        this.typeName = typeName;
+        this.sourceVersion = sourceVersion;
+        this.featureCount = featureCount;
+        this.attributes = attributes;
+    }
+
+    /**
+     * Returns the statistics of a feature source stored in a file, reading them from their JSON file,
+     * or building them if they do not exist or if the data file changed since they were built.
+     *
+     * @param featureSource the feature source
+     * @return the statistics, null if the data is not stored in a local file
+     */
+    public static AttributeStatsIndex get(FeatureSource<?, ?> featureSource) throws IOException {
+        File sourceFile = FeatureSourceUtils.getSourceFile(featureSource);
+        if (sourceFile == null) {
+            return null;
+        }
+        String typeName = featureSource.getSchema().getName().getLocalPart();
+        Path path = getIndexPath(sourceFile, typeName);
+        String version = FeatureSourceUtils.getSourceVersion(sourceFile);
+
+        AttributeStatsIndex index = INDEXES.get(path);
+        if (index != null && index.sourceVersion.equals(version)) {
+            return index;
+        }
+        index = read(path);
+        if (index == null || !index.sourceVersion.equals(version) || !typeName.equals(index.typeName)) {
+            index = build(featureSource, version, DEFAULT_MAX_DISTINCT_VALUES);
+            try {
+                index.write(path);
+            } catch (IOException e) {
+                // read-only directory, the index is kept in memory
+            }
+        }
+        if (INDEXES.size() >= MAX_INDEXES) {
+            INDEXES.clear();
+        }
+        INDEXES.put(path, index);
+        return index;
+    }
+
+    /**
+     * Builds the statistics of a feature source in a single pass over its features.
+     *
+     * @param featureSource     the feature source
+     * @param maxDistinctValues the maximum number of distinct values kept per attribute
+     * @return the statistics
+     */
+    public static AttributeStatsIndex build(FeatureSource<?, ?> featureSource, int maxDistinctValues) throws IOException {
+        return build(featureSource, "", maxDistinctValues);
+    }
+
+    private static AttributeStatsIndex build(FeatureSource<?, ?> featureSource, String version,
+                                             int maxDistinctValues) throws IOException {
+        Map<String, AttributeStats> attributes = new LinkedHashMap<>();
+        for (PropertyDescriptor descriptor : featureSource.getSchema().getDescriptors()) {
+            if (descriptor instanceof AttributeDescriptor && !(descriptor instanceof GeometryDescriptor)) {
+                Class<?> binding = descriptor.getType().getBinding();
+                boolean numeric = Number.class.isAssignableFrom(binding);
+                if (!numeric && !String.class.equals(binding)) {
+                    // dates, booleans... do not compare as their string form, nothing is known of them
+                    continue;
+                }
+                attributes.put(descriptor.getName().getLocalPart(), new AttributeStats(numeric, maxDistinctValues));
+            }
+        }
+        long featureCount = 0;
+        try (FeatureIterator<? extends Feature> features = featureSource.getFeatures().features()) {
+            while (features.hasNext()) {
+                Feature feature = features.next();
+                featureCount++;
+                for (Map.Entry<String, AttributeStats> entry : attributes.entrySet()) {
+                    Property property = feature.getProperty(entry.getKey());
+                    entry.getValue().add(property == null ? null : property.getValue());
+                }
+            }
+        }
+        return new AttributeStatsIndex(featureSource.getSchema().getName().getLocalPart(), version, featureCount,
+                attributes);
+    }
+
+    /**
+     * Tells whether at least one feature matches a filter. Equality, comparison, between and null
+     * checks on a single attribute are answered from the statistics, and combined through and, or and
+     * not; other filters are {@link Presence#UNKNOWN}.
+     *
+     * @param filter the filter
+     * @return the presence of the filter in the data
+     */
+    public Presence evaluate(Filter filter) {
+        if (filter == null || filter == Filter.INCLUDE) {
+            return featureCount > 0 ? Presence.PRESENT : Presence.ABSENT;
+        }
+        if (filter == Filter.EXCLUDE || featureCount == 0) {
+            return Presence.ABSENT;
+        }
+        if (filter instanceof And) {
+            List<Filter> children = ((And) filter).getChildren();
+            Presence presence = Presence.UNKNOWN;
+            for (Filter child : children) {
+                Presence childPresence = evaluate(child);
+                if (childPresence == Presence.ABSENT) {
+                    return Presence.ABSENT;
+                }
+                presence = childPresence;
+            }
+            // features matching every child separately may not match them all at once
+            return children.size() == 1 ? presence : Presence.UNKNOWN;
+        }
+        if (filter instanceof Or) {
+            boolean unknown = false;
+            for (Filter child : ((Or) filter).getChildren()) {
+                Presence childPresence = evaluate(child);
+                if (childPresence == Presence.PRESENT) {
+                    return Presence.PRESENT;
+                }
+                unknown |= childPresence == Presence.UNKNOWN;
+            }
+            return unknown ? Presence.UNKNOWN : Presence.ABSENT;
+        }
+        if (filter instanceof Not) {
+            // when no feature matches the filter, every feature matches its negation
+            return evaluate(((Not) filter).getFilter()) == Presence.ABSENT ? Presence.PRESENT : Presence.UNKNOWN;
+        }
+        if (filter instanceof PropertyIsNull) {
+            AttributeStats stats = getStats(((PropertyIsNull) filter).getExpression());
+            if (stats == null) {
+                return Presence.UNKNOWN;
+            }
+            return stats.nullCount > 0 ? Presence.PRESENT : Presence.ABSENT;
+        }
+        if (filter instanceof PropertyIsBetween) {
+            PropertyIsBetween between = (PropertyIsBetween) filter;
+            AttributeStats stats = getStats(between.getExpression());
+            if (stats == null || !stats.numeric) {
+                return Presence.UNKNOWN;
+            }
+            Double lower = toDouble(between.getLowerBoundary());
+            Double upper = toDouble(between.getUpperBoundary());
+            if (lower == null || upper == null) {
+                return Presence.UNKNOWN;
+            }
+            return stats.evaluate(v -> v >= lower && v <= upper, stats.max != null && stats.max >= lower
+                    && stats.min <= upper ? Presence.UNKNOWN : Presence.ABSENT);
+        }
+        if (filter instanceof BinaryComparisonOperator) {
+            return evaluate((BinaryComparisonOperator) filter);
+        }
+        return Presence.UNKNOWN;
+    }
+
+    private Presence evaluate(BinaryComparisonOperator comparison) {
+        Expression property = comparison.getExpression1();
+        Expression literal = comparison.getExpression2();
+        boolean swapped = false;
+        if (!(property instanceof PropertyName)) {
+            property = comparison.getExpression2();
+            literal = comparison.getExpression1();
+            swapped = true;
+        }
+        AttributeStats stats = getStats(property);
+        if (stats == null || !(literal instanceof Literal)) {
+            return Presence.UNKNOWN;
+        }
+        if (comparison instanceof PropertyIsEqualTo || comparison instanceof PropertyIsNotEqualTo) {
+            boolean equal = comparison instanceof PropertyIsEqualTo;
+            if (stats.numeric) {
+                Double value = toDouble(literal);
+                if (value == null) {
+                    return Presence.UNKNOWN;
+                }
+                if (stats.min == null) {
+                    // only null values, which are neither equal nor different
+                    return Presence.ABSENT;
+                }
+                if (!equal) {
+                    return stats.evaluate(v -> v != value, stats.min < stats.max ? Presence.PRESENT : Presence.UNKNOWN);
+                }
+                Presence outside = value < stats.min || value > stats.max ? Presence.ABSENT : Presence.UNKNOWN;
+                return stats.evaluate(v -> v == value, outside);
+            }
+            String value = Converters.convert(((Literal) literal).getValue(), String.class);
+            if (value == null || stats.distinct == null) {
+                return Presence.UNKNOWN;
+            }
+            boolean matchCase = comparison.isMatchingCase();
+            for (Object distinct : stats.distinct) {
+                boolean same = matchCase ? value.equals(distinct) : value.equalsIgnoreCase((String) distinct);
+                if (same == equal) {
+                    return Presence.PRESENT;
+                }
+            }
+            return Presence.ABSENT;
+        }
+        if (!stats.numeric || stats.min == null) {
+            return Presence.UNKNOWN;
+        }
+        Double value = toDouble(literal);
+        if (value == null) {
+            return Presence.UNKNOWN;
+        }
+        // min and max are values of actual features, so a bound comparison is exact
+        boolean lessThan = comparison instanceof PropertyIsLessThan || comparison instanceof PropertyIsLessThanOrEqualTo;
+        boolean greaterThan = comparison instanceof PropertyIsGreaterThan || comparison instanceof PropertyIsGreaterThanOrEqualTo;
+        boolean orEqual = comparison instanceof PropertyIsLessThanOrEqualTo || comparison instanceof PropertyIsGreaterThanOrEqualTo;
+        if (swapped) {
+            // literal < property is property > literal
+            boolean tmp = lessThan;
+            lessThan = greaterThan;
+            greaterThan = tmp;
+        }
+        boolean present;
+        if (lessThan) {
+            present = orEqual ? stats.min <= value : stats.min < value;
+        } else if (greaterThan) {
+            present = orEqual ? stats.max >= value : stats.max > value;
+        } else {
+            return Presence.UNKNOWN;
+        }
+        return present ? Presence.PRESENT : Presence.ABSENT;
+    }
+
+    private AttributeStats getStats(Expression expression) {
+        if (!(expression instanceof PropertyName)) {
+            return null;
+        }
+        return attributes.get(((PropertyName) expression).getPropertyName());
+    }
+
+    private static Double toDouble(Expression expression) {
+        if (!(expression instanceof Literal)) {
+            return null;
+        }
+        return Converters.convert(((Literal) expression).getValue(), Double.class);
+    }
+
+    /**
+     * @return the number of features of the layer
+     */
+    public long getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * @return the name of the feature type of the layer
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * @param attribute the name of an attribute
+     * @return the distinct values of the attribute, null if the attribute is unknown or has too many values
+     */
+    public Set<Object> getDistinctValues(String attribute) {
+        AttributeStats stats = attributes.get(attribute);
+        return stats == null || stats.distinct == null ? null : Collections.unmodifiableSet(stats.distinct);
+    }
+
+    /**
+     * Returns the path of the statistics of a layer.
+     *
+     * @param sourceFile the data file
+     * @param typeName   the name of the layer
+     * @return the path of the JSON file
+     */
+    static Path getIndexPath(File sourceFile, String typeName) {
+        String name = sourceFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String fileName = base.equals(typeName) ? base + SUFFIX : base + "." + typeName + SUFFIX;
+        return sourceFile.toPath().resolveSibling(fileName);
+    }
+
+    private void write(Path path) throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("version", FORMAT_VERSION);
+        root.put("typeName", typeName);
+        root.put("sourceVersion", sourceVersion);
+        root.put("featureCount", featureCount);
+        ObjectNode attributesNode = root.putObject("attributes");
+        for (Map.Entry<String, AttributeStats> entry : attributes.entrySet()) {
+            AttributeStats stats = entry.getValue();
+            ObjectNode node = attributesNode.putObject(entry.getKey());
+            node.put("numeric", stats.numeric);
+            node.put("nullCount", stats.nullCount);
+            if (stats.min != null) {
+                node.put("min", stats.min);
+                node.put("max", stats.max);
+            }
+            if (stats.distinct != null) {
+                ArrayNode values = node.putArray("distinct");
+                for (Object value : stats.distinct) {
+                    if (stats.numeric) {
+                        values.add((Double) value);
+                    } else {
+                        values.add((String) value);
+                    }
+                }
+            }
+        }
+        // written aside first, concurrent readers never see a partial file
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            MAPPER.writeValue(tmp.toFile(), root);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static AttributeStatsIndex read(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            JsonNode root = MAPPER.readTree(path.toFile());
+            if (root.path("version").asInt() != FORMAT_VERSION) {
+                return null;
+            }
+            Map<String, AttributeStats> attributes = new LinkedHashMap<>();
+            for (Iterator<Map.Entry<String, JsonNode>> it = root.path("attributes").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> entry = it.next();
+                attributes.put(entry.getKey(), AttributeStats.read(entry.getValue()));
+            }
+            return new AttributeStatsIndex(root.path("typeName").asText(), root.path("sourceVersion").asText(),
+                    root.path("featureCount").asLong(), attributes);
+        } catch (IOException e) {
+            // corrupted index, it is built again
+            return null;
+        }
+    }
+
+    /**
+     * The statistics of an attribute. The values of numeric attributes are kept as doubles, the others
+     * as strings.
+     */
+    private static final class AttributeStats {
+        private final boolean numeric;
+        private final int maxDistinctValues;
+        private Set<Object> distinct = new LinkedHashSet<>();
+        private long nullCount;
+        private Double min;
+        private Double max;
+
+        private AttributeStats(boolean numeric, int maxDistinctValues) {
+            this.numeric = numeric;
+            this.maxDistinctValues = maxDistinctValues;
+        }
+
+        private void add(Object value) {
+            if (value == null) {
+                nullCount++;
+                return;
+            }
+            Object normalized;
+            if (numeric) {
+                double number = ((Number) value).doubleValue();
+                min = min == null ? number : Math.min(min, number);
+                max = max == null ? number : Math.max(max, number);
+                normalized = number;
+            } else {
+                normalized = Converters.convert(value, String.class);
+            }
+            if (distinct != null && distinct.add(normalized) && distinct.size() > maxDistinctValues) {
+                distinct = null;
+            }
+        }
+
+        /**
+         * Evaluates a predicate on the distinct values.
+         *
+         * @param predicate       the predicate
+         * @param withoutDistinct the answer when the distinct values are not known
+         * @return present if a distinct value matches the predicate
+         */
+        private Presence evaluate(DoublePredicate predicate, Presence withoutDistinct) {
+            if (distinct == null) {
+                return withoutDistinct;
+            }
+            for (Object value : distinct) {
+                if (predicate.test((Double) value)) {
+                    return Presence.PRESENT;
+                }
+            }
+            return Presence.ABSENT;
+        }
+
+        private static AttributeStats read(JsonNode node) {
+            boolean numeric = node.path("numeric").asBoolean();
+            JsonNode distinctNode = node.get("distinct");
+            AttributeStats stats = new AttributeStats(numeric, Integer.MAX_VALUE);
+            stats.nullCount = node.path("nullCount").asLong();
+            if (node.has("min")) {
+                stats.min = node.get("min").asDouble();
+                stats.max = node.get("max").asDouble();
+            }
+            if (distinctNode == null) {
+                stats.distinct = null;
+            } else {
+                for (JsonNode value : distinctNode) {
+                    stats.distinct.add(numeric ? (Object) value.asDouble() : value.asText());
+                }
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package org.legend.utils.vector;
+
+import org.geotools.api.data.DataStore;
+import org.geotools.api.data.DataStoreFinder;
+import org.geotools.api.data.FeatureSource;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.geojson.store.GeoJSONDataStoreFactory;
+import org.geotools.mbtiles.MBTilesDataStoreFactory;
+import org.geotools.util.URLs;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Registry of the data stores opened on files, keyed by the file and the {@link FeatureSourceType}.
+ *
+ * <p>A store is opened once and shared by all the callers of the same file. Callers get a {@link Lease}
+ * which must be closed once the features are no longer read: the store is reference counted and is
+ * only disposed when it is not leased, either because it stayed idle longer than the idle timeout or
+ * because more than the maximum number of stores are open. The maximum is a soft limit, stores still
+ * leased are never disposed. Idle stores are swept when stores are acquired and released.
+ *
+ * <p>A store is opened outside of the lock of the registry, so a slow store does not hold back the
+ * callers of the other files; the callers of the same file wait for it to be opened.
+ */
+public class DataStoreRegistry implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_OPEN_STORES = 64;
+
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+    private static final DataStoreRegistry DEFAULT = new DataStoreRegistry(DEFAULT_MAX_OPEN_STORES, DEFAULT_IDLE_TIMEOUT);
+
+    private final int maxOpenStores;
+    private final long idleTimeoutNanos;
+    private final Map<Key, Entry> stores = new HashMap<>();
+    /**
+     * The leases held until the registry is closed, at most one per file
+     */
+    private final Map<Key, Lease> pinned = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * @param maxOpenStores the maximum number of open stores
+     * @param idleTimeout   the time after which a store which is not leased is disposed
+     */
+    public DataStoreRegistry(int maxOpenStores, Duration idleTimeout) {
+        if (maxOpenStores <= 0) {
+            throw new IllegalArgumentException("maxOpenStores must be positive: " + maxOpenStores);
+        }
+        if (idleTimeout.isNegative()) {
+            throw new IllegalArgumentException("idleTimeout must not be negative: " + idleTimeout);
+        }
+        this.maxOpenStores = maxOpenStores;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+
+    /**
+     * @return the registry shared by {@link FeatureSourceUtils}
+     */
+    public static DataStoreRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Leases the store of a file, opening it if it is not open yet.
+     *
+     * @param file the data file
+     * @param type the type of the data file
+     * @return the lease, to be closed once the store is no longer used
+     */
+    public Lease acquire(File file, FeatureSourceType type) throws IOException {
+        Key key = new Key(file.getCanonicalFile().toPath(), type);
+        List<DataStore> disposed = new ArrayList<>();
+        Entry entry;
+        boolean opening = false;
+        try {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("The registry is closed");
+                }
+                long now = System.nanoTime();
+                sweep(now, disposed);
+                entry = stores.get(key);
+                if (entry == null) {
+                    evict(maxOpenStores - 1, disposed);
+                    // the entry is leased, so it is neither swept nor evicted while the store is opened
+                    entry = new Entry();
+                    stores.put(key, entry);
+                    opening = true;
+                }
+                entry.references++;
+            }
+        } finally {
+            dispose(disposed);
+        }
+        if (opening) {
+            openStore(key, entry);
+        }
+        return new Lease(entry, awaitStore(entry, file));
+    }
+
+    /**
+     * Leases the store of a file until the registry is closed, for the callers which can not close
+     * their lease. Repeated calls for the same file share a single lease, so the store is leased once
+     * however many times it is asked for. The store stays open until the registry is closed: it is
+     * neither swept when idle nor evicted beyond the maximum number of stores.
+     *
+     * @param file the data file
+     * @param type the type of the data file
+     * @return the lease, not to be closed by the caller
+     */
+    public Lease pin(File file, FeatureSourceType type) throws IOException {
+        Key key = new Key(file.getCanonicalFile().toPath(), type);
+        synchronized (this) {
+            Lease lease = pinned.get(key);
+            if (lease != null) {
+                return lease;
+            }
+        }
+        // acquired outside of the lock, the store may have to be opened
+        Lease lease = acquire(file, type);
+        Lease previous;
+        synchronized (this) {
+            previous = closed ? null : pinned.putIfAbsent(key, lease);
+        }
+        if (previous != null) {
+            // another caller pinned the store meanwhile
+            lease.close();
+            return previous;
+        }
+        return lease;
+    }
+
+    /**
+     * Disposes the stores which are not leased and stayed idle longer than the idle timeout.
+     */
+    public void evictIdle() {
+        List<DataStore> disposed = new ArrayList<>();
+        synchronized (this) {
+            sweep(System.nanoTime(), disposed);
+        }
+        dispose(disposed);
+    }
+
+    /**
+     * @return the number of open stores, leased or idle
+     */
+    public synchronized int size() {
+        return stores.size();
+    }
+
+    /**
+     * @return the maximum number of open stores
+     */
+    public int getMaxOpenStores() {
+        return maxOpenStores;
+    }
+
+    /**
+     * @return the time after which a store which is not leased is disposed
+     */
+    public Duration getIdleTimeout() {
+        return Duration.ofNanos(idleTimeoutNanos);
+    }
+
+    /**
+     * Disposes all the stores, including the leased ones. The registry can not be used anymore.
+     */
+    @Override
+    public void close() {
+        List<DataStore> disposed = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Entry entry : stores.values()) {
+                // the stores being opened are disposed by their opener
+                DataStore dataStore = entry.getOpenStore();
+                if (dataStore != null) {
+                    disposed.add(dataStore);
+                }
+            }
+            stores.clear();
+            pinned.clear();
+        }
+        dispose(disposed);
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.references--;
+        if (entry.references == 0) {
+            entry.idleSince = System.nanoTime();
+        }
+    }
+
+    /**
+     * Removes the idle stores which timed out, must be called with the lock held.
+     */
+    private void sweep(long now, List<DataStore> disposed) {
+        for (Iterator<Entry> it = stores.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.references == 0 && now - entry.idleSince >= idleTimeoutNanos) {
+                it.remove();
+                disposed.add(entry.getOpenStore());
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently released idle stores until at most the given number of stores are open,
+     * must be called with the lock held.
+     */
+    private void evict(int maxSize, List<DataStore> disposed) {
+        while (stores.size() > maxSize) {
+            Map.Entry<Key, Entry> oldest = null;
+            for (Map.Entry<Key, Entry> candidate : stores.entrySet()) {
+                Entry entry = candidate.getValue();
+                if (entry.references == 0 && (oldest == null || entry.idleSince - oldest.getValue().idleSince < 0)) {
+                    oldest = candidate;
+                }
+            }
+            if (oldest == null) {
+                // every store is leased
+                return;
+            }
+            stores.remove(oldest.getKey());
+            disposed.add(oldest.getValue().getOpenStore());
+        }
+    }
+
+    private static void dispose(List<DataStore> dataStores) {
+        for (DataStore dataStore : dataStores) {
+            dataStore.dispose();
+        }
+    }
+
+    /**
+     * Opens the store of a new entry, without holding the lock. On any failure, errors included, the
+     * entry is removed, so the next caller tries again, and the callers waiting for the entry get the
+     * failure instead of waiting forever.
+     */
+    private void openStore(Key key, Entry entry) throws IOException {
+        final long start = System.nanoTime();
+        DataStore dataStore;
+        try {
+            dataStore = open(key.file.toFile(), key.type);
+        } catch (Throwable e) {
+            synchronized (this) {
+                stores.remove(key, entry);
+            }
+            entry.dataStore.completeExceptionally(e);
+            throw e;
+        }
+        LegendMetricsRegistry.getMetrics().recordSince(LegendMetrics.Stage.DATASTORE_OPEN, start);
+        synchronized (this) {
+            if (!closed) {
+                entry.dataStore.complete(dataStore);
+                return;
+            }
+        }
+        // the registry was closed while the store was opened
+        dataStore.dispose();
+        IllegalStateException closedException = new IllegalStateException("The registry is closed");
+        entry.dataStore.completeExceptionally(closedException);
+        throw closedException;
+    }
+
+    /**
+     * Waits for the store of an entry to be opened, by the current thread or another one.
+     */
+    private static DataStore awaitStore(Entry entry, File file) throws IOException {
+        try {
+            return entry.dataStore.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException("Could not open the data store of " + file, cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the store of a file. Called without holding the lock of the registry.
+     *
+     * @param file the data file
+     * @param type the type of the data file
+     * @return the store
+     */
+    protected DataStore open(File file, FeatureSourceType type) throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        switch (type) {
+            case SHP:
+                params.put("url", file.toURI().toString());
+                break;
+            case MBTILES:
+                params.put(MBTilesDataStoreFactory.DBTYPE.key, "mbtiles");
+                params.put(MBTilesDataStoreFactory.DATABASE.key, file);
+                break;
+            case GEOJSON:
+                params.put(GeoJSONDataStoreFactory.URL_PARAM.key, URLs.fileToUrl(file));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported feature source type: " + type);
+        }
+        DataStore dataStore = DataStoreFinder.getDataStore(params);
+        if (dataStore == null) {
+            throw new IOException("No data store found for " + file);
+        }
+        return dataStore;
+    }
+
+    /**
+     * A lease on a shared store. The store and the feature sources obtained from it must not be used
+     * once the lease is closed.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private final DataStore dataStore;
+        private boolean released;
+
+        private Lease(Entry entry, DataStore dataStore) {
+            this.entry = entry;
+            this.dataStore = dataStore;
+        }
+
+        /**
+         * @return the shared store
+         */
+        public DataStore getDataStore() {
+            return dataStore;
+        }
+
+        /**
+         * @return the feature source of the first type of the store
+         */
+        public FeatureSource<SimpleFeatureType, SimpleFeature> getFeatureSource() throws IOException {
+            String[] typeNames = dataStore.getTypeNames();
+            return dataStore.getFeatureSource(typeNames[0]);
+        }
+
+        /**
+         * Releases the store, closing a lease twice has no effect.
+         */
+        @Override
+        public void close() {
+            synchronized (DataStoreRegistry.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(entry);
+            evictIdle();
+        }
+    }
+
+    private static final class Key {
+        private final Path file;
+        private final FeatureSourceType type;
+
+        private Key(Path file, FeatureSourceType type) {
+            this.file = file;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return file.equals(key.file) && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, type);
+        }
+    }
+
+    private static final class Entry {
+        /**
+         * Completed once the store is opened
+         */
+        private final CompletableFuture<DataStore> dataStore = new CompletableFuture<>();
+        private int references;
+        private long idleSince;
+
+        /**
+         * @return the store, null if it is still being opened or could not be opened
+         */
+        private DataStore getOpenStore() {
+            return dataStore.isDone() && !dataStore.isCompletedExceptionally() ? dataStore.join() : null;
+        }
+    }
+}
@@ -2,5 +2,6 @@ package org.legend.utils.vector;
 
 public enum FeatureSourceType {
     SHP,
-    MBTILES
+    MBTILES,
+    GEOJSON
 }
@@ -1,43 +1,111 @@
 package org.legend.utils.vector;
 
-import org.geotools.api.data.DataStore;
-import org.geotools.api.data.DataStoreFinder;
+import org.geotools.api.data.DataAccess;
 import org.geotools.api.data.FeatureSource;
+import org.geotools.api.data.ServiceInfo;
 import org.geotools.api.feature.simple.SimpleFeature;
 import org.geotools.api.feature.simple.SimpleFeatureType;
-import org.geotools.mbtiles.MBTilesDataStoreFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.URI;
 
 public class FeatureSourceUtils {
+
+    /**
+     * The files holding part of the data of a shapefile, besides the .shp
+     */
+    private static final String[] SHAPEFILE_PARTS = {"dbf", "shx", "cpg"};
+
+    /**
+     * Returns the feature source of a file. The store is pinned in the default {@link DataStoreRegistry}
+     * with {@link DataStoreRegistry#pin}: a single lease per file and type, shared by all the calls and
+     * never released, so the store stays open until the registry is closed, regardless of its idle
+     * timeout and of its maximum number of open stores.
+     *
+     * @param file the data file
+     * @param type the type of the data file
+     * @return the feature source of the first type of the file
+     * @deprecated the store is never released, use {@link #openFeatureSource(File, FeatureSourceType)}
+     * and close the lease once the feature source is no longer used
+     */
+    @Deprecated
     public static FeatureSource<SimpleFeatureType, SimpleFeature> getFeatureSource(File file, FeatureSourceType type) {
-        switch (type) {
-            case FeatureSourceType.SHP:
-                try {
-                    Map<String, String> params = new HashMap<>();
-                    params.put("url", file.toURI().toString());
-                    DataStore dataStore = DataStoreFinder.getDataStore(params);
-                    String[] typeNames = dataStore.getTypeNames();
-                    return dataStore.getFeatureSource(typeNames[0]);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            case MBTILES:
-                try {
-                    HashMap<String, Object> params = new HashMap<>();
-                    params.put(MBTilesDataStoreFactory.DBTYPE.key, "mbtiles");
-                    params.put(MBTilesDataStoreFactory.DATABASE.key, file);
-                    DataStore dataStore = DataStoreFinder.getDataStore(params);
-                    String[] typeNames = dataStore.getTypeNames();
-                    return dataStore.getFeatureSource(typeNames[0]);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+        try {
+            return DataStoreRegistry.getDefault().pin(file, type).getFeatureSource();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Leases the store of a file from the default {@link DataStoreRegistry}.
+     *
+     * @param file the data file
+     * @param type the type of the data file
+     * @return the lease, to be closed once the feature source is no longer used
+     */
+    public static DataStoreRegistry.Lease openFeatureSource(File file, FeatureSourceType type) throws IOException {
+        return DataStoreRegistry.getDefault().acquire(file, type);
+    }
+
+    /**
+     * Returns the location of the data of a feature source.
+     *
+     * @param featureSource the feature source
+     * @return the location given by the store, null if the store does not tell it
+     */
+    public static URI getSourceUri(FeatureSource<?, ?> featureSource) {
+        DataAccess<?, ?> dataStore;
+        try {
+            dataStore = featureSource.getDataStore();
+        } catch (UnsupportedOperationException e) {
+            // in memory sources may not have any store
+            return null;
+        }
+        ServiceInfo info = dataStore == null ? null : dataStore.getInfo();
+        return info == null ? null : info.getSource();
+    }
+
+    /**
+     * Returns the file holding the data of a feature source.
+     *
+     * @param featureSource the feature source
+     * @return the file, null if the data is not stored in a local file
+     */
+    public static File getSourceFile(FeatureSource<?, ?> featureSource) {
+        URI uri = getSourceUri(featureSource);
+        if (uri == null || !"file".equals(uri.getScheme())) {
+            return null;
+        }
+        File file = new File(uri);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Returns the version of the data of a file, which changes when the file or one of the files holding
+     * part of its data is modified: the attributes of a shapefile are in its .dbf, which is rewritten
+     * alone when only the attributes change.
+     *
+     * @param sourceFile the data file
+     * @return the last modified time and size of every file of the data
+     */
+    public static String getSourceVersion(File sourceFile) {
+        StringBuilder version = new StringBuilder();
+        version.append(sourceFile.lastModified()).append('-').append(sourceFile.length());
+        String name = sourceFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0 && "shp".equalsIgnoreCase(name.substring(dot + 1))) {
+            boolean upperCase = Character.isUpperCase(name.charAt(dot + 1));
+            for (String extension : SHAPEFILE_PARTS) {
+                File part = new File(sourceFile.getParentFile(), name.substring(0, dot + 1)
+                        + (upperCase ? extension.toUpperCase() : extension));
+                version.append(';').append(extension);
+                if (part.isFile()) {
+                    version.append(':').append(part.lastModified()).append('-').append(part.length());
                 }
-            default:
-                return null;
+            }
         }
+        return version.toString();
     }
 }
@@ -0,0 +1,258 @@
+package org.legend.utils.vector;
+
+import org.geotools.api.style.Style;
+import org.geotools.api.style.StyleFactory;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.mbstyle.MBStyle;
+import org.geotools.mbstyle.layer.MBLayer;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+import org.legend.utils.metrics.StyleParseEvent;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts the layers of MapBox style files to GeoTools styles.
+ *
+ * <p>A style file is parsed once and cached as long as its last modified time and its size are
+ * unchanged, like the SLD files of {@link StyleCache}. Only the layers asked for are transformed,
+ * on demand, and the style of every transformed layer is kept until the file changes. Every caller
+ * gets its own copy of the styles, so the legend builders can rescale symbolizers without altering
+ * the cache.
+ */
+public class MapboxStyleConverter {
+
+    /**
+     * Maximum number of layer selections kept for a style file
+     */
+    private static final int MAX_SELECTIONS = 64;
+
+    private final StyleFactory styleFactory = CommonFactoryFinder.getStyleFactory();
+
+    private final ConcurrentMap<Path, Document> documents = new ConcurrentHashMap<>();
+
+    private final AtomicLong parseCount = new AtomicLong();
+
+    private final AtomicLong transformCount = new AtomicLong();
+
+    /**
+     * Returns the style of some layers of a MapBox style file. A layer is selected by its ID or by
+     * its source layer, the selected layers keep the order of the file. Without selection all the
+     * layers of the file are returned. Hidden layers are skipped.
+     *
+     * @param path     the MapBox style file
+     * @param layerIds the IDs or the source layers of the layers to convert
+     * @return a copy of the style of the selected layers, owned by the caller
+     * @throws IOException              if the file cannot be read or parsed
+     * @throws IllegalArgumentException if an ID matches no layer of the file
+     */
+    public Style getStyle(Path path, String... layerIds) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            Document document = getDocument(path);
+            Style selection = document.getSelectionStyle(layerIds);
+            Style style = StyleCache.copy(selection);
+            // the copies of a selection share its digest, it is computed once for all of them
+            StyleDigests.share(selection, style);
+            return style;
+        } finally {
+            LegendMetricsRegistry.getMetrics().recordSince(LegendMetrics.Stage.STYLE_LOAD, start);
+        }
+    }
+
+    /**
+     * Returns the IDs of the layers of a MapBox style file, in the order of the file.
+     *
+     * @param path the MapBox style file
+     * @return the layer IDs
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public List<String> getLayerIds(Path path) throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (MBLayer layer : getDocument(path).mbStyle.layers()) {
+            ids.add(layer.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Removes a style file from the cache.
+     *
+     * @param path the style file
+     */
+    public void invalidate(Path path) {
+        documents.remove(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Removes all the style files from the cache.
+     */
+    public void clear() {
+        documents.clear();
+    }
+
+    /**
+     * @return the number of cached style files
+     */
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * @return the number of style files parsed since the creation of the converter
+     */
+    public long getParseCount() {
+        return parseCount.get();
+    }
+
+    /**
+     * @return the number of layers transformed since the creation of the converter
+     */
+    public long getTransformCount() {
+        return transformCount.get();
+    }
+
+    /**
+     * Returns the parsed style file, parsing it if it is not cached or if it changed since it was
+     * cached.
+     */
+    private Document getDocument(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        Document document = documents.get(key);
+        if (document == null || !document.matches(attributes)) {
+            document = new Document(attributes, parse(key));
+            documents.put(key, document);
+        }
+        return document;
+    }
+
+    private MBStyle parse(Path path) throws IOException {
+        final StyleParseEvent event = new StyleParseEvent();
+        event.start();
+        MBStyle mbStyle = null;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Object json = new JSONParser().parse(reader);
+            if (!(json instanceof JSONObject)) {
+                throw new IOException("No MapBox style found in " + path);
+            }
+            mbStyle = new MBStyle((JSONObject) json);
+            parseCount.incrementAndGet();
+            return mbStyle;
+        } catch (ParseException e) {
+            throw new IOException("Invalid MapBox style " + path, e);
+        } finally {
+            if (event.isEnabled()) {
+                event.finish(mbStyle != null ? mbStyle.getName() : null, path.toString(), "MapBox",
+                        mbStyle != null ? mbStyle.layers().size() : 0);
+            }
+        }
+    }
+
+    /**
+     * A parsed style file and the styles of its transformed layers.
+     */
+    private final class Document {
+        private final long lastModified;
+        private final long size;
+        private final MBStyle mbStyle;
+        private final ConcurrentMap<String, Style> layerStyles = new ConcurrentHashMap<>();
+        private final ConcurrentMap<List<String>, Style> selectionStyles = new ConcurrentHashMap<>();
+
+        private Document(BasicFileAttributes attributes, MBStyle mbStyle) {
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+            this.mbStyle = mbStyle;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return lastModified == attributes.lastModifiedTime().toMillis() && size == attributes.size();
+        }
+
+        /**
+         * Returns the visible layers matching the given IDs or source layers, all the visible
+         * layers if no ID is given.
+         */
+        private List<MBLayer> select(String... layerIds) {
+            List<MBLayer> layers = mbStyle.layers();
+            if (layerIds == null || layerIds.length == 0) {
+                List<MBLayer> visible = new ArrayList<>();
+                for (MBLayer layer : layers) {
+                    if (layer.visibility()) {
+                        visible.add(layer);
+                    }
+                }
+                return visible;
+            }
+            Set<String> ids = new LinkedHashSet<>(List.of(layerIds));
+            Set<String> unmatched = new LinkedHashSet<>(ids);
+            List<MBLayer> selected = new ArrayList<>();
+            for (MBLayer layer : layers) {
+                boolean byId = ids.contains(layer.getId());
+                boolean bySourceLayer = layer.getSourceLayer() != null && ids.contains(layer.getSourceLayer());
+                if (byId) {
+                    unmatched.remove(layer.getId());
+                }
+                if (bySourceLayer) {
+                    unmatched.remove(layer.getSourceLayer());
+                }
+                if ((byId || bySourceLayer) && layer.visibility()) {
+                    selected.add(layer);
+                }
+            }
+            if (!unmatched.isEmpty()) {
+                throw new IllegalArgumentException("No MapBox layer " + unmatched);
+            }
+            return selected;
+        }
+
+        /**
+         * Returns the style of the selected layers, assembling it from the styles of the layers on
+         * the first call.
+         */
+        private Style getSelectionStyle(String... layerIds) {
+            List<String> key = layerIds == null ? List.of() : List.of(layerIds);
+            Style style = selectionStyles.get(key);
+            if (style == null) {
+                style = styleFactory.createStyle();
+                style.setName(mbStyle.getName());
+                for (MBLayer layer : select(layerIds)) {
+                    style.featureTypeStyles().addAll(StyleCache.copy(getLayerStyle(layer)).featureTypeStyles());
+                }
+                if (selectionStyles.size() >= MAX_SELECTIONS) {
+                    selectionStyles.clear();
+                }
+                selectionStyles.put(key, style);
+            }
+            return style;
+        }
+
+        /**
+         * Returns the style of a layer, transforming the layer on the first call.
+         */
+        private Style getLayerStyle(MBLayer layer) {
+            return layerStyles.computeIfAbsent(layer.getId(), id -> {
+                Style style = styleFactory.createStyle();
+                style.setName(id);
+                style.featureTypeStyles().addAll(layer.transform(mbStyle));
+                transformCount.incrementAndGet();
+                return style;
+            });
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.legend.utils.vector;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Normalizes SLD documents while they are parsed, so that they can be read by the
+ * {@link org.geotools.xml.styling.SLDParser}.
+ *
+ * <p>The elements are rewritten while the StAX events of the document are turned into a DOM:
+ * <code>SvgParameter</code> becomes <code>CssParameter</code>, and the <code>sld</code> prefixes
+ * and namespaces become <code>se</code> ones. Unlike the former text replacement, the source file is
+ * never written, the document is read in a single pass without any copy of its text, and text
+ * content and attribute values are left untouched. The methods are safe to call from many threads.
+ */
+public final class SldNormalizer {
+
+    /**
+     * StAX factories and DOM builders are not guaranteed to be thread safe, every thread has its own.
+     */
+    private static final ThreadLocal<Factories> FACTORIES = ThreadLocal.withInitial(Factories::new);
+
+    private SldNormalizer() {
+    }
+
+    /**
+     * Reads a SLD document, normalizing it on the fly.
+     *
+     * @param in the SLD document, not closed by this method
+     * @return the normalized DOM
+     */
+    public static Document normalize(InputStream in) throws IOException {
+        Factories factories = FACTORIES.get();
+        XMLEventReader reader = null;
+        try {
+            reader = factories.inputFactory.createXMLEventReader(in);
+            Document document = factories.documentBuilder.newDocument();
+            Node current = document;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                switch (event.getEventType()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        Element element = createElement(document, current, event.asStartElement());
+                        current.appendChild(element);
+                        current = element;
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> current = current.getParentNode();
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                        // the document node does not accept text
+                        if (current != document) {
+                            current.appendChild(document.createTextNode(event.asCharacters().getData()));
+                        }
+                    }
+                    case XMLStreamConstants.CDATA ->
+                            current.appendChild(document.createCDATASection(event.asCharacters().getData()));
+                    case XMLStreamConstants.COMMENT ->
+                            current.appendChild(document.createComment(((Comment) event).getText()));
+                    default -> {
+                        // prolog, DTD and processing instructions are not used by the SLD parser
+                    }
+                }
+            }
+            return document;
+        } catch (XMLStreamException | DOMException e) {
+            throw new IOException("Could not read the SLD document", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to read
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the normalized DOM element of a start element, with its namespace declarations and attributes.
+     * The document is read without namespace awareness, so that the prefixes are normalized before being
+     * resolved: a <code>sld</code> prefix which is only declared as <code>se</code> is still accepted.
+     *
+     * @param document the document owning the element
+     * @param parent   the parent node of the element
+     * @param start    the start element
+     * @return the element
+     */
+    private static Element createElement(Document document, Node parent, StartElement start) {
+        Map<String, String> declarations = new HashMap<>();
+        List<Attribute> attributes = new ArrayList<>();
+        for (Iterator<Attribute> it = start.getAttributes(); it.hasNext(); ) {
+            Attribute attribute = it.next();
+            String[] name = split(attribute.getName());
+            if (name[0].isEmpty() && XMLConstants.XMLNS_ATTRIBUTE.equals(name[1])) {
+                declarations.put("", normalize(attribute.getValue()));
+            } else if (XMLConstants.XMLNS_ATTRIBUTE.equals(name[0])) {
+                declarations.put(normalize(name[1]), normalize(attribute.getValue()));
+            } else {
+                attributes.add(attribute);
+            }
+        }
+        String[] name = split(start.getName());
+        Element element = createElementNS(document, resolve(parent, declarations, name[0]), name);
+        for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+            String prefix = declaration.getKey();
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                    declaration.getValue());
+        }
+        for (Attribute attribute : attributes) {
+            String[] attributeName = split(attribute.getName());
+            // unprefixed attributes have no namespace
+            String uri = attributeName[0].isEmpty() ? null : resolve(parent, declarations, attributeName[0]);
+            if (uri == null) {
+                element.setAttribute(attributeName[1], attribute.getValue());
+            } else {
+                element.setAttributeNS(uri, attributeName[0] + ":" + attributeName[1], attribute.getValue());
+            }
+        }
+        return element;
+    }
+
+    private static Element createElementNS(Document document, String uri, String[] name) {
+        if (uri == null) {
+            // undeclared prefix, the element is kept without namespace
+            return document.createElementNS(null, name[1]);
+        }
+        return document.createElementNS(uri, name[0].isEmpty() ? name[1] : name[0] + ":" + name[1]);
+    }
+
+    /**
+     * Resolves the namespace URI of a normalized prefix.
+     *
+     * @param parent       the parent node, whose declarations are in scope
+     * @param declarations the declarations of the current element
+     * @param prefix       the prefix, empty for the default namespace
+     * @return the namespace URI, null if the prefix is not declared
+     */
+    private static String resolve(Node parent, Map<String, String> declarations, String prefix) {
+        String uri = declarations.get(prefix);
+        if (uri == null && parent instanceof Element) {
+            uri = parent.lookupNamespaceURI(prefix.isEmpty() ? null : prefix);
+        }
+        return uri == null || uri.isEmpty() ? null : uri;
+    }
+
+    /**
+     * Splits a name read without namespace awareness into its normalized prefix and local part.
+     *
+     * @param name the name
+     * @return the prefix, empty if none, and the local part
+     */
+    private static String[] split(QName name) {
+        String qualifiedName = name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart();
+        int colon = qualifiedName.indexOf(':');
+        String prefix = colon < 0 ? "" : qualifiedName.substring(0, colon);
+        String localPart = qualifiedName.substring(colon + 1);
+        if ("SvgParameter".equals(localPart)) {
+            localPart = "CssParameter";
+        }
+        return new String[]{normalize(prefix), localPart};
+    }
+
+    /**
+     * Normalizes a prefix or a namespace URI.
+     *
+     * @param value the prefix or namespace URI
+     * @return the normalized value
+     */
+    static String normalize(String value) {
+        return value.contains("sld") ? value.replace("sld", "se") : value;
+    }
+
+    private static final class Factories {
+        private final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+        private final DocumentBuilder documentBuilder;
+
+        private Factories() {
+            // the namespaces are resolved once the prefixes are normalized
+            inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            // SLD documents do not need DTDs, and external entities must not be resolved
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+            builderFactory.setNamespaceAware(true);
+            try {
+                documentBuilder = builderFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
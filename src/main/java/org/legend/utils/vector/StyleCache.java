@@ -0,0 +1,169 @@
+package org.legend.utils.vector;
+
+import org.geotools.api.style.Style;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed styles keyed by the path of the style file.
+ *
+ * <p>An entry is valid as long as the last modified time and the size of the file are unchanged,
+ * a modified file is parsed again on the next call. Every caller gets its own copy of the cached
+ * style, so the legend builders can rescale symbolizers without altering the cache. Beyond
+ * {@link #getMaxStyles()} files, the least recently used style is evicted.
+ */
+public class StyleCache {
+
+    /**
+     * Parses a style file.
+     */
+    @FunctionalInterface
+    public interface StyleLoader {
+        Style load(Path path) throws IOException;
+    }
+
+    /**
+     * Default maximum number of cached styles.
+     */
+    public static final int DEFAULT_MAX_STYLES = 256;
+
+    private final int maxStyles;
+
+    private final ConcurrentMap<Path, Entry> styles = new ConcurrentHashMap<>();
+
+    /**
+     * Orders the uses of the entries, for the eviction of the least recently used one
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Creates a cache of at most {@link #DEFAULT_MAX_STYLES} styles.
+     */
+    public StyleCache() {
+        this(DEFAULT_MAX_STYLES);
+    }
+
+    /**
+     * Creates a cache of at most maxStyles styles.
+     *
+     * @param maxStyles the maximum number of cached styles
+     */
+    public StyleCache(int maxStyles) {
+        if (maxStyles <= 0) {
+            throw new IllegalArgumentException("maxStyles must be positive: " + maxStyles);
+        }
+        this.maxStyles = maxStyles;
+    }
+
+    /**
+     * Returns a copy of the style parsed from the given file, parsing it if it is not cached or if
+     * it changed since it was cached.
+     *
+     * @param path   the style file
+     * @param loader parses the file on a cache miss
+     * @return a copy of the style, owned by the caller
+     */
+    public Style get(Path path, StyleLoader loader) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        // stat the file before parsing it: a change made during the parse is seen on the next call
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        Entry entry = styles.get(key);
+        if (entry == null || !entry.matches(attributes)) {
+            entry = new Entry(attributes, loader.load(key));
+            entry.lastUsed = clock.incrementAndGet();
+            styles.put(key, entry);
+            evict();
+        } else {
+            entry.lastUsed = clock.incrementAndGet();
+        }
+        Style copy = copy(entry.style);
+        // the copies have the content of the parsed style, its digest is computed once for all of them
+        StyleDigests.share(entry.style, copy);
+        return copy;
+    }
+
+    /**
+     * Removes a style from the cache.
+     *
+     * @param path the style file
+     */
+    public void invalidate(Path path) {
+        styles.remove(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Removes all the styles from the cache.
+     */
+    public void clear() {
+        styles.clear();
+    }
+
+    /**
+     * @return the maximum number of cached styles
+     */
+    public int getMaxStyles() {
+        return maxStyles;
+    }
+
+    /**
+     * @return the number of cached styles
+     */
+    public int size() {
+        return styles.size();
+    }
+
+    /**
+     * Removes the least recently used styles while the cache holds more than maxStyles. The scan
+     * only happens when a style is added beyond the limit.
+     */
+    private void evict() {
+        while (styles.size() > maxStyles) {
+            Map.Entry<Path, Entry> eldest = null;
+            for (Map.Entry<Path, Entry> candidate : styles.entrySet()) {
+                if (eldest == null || candidate.getValue().lastUsed < eldest.getValue().lastUsed) {
+                    eldest = candidate;
+                }
+            }
+            if (eldest == null || !styles.remove(eldest.getKey(), eldest.getValue())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Makes a deep copy of a style.
+     *
+     * @param style the style
+     * @return the copy
+     */
+    public static Style copy(Style style) {
+        DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+        style.accept(duplicator);
+        return (Style) duplicator.getCopy();
+    }
+
+    private static final class Entry {
+        private final long lastModified;
+        private final long size;
+        private final Style style;
+        private volatile long lastUsed;
+
+        private Entry(BasicFileAttributes attributes, Style style) {
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+            this.style = style;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return lastModified == attributes.lastModifiedTime().toMillis() && size == attributes.size();
+        }
+    }
+}
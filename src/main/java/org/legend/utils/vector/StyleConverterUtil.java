@@ -2,30 +2,35 @@ package org.legend.utils.vector;
 
 import org.geotools.api.style.*;
 import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.mbstyle.MapBoxStyle;
+import org.geotools.styling.DefaultResourceLocator;
 import org.geotools.xml.styling.SLDParser;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+import org.legend.utils.metrics.StyleParseEvent;
 
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 public class StyleConverterUtil {
-    public static Style convertMapboxStyleString2Style(String stylePath) {
+    /**
+     * Converter of the MapBox styles used by {@link #convertMapboxStyleString2Style(String, String...)}
+     */
+    private static final MapboxStyleConverter MAPBOX_STYLE_CONVERTER = new MapboxStyleConverter();
+
+    /**
+     * Extract the style of some layers from a MapBox style file. The file is parsed once and every
+     * layer is transformed once until the file changes, every call returns its own copy of the style.
+     *
+     * @param stylePath the MapBox style file path
+     * @param layerIds  the IDs or the source layers of the layers to convert, all the visible layers
+     *                  if none is given
+     * @return the style, null if it could not be converted
+     */
+    public static Style convertMapboxStyleString2Style(String stylePath, String... layerIds) {
         try {
-            InputStream stream = new FileInputStream(stylePath);
-            StyledLayerDescriptor sld = MapBoxStyle.parse(stream);
-            List<StyledLayer> layers = sld.layers();
-            NamedLayer layer = null;
-            for (int i = 0; i < layers.size(); i++) {
-                layer = (NamedLayer) layers.get(i);
-            }
-            Style style = layer.getStyles()[0];
-            stream.close();
-            return style;
+            return MAPBOX_STYLE_CONVERTER.getStyle(Paths.get(stylePath), layerIds);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -33,32 +38,90 @@ public class StyleConverterUtil {
     }
 
     /**
-     * Extract the style from sld file.
+     * @return the converter of the MapBox style files
+     */
+    public static MapboxStyleConverter getMapboxStyleConverter() {
+        return MAPBOX_STYLE_CONVERTER;
+    }
+
+    /**
+     * Cache of the styles parsed by {@link #getSldStyle(String)}
+     */
+    private static final StyleCache SLD_STYLE_CACHE = new StyleCache();
+
+    /**
+     * Extract the style from sld file. The parsed style is cached until the file changes, every
+     * call returns its own copy of it.
      *
      * @param sldFilePath the sld file path
      * @return the style
      */
     public static Style getSldStyle(String sldFilePath) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return SLD_STYLE_CACHE.get(Paths.get(sldFilePath), StyleConverterUtil::parseSldStyle);
+        } finally {
+            LegendMetricsRegistry.getMetrics().recordSince(LegendMetrics.Stage.STYLE_LOAD, start);
+        }
+    }
+
+    /**
+     * @return the cache of the styles parsed from sld files
+     */
+    public static StyleCache getSldStyleCache() {
+        return SLD_STYLE_CACHE;
+    }
+
+    /**
+     * Parses the style of a sld file. The document is normalized in memory by {@link SldNormalizer},
+     * the file is only read.
+     *
+     * @param path the sld file path
+     * @return the style
+     */
+    private static Style parseSldStyle(Path path) throws IOException {
+        final StyleParseEvent event = new StyleParseEvent();
+        event.start();
         StyleFactory styleFactory3 = CommonFactoryFinder.getStyleFactory();
         FeatureTypeStyle featureTypeStyle3 = styleFactory3.createFeatureTypeStyle();
 
-        Path path = Paths.get(sldFilePath);
-        Charset charset = StandardCharsets.UTF_8;
-        String content = new String(Files.readAllBytes(path), charset);
-        content = content.replaceAll("SvgParameter", "CssParameter");
-        content = content.replaceAll("sld", "se");
-        Files.write(path, content.getBytes(charset));
-
-        SLDParser styleReader = null;
-        try {
-            styleReader = new SLDParser(styleFactory3, new File(sldFilePath));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        SLDParser styleReader = new SLDParser(styleFactory3);
+        // relative online resources are resolved against the sld file
+        DefaultResourceLocator resourceLocator = new DefaultResourceLocator();
+        resourceLocator.setSourceUrl(path.toUri().toURL());
+        styleReader.setOnLineResourceLocator(resourceLocator);
+        Style[] styles;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            styles = styleReader.readDOM(SldNormalizer.normalize(in));
         }
-        assert styleReader != null;
-        Style sld = styleReader.readXML()[0];
+        if (styles.length == 0) {
+            throw new IOException("No style found in " + path);
+        }
+        Style sld = styles[0];
 
         sld.featureTypeStyles().add(featureTypeStyle3);
+        finishParseEvent(event, sld, path.toString(), "SLD");
         return sld;
     }
+
+    /**
+     * Commits the event of a parsed style.
+     *
+     * @param event  the event started before the parsing
+     * @param style  the parsed style, null if it could not be parsed
+     * @param path   the path of the style file
+     * @param format the format of the style file
+     */
+    private static void finishParseEvent(StyleParseEvent event, Style style, String path, String format) {
+        if (!event.isEnabled()) {
+            return;
+        }
+        int ruleCount = 0;
+        if (style != null) {
+            for (FeatureTypeStyle featureTypeStyle : style.featureTypeStyles()) {
+                ruleCount += featureTypeStyle.rules().size();
+            }
+        }
+        event.finish(style != null ? style.getName() : null, path, format, ruleCount);
+    }
 }
@@ -0,0 +1,227 @@
+package org.legend.utils.vector;
+
+import org.geotools.api.style.Style;
+import org.geotools.xml.styling.SLDTransformer;
+
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Content digests of styles, memoized per style instance.
+ *
+ * <p>The digest is the SHA-256 of the SLD encoding of the style, which is as costly as parsing it.
+ * It is computed once per style instance and kept as long as the style is reachable. The memoized
+ * digest is checked against the hash code of the style, which GeoTools computes from its content,
+ * so a style modified in place gets a new digest. The digests of the former contents of a style are
+ * remembered, up to {@link #MAX_FORMER_DIGESTS}, so what was cached with them can be released. The
+ * copies handed out by {@link StyleCache} and {@link MapboxStyleConverter} share the digest of the
+ * style they are copied from, so serving the same style file again does not encode it again.
+ */
+public final class StyleDigests {
+
+    /**
+     * Maximum number of former digests remembered per style instance
+     */
+    public static final int MAX_FORMER_DIGESTS = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ConcurrentMap<StyleKey, Entry> DIGESTS = new ConcurrentHashMap<>();
+
+    private static final ReferenceQueue<Style> COLLECTED = new ReferenceQueue<>();
+
+    private StyleDigests() {
+    }
+
+    /**
+     * Returns the digest of the content of a style, encoding the style only if its digest is not
+     * known yet or if the style changed since.
+     *
+     * @param style the style
+     * @return the SHA-256 digest of the SLD encoding of the style, as an hexadecimal string
+     */
+    public static String get(Style style) throws IOException {
+        expungeCollected();
+        return getEntry(style).digest.get(style);
+    }
+
+    /**
+     * Returns the digests a style instance had before it was modified in place, the ones computed
+     * while it had these contents. The digest of its current content is not part of them.
+     *
+     * @param style the style
+     * @return the former digests, the most recent last
+     */
+    public static List<String> getFormer(Style style) throws IOException {
+        String current = get(style);
+        Entry entry = DIGESTS.get(new StyleKey(style, null));
+        List<String> former = new ArrayList<>();
+        if (entry != null) {
+            for (Digest digest : entry.former) {
+                String value = digest.value;
+                if (value != null && !value.equals(current) && !former.contains(value)) {
+                    former.add(value);
+                }
+            }
+        }
+        return former;
+    }
+
+    /**
+     * Lets a copy of a style share the digest of the original, the digest being computed once for
+     * all of them. The copy must have the content of the original.
+     *
+     * @param original the style the copy is made from
+     * @param copy     the copy
+     */
+    public static void share(Style original, Style copy) {
+        expungeCollected();
+        Entry entry = getEntry(original);
+        DIGESTS.put(new StyleKey(copy, COLLECTED), new Entry(copy.hashCode(), entry.digest, List.of()));
+    }
+
+    /**
+     * @return the number of styles with a memoized digest
+     */
+    public static int size() {
+        expungeCollected();
+        return DIGESTS.size();
+    }
+
+    /**
+     * Returns the entry of a style, replacing it when the style changed since. The digest of the
+     * replaced entry joins the former digests of the style.
+     */
+    private static Entry getEntry(Style style) {
+        int contentHash = style.hashCode();
+        Entry entry = DIGESTS.get(new StyleKey(style, null));
+        if (entry == null || entry.contentHash != contentHash) {
+            List<Digest> former = new ArrayList<>();
+            if (entry != null) {
+                former.addAll(entry.former);
+                former.add(entry.digest);
+                if (former.size() > MAX_FORMER_DIGESTS) {
+                    former.remove(0);
+                }
+            }
+            entry = new Entry(contentHash, new Digest(), former);
+            DIGESTS.put(new StyleKey(style, COLLECTED), entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Encodes a style as SLD into a digest.
+     *
+     * @param style the style
+     * @return the SHA-256 digest, as an hexadecimal string
+     */
+    private static String compute(Style style) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        // stream the SLD straight into the digest, the document is never held in memory
+        try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            SLDTransformer transformer = new SLDTransformer();
+            transformer.setEncoding(StandardCharsets.UTF_8);
+            transformer.transform(style, out);
+        } catch (TransformerException e) {
+            throw new IOException("Could not encode the style " + style.getName(), e);
+        }
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static void expungeCollected() {
+        Object key;
+        while ((key = COLLECTED.poll()) != null) {
+            DIGESTS.remove(key);
+        }
+    }
+
+    /**
+     * The digest of a style instance, valid as long as the hash code of the style is unchanged, and
+     * the digests of its former contents.
+     */
+    private static final class Entry {
+        private final int contentHash;
+        private final Digest digest;
+        private final List<Digest> former;
+
+        private Entry(int contentHash, Digest digest, List<Digest> former) {
+            this.contentHash = contentHash;
+            this.digest = digest;
+            this.former = former;
+        }
+    }
+
+    /**
+     * The digest of a style content, computed on first use and shared by the copies of a style.
+     */
+    private static final class Digest {
+        private volatile String value;
+
+        private String get(Style style) throws IOException {
+            String digest = value;
+            if (digest == null) {
+                synchronized (this) {
+                    digest = value;
+                    if (digest == null) {
+                        digest = compute(style);
+                        value = digest;
+                    }
+                }
+            }
+            return digest;
+        }
+    }
+
+    /**
+     * A weak key comparing the styles by identity: StyleImpl compares by content, and the content
+     * of a style may change.
+     */
+    private static final class StyleKey extends WeakReference<Style> {
+        private final int hash;
+
+        private StyleKey(Style style, ReferenceQueue<Style> queue) {
+            super(style, queue);
+            this.hash = System.identityHashCode(style);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StyleKey)) {
+                return false;
+            }
+            Style style = get();
+            return style != null && style == ((StyleKey) o).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
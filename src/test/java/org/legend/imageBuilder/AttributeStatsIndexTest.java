@@ -0,0 +1,91 @@
+package org.legend.imageBuilder;
+
+import org.geotools.api.filter.FilterFactory;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.legend.utils.legend.RulePresenceIndex;
+import org.legend.utils.vector.AttributeStatsIndex;
+import org.legend.utils.vector.AttributeStatsIndex.Presence;
+import org.legend.utils.vector.DataStoreRegistry;
+import org.legend.utils.vector.FeatureSourceType;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class AttributeStatsIndexTest {
+
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFiltersAreAnsweredFromTheStatistics() throws Exception {
+        File shp = copyShapefile();
+        try (DataStoreRegistry registry = new DataStoreRegistry(1, Duration.ofMinutes(1));
+             DataStoreRegistry.Lease lease = registry.acquire(shp, FeatureSourceType.SHP)) {
+            AttributeStatsIndex index = AttributeStatsIndex.get(lease.getFeatureSource());
+            assertNotNull(index);
+            assertTrue(new File(shp.getParentFile(), "landcover2000.stats.json").isFile());
+            assertEquals(1234, index.getFeatureCount());
+
+            assertEquals(Presence.PRESENT, index.evaluate(FF.equals(FF.property("type"), FF.literal("corn"))));
+            assertEquals(Presence.ABSENT, index.evaluate(FF.equals(FF.property("type"), FF.literal("rice"))));
+            assertEquals(Presence.ABSENT, index.evaluate(FF.equals(FF.property("runoff_win"), FF.literal(0.3))));
+            assertEquals(Presence.PRESENT, index.evaluate(FF.greater(FF.property("gid"), FF.literal(1000))));
+            assertEquals(Presence.ABSENT, index.evaluate(FF.greater(FF.property("gid"), FF.literal(2000))));
+            assertEquals(Presence.ABSENT, index.evaluate(FF.and(
+                    FF.equals(FF.property("type"), FF.literal("corn")),
+                    FF.less(FF.property("gid"), FF.literal(0)))));
+            // gid has too many values to keep them all, a range inside [min, max] may have no feature
+            assertEquals(Presence.UNKNOWN, index.evaluate(FF.between(FF.property("gid"), FF.literal(10), FF.literal(20))));
+        }
+    }
+
+    @Test
+    public void testIndexIsReadBackAndRebuiltWhenTheDataChanges() throws Exception {
+        File shp = copyShapefile();
+        try (DataStoreRegistry registry = new DataStoreRegistry(1, Duration.ofMinutes(1));
+             DataStoreRegistry.Lease lease = registry.acquire(shp, FeatureSourceType.SHP)) {
+            AttributeStatsIndex first = AttributeStatsIndex.get(lease.getFeatureSource());
+            assertSame(first, AttributeStatsIndex.get(lease.getFeatureSource()));
+
+            Files.setLastModifiedTime(shp.toPath(), FileTime.fromMillis(shp.lastModified() + 10_000));
+            AttributeStatsIndex second = AttributeStatsIndex.get(lease.getFeatureSource());
+            assertNotSame(first, second);
+            assertEquals(first.getDistinctValues("type"), second.getDistinctValues("type"));
+        }
+    }
+
+    @Test
+    public void testIndexIsRebuiltWhenOnlyTheAttributesChange() throws Exception {
+        File shp = copyShapefile();
+        File dbf = new File(shp.getParentFile(), "landcover2000.dbf");
+        try (DataStoreRegistry registry = new DataStoreRegistry(1, Duration.ofMinutes(1));
+             DataStoreRegistry.Lease lease = registry.acquire(shp, FeatureSourceType.SHP)) {
+            AttributeStatsIndex first = AttributeStatsIndex.get(lease.getFeatureSource());
+            String sourceId = RulePresenceIndex.getSourceId(lease.getFeatureSource());
+
+            // editing the attributes rewrites the .dbf alone
+            Files.setLastModifiedTime(dbf.toPath(), FileTime.fromMillis(dbf.lastModified() + 10_000));
+            assertNotSame(first, AttributeStatsIndex.get(lease.getFeatureSource()));
+            assertNotEquals(sourceId, RulePresenceIndex.getSourceId(lease.getFeatureSource()));
+        }
+    }
+
+    private File copyShapefile() throws Exception {
+        File directory = folder.newFolder();
+        for (String extension : new String[]{"shp", "shx", "dbf", "prj"}) {
+            Files.copy(Paths.get("data/shp/landcover2000/landcover2000." + extension),
+                    new File(directory, "landcover2000." + extension).toPath());
+        }
+        return new File(directory, "landcover2000.shp");
+    }
+}
@@ -0,0 +1,63 @@
+package org.legend.imageBuilder;
+
+import org.junit.Test;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BlankDetector;
+import org.legend.utils.legend.LegendMerger;
+import org.legend.utils.legend.LegendUtils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class BlankDetectorTest {
+
+    private static final int[] TYPES = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_USHORT_565_RGB};
+
+    @Test
+    public void testContentIsFound() {
+        for (int type : TYPES) {
+            BufferedImage image = filled(type, 30, 20, Color.WHITE);
+            int white = Color.WHITE.getRGB();
+            assertTrue(BlankDetector.isUniform(image, white));
+            assertNull(BlankDetector.getContentBounds(image, white));
+
+            image.setRGB(4, 7, Color.RED.getRGB());
+            image.setRGB(21, 12, Color.BLUE.getRGB());
+            assertFalse(BlankDetector.isUniform(image, white));
+            assertEquals(new Rectangle(4, 7, 18, 6), BlankDetector.getContentBounds(image, white));
+            // a sub image shares the data buffer of its parent with an offset
+            assertEquals(new Rectangle(0, 0, 1, 1), BlankDetector.getContentBounds(image.getSubimage(4, 7, 10, 5), white));
+            assertTrue(BlankDetector.isUniform(image.getSubimage(5, 0, 10, 5), white));
+        }
+    }
+
+    @Test
+    public void testTransparentPixelsDifferFromAnOpaqueBackground() {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_4BYTE_ABGR);
+        assertFalse(BlankDetector.isUniform(image, Color.WHITE.getRGB()));
+        assertTrue(BlankDetector.isUniform(image, 0));
+        // an opaque image never matches a translucent color
+        assertFalse(BlankDetector.isUniform(new BufferedImage(10, 10, BufferedImage.TYPE_3BYTE_BGR), 0));
+    }
+
+    @Test
+    public void testCheckColor() {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(20, 20, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage node = filled(BufferedImage.TYPE_3BYTE_BGR, 40, 20, Color.WHITE);
+        assertFalse(LegendMerger.checkColor(node, options));
+        node.setRGB(39, 19, Color.BLACK.getRGB());
+        assertTrue(LegendMerger.checkColor(node, options));
+    }
+
+    private static BufferedImage filled(int type, int width, int height, Color color) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,216 @@
+package org.legend.imageBuilder;
+
+import org.geotools.api.data.SimpleFeatureSource;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.style.FeatureTypeStyle;
+import org.geotools.api.style.Rule;
+import org.geotools.api.style.Style;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.map.FeatureLayer;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a single {@link BufferedImageLegendGraphicBuilder} instance can serve concurrent
+ * requests and produces the same pixels as when it is used by a single thread.
+ */
+public class ConcurrentLegendGraphicBuilderTest {
+
+    private static final int THREADS = 32;
+
+    private static final int ITERATIONS = 20;
+
+    @Test
+    public void testConcurrentRequestsProduceIdenticalPixels() throws Exception {
+        final BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
+        final List<FeatureLayer> layers = buildLayers();
+        final LegendOptions small = buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        final LegendOptions large = buildOptions(48, 40, LegendUtils.LegendLayout.HORIZONTAL);
+
+        final BufferedImage expectedSmall = builder.buildLegendGraphic(layers, small);
+        final BufferedImage expectedLarge = builder.buildLegendGraphic(layers, large);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        // interleave both kinds of requests so that any state leaking between
+                        // requests shows up as a size or pixel mismatch
+                        if ((i + offset) % 2 == 0) {
+                            assertSamePixels(expectedSmall, builder.buildLegendGraphic(layers, small));
+                        } else {
+                            assertSamePixels(expectedLarge, builder.buildLegendGraphic(layers, large));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get(5, TimeUnit.MINUTES);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof AssertionError) {
+                        throw (AssertionError) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelLayersMatchSequential() throws Exception {
+        final BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
+        final List<FeatureLayer> layers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            layers.addAll(buildLayers());
+        }
+        for (LegendUtils.LegendLayout layout : LegendUtils.LegendLayout.values()) {
+            LegendOptions legendOptions = buildOptions(32, 32, layout);
+            BufferedImage expected = builder.buildLegendGraphic(layers, legendOptions);
+
+            ForkJoinPool forkJoinPool = new ForkJoinPool(8);
+            try {
+                assertSamePixels(expected, builder.buildLegendGraphic(layers, legendOptions, forkJoinPool));
+            } finally {
+                forkJoinPool.shutdownNow();
+            }
+            try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                assertSamePixels(expected, builder.buildLegendGraphic(layers, legendOptions, virtualThreads));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelRulesMatchSequential() throws Exception {
+        final List<FeatureLayer> layers = new ArrayList<>();
+        layers.add(buildLandCoverLayer(200));
+        final LegendOptions legendOptions = buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage expected = new BufferedImageLegendGraphicBuilder().buildLegendGraphic(layers, legendOptions);
+
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().parallelRuleThreshold(32).build());
+        ForkJoinPool forkJoinPool = new ForkJoinPool(8);
+        try {
+            assertSamePixels(expected, builder.buildLegendGraphic(layers, legendOptions, forkJoinPool));
+        } finally {
+            forkJoinPool.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testParallelRulesOnBoundedPool() throws Exception {
+        final List<FeatureLayer> layers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            layers.add(buildLandCoverLayer(200));
+        }
+        final LegendOptions legendOptions = buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage expected = new BufferedImageLegendGraphicBuilder().buildLegendGraphic(layers, legendOptions);
+
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().parallelRuleThreshold(32).build());
+        // every worker runs a layer task, the chunks of the layers stay queued
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertSamePixels(expected, builder.buildLegendGraphic(layers, legendOptions, executor));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static FeatureLayer buildLandCoverLayer(int ruleCount) throws Exception {
+        SimpleFeatureType polygonType = DataUtilities.createType("landcover", "the_geom:Polygon,type:String");
+        StyleBuilder sb = new StyleBuilder();
+        Rule[] rules = new Rule[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            Color color = Color.getHSBColor(i / (float) ruleCount, 0.8f, 0.9f);
+            rules[i] = sb.createRule(sb.createPolygonSymbolizer(color, Color.DARK_GRAY, 1));
+            rules[i].setName("Land cover class " + i);
+        }
+        FeatureLayer layer = new FeatureLayer(DataUtilities.source(new ListFeatureCollection(polygonType)),
+                buildStyle(sb, "landcover", rules));
+        layer.setTitle("Land cover");
+        return layer;
+    }
+
+    static List<FeatureLayer> buildLayers() throws Exception {
+        SimpleFeatureType polygonType = DataUtilities.createType("landcover", "the_geom:Polygon,type:String");
+        SimpleFeatureType lineType = DataUtilities.createType("hedgerow", "the_geom:LineString,type:String");
+        SimpleFeatureSource polygons = DataUtilities.source(new ListFeatureCollection(polygonType));
+        SimpleFeatureSource lines = DataUtilities.source(new ListFeatureCollection(lineType));
+
+        StyleBuilder sb = new StyleBuilder();
+        Color[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.ORANGE, Color.MAGENTA, Color.CYAN};
+        Rule[] polygonRules = new Rule[colors.length];
+        Rule[] lineRules = new Rule[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            polygonRules[i] = sb.createRule(sb.createPolygonSymbolizer(colors[i], Color.BLACK, 1));
+            polygonRules[i].setName("Land cover " + i);
+            lineRules[i] = sb.createRule(sb.createLineSymbolizer(colors[i], i + 1));
+            lineRules[i].setName("Hedgerow " + i);
+        }
+
+        List<FeatureLayer> layers = new ArrayList<>();
+        FeatureLayer polygonLayer = new FeatureLayer(polygons, buildStyle(sb, "landcover", polygonRules));
+        polygonLayer.setTitle("Land cover");
+        layers.add(polygonLayer);
+        FeatureLayer lineLayer = new FeatureLayer(lines, buildStyle(sb, "hedgerow", lineRules));
+        lineLayer.setTitle("Hedgerows");
+        layers.add(lineLayer);
+        return layers;
+    }
+
+    static LegendOptions buildOptions(int width, int height, LegendUtils.LegendLayout layout) {
+        return LegendOptions.builder()
+                .width(width)
+                .height(height)
+                .transparent(false)
+                .bgColor("#FFFFFF")
+                .layout(layout)
+                .fontName("Sans-Serif")
+                .fontStyle("bold")
+                .fontColor("#000000")
+                .fontSize(12)
+                .titleOffsetX(0)
+                .labelOffsetX(5)
+                .ruleOffsetY(2)
+                .build();
+    }
+
+    static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+
+    private static Style buildStyle(StyleBuilder sb, String typeName, Rule[] rules) {
+        FeatureTypeStyle featureTypeStyle = sb.createFeatureTypeStyle(typeName, Arrays.copyOf(rules, rules.length));
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(featureTypeStyle);
+        return style;
+    }
+}
@@ -0,0 +1,151 @@
+package org.legend.imageBuilder;
+
+import org.geotools.api.data.DataStore;
+import org.geotools.api.data.Query;
+import org.junit.Test;
+import org.legend.utils.legend.LeasedFeatureLayer;
+import org.legend.utils.vector.DataStoreRegistry;
+import org.legend.utils.vector.FeatureSourceType;
+import org.legend.utils.vector.StyleConverterUtil;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DataStoreRegistryTest {
+
+    private static final File LANDCOVER = new File("data/shp/landcover2000/landcover2000.shp");
+
+    private static final File HEDGEROW = new File("data/shp/hedgerow/hedgerow.shp");
+
+    @Test
+    public void testStoreIsShared() throws Exception {
+        try (DataStoreRegistry registry = new DataStoreRegistry(4, Duration.ofMinutes(1))) {
+            DataStore first;
+            try (DataStoreRegistry.Lease lease = registry.acquire(LANDCOVER, FeatureSourceType.SHP)) {
+                first = lease.getDataStore();
+                assertTrue(lease.getFeatureSource().getCount(Query.ALL) > 0);
+                try (DataStoreRegistry.Lease other = registry.acquire(new File("data/shp/../shp/landcover2000/landcover2000.shp"), FeatureSourceType.SHP)) {
+                    assertSame(first, other.getDataStore());
+                }
+            }
+            // released stores stay open until they time out
+            try (DataStoreRegistry.Lease lease = registry.acquire(LANDCOVER, FeatureSourceType.SHP)) {
+                assertSame(first, lease.getDataStore());
+            }
+            assertEquals(1, registry.size());
+        }
+    }
+
+    @Test
+    public void testIdleStoreIsDisposed() throws Exception {
+        try (DataStoreRegistry registry = new DataStoreRegistry(4, Duration.ofMillis(50))) {
+            DataStoreRegistry.Lease lease = registry.acquire(LANDCOVER, FeatureSourceType.SHP);
+            Thread.sleep(100);
+            registry.evictIdle();
+            // a leased store is never disposed
+            assertEquals(1, registry.size());
+
+            lease.close();
+            Thread.sleep(100);
+            registry.evictIdle();
+            assertEquals(0, registry.size());
+        }
+    }
+
+    @Test
+    public void testMaxOpenStores() throws Exception {
+        try (DataStoreRegistry registry = new DataStoreRegistry(1, Duration.ofMinutes(1))) {
+            registry.acquire(LANDCOVER, FeatureSourceType.SHP).close();
+            assertEquals(1, registry.size());
+            // the idle store is disposed to open a new one
+            try (DataStoreRegistry.Lease lease = registry.acquire(HEDGEROW, FeatureSourceType.SHP)) {
+                assertEquals(1, registry.size());
+                // the limit is exceeded rather than disposing a leased store
+                try (DataStoreRegistry.Lease other = registry.acquire(LANDCOVER, FeatureSourceType.SHP)) {
+                    assertEquals(2, registry.size());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCallersShareTheOpenedStore() throws Exception {
+        try (DataStoreRegistry registry = new DataStoreRegistry(4, Duration.ofMinutes(1))) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<DataStoreRegistry.Lease>> leases = new ArrayList<>();
+            try {
+                for (int i = 0; i < 16; i++) {
+                    leases.add(executor.submit(() -> registry.acquire(LANDCOVER, FeatureSourceType.SHP)));
+                }
+                DataStore first = leases.get(0).get().getDataStore();
+                for (Future<DataStoreRegistry.Lease> lease : leases) {
+                    assertSame(first, lease.get().getDataStore());
+                    lease.get().close();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            assertEquals(1, registry.size());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedOpenIsNotWaitedFor() throws Exception {
+        AtomicInteger opens = new AtomicInteger();
+        try (DataStoreRegistry registry = new DataStoreRegistry(4, Duration.ofMinutes(1)) {
+            @Override
+            protected DataStore open(File file, FeatureSourceType type) {
+                opens.incrementAndGet();
+                throw new NoClassDefFoundError("driver");
+            }
+        }) {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    registry.acquire(LANDCOVER, FeatureSourceType.SHP);
+                    fail();
+                } catch (NoClassDefFoundError e) {
+                    // the entry of the failed store is removed, the next caller opens it again
+                }
+            }
+            assertEquals(2, opens.get());
+            assertEquals(0, registry.size());
+        }
+    }
+
+    @Test
+    public void testPinnedStoreIsLeasedOnce() throws Exception {
+        try (DataStoreRegistry registry = new DataStoreRegistry(1, Duration.ZERO)) {
+            DataStoreRegistry.Lease lease = registry.pin(LANDCOVER, FeatureSourceType.SHP);
+            assertSame(lease, registry.pin(new File("data/shp/../shp/landcover2000/landcover2000.shp"), FeatureSourceType.SHP));
+            registry.acquire(LANDCOVER, FeatureSourceType.SHP).close();
+            registry.evictIdle();
+            // a pinned store stays open until the registry is closed
+            assertEquals(1, registry.size());
+            assertTrue(lease.getFeatureSource().getCount(Query.ALL) > 0);
+        }
+    }
+
+    @Test
+    public void testLayerOwnsItsLease() throws Exception {
+        try (DataStoreRegistry registry = new DataStoreRegistry(4, Duration.ZERO)) {
+            LeasedFeatureLayer layer = new LeasedFeatureLayer(registry.acquire(LANDCOVER, FeatureSourceType.SHP),
+                    StyleConverterUtil.getSldStyle("data/sld/rsu_lcz_primary.sld"));
+            registry.evictIdle();
+            // the store of a layer in use is never disposed
+            assertEquals(1, registry.size());
+            assertTrue(layer.getFeatureSource().getCount(Query.ALL) > 0);
+
+            layer.dispose();
+            registry.evictIdle();
+            assertEquals(0, registry.size());
+        }
+    }
+}
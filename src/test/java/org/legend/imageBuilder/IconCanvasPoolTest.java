@@ -0,0 +1,92 @@
+package org.legend.imageBuilder;
+
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.IconCanvasPool;
+import org.legend.utils.legend.LegendUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class IconCanvasPoolTest {
+
+    @Test
+    public void testCanvasesAreReusedBetweenRequests() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage expected = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().iconCanvasPool(null).build()).buildLegendGraphic(layers, options);
+
+        IconCanvasPool pool = new IconCanvasPool(64);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().iconCanvasPool(pool).build());
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, options));
+        assertEquals(12, pool.getAllocationCount());
+        assertEquals(12, pool.size());
+
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, options));
+        assertEquals(12, pool.getAllocationCount());
+        assertEquals(12, pool.getReuseCount());
+    }
+
+    @Test
+    public void testCanvasesPaintedByWorkersAreReused() throws Exception {
+        List<FeatureLayer> layers = new ArrayList<>();
+        layers.add(ConcurrentLegendGraphicBuilderTest.buildLandCoverLayer(200));
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        IconCanvasPool pool = new IconCanvasPool(IconCanvasPool.DEFAULT_MAX_CANVASES);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().parallelRuleThreshold(32).iconCanvasPool(pool).build());
+
+        // the icons are painted by virtual threads which never run twice, and released by the caller
+        try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            BufferedImage expected = builder.buildLegendGraphic(layers, options, virtualThreads);
+            long allocations = pool.getAllocationCount();
+            assertEquals(allocations, pool.size());
+
+            ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, options, virtualThreads));
+            assertTrue(pool.getReuseCount() > 0);
+            assertEquals(allocations, pool.getReuseCount());
+            assertEquals(allocations, pool.getAllocationCount());
+        }
+    }
+
+    @Test
+    public void testReturnedLegendDoesNotShareThePooledCanvases() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().iconCanvasPool(new IconCanvasPool(64)).build());
+
+        BufferedImage first = builder.buildLegendGraphic(layers, options);
+        int[] pixels = first.getRGB(0, 0, first.getWidth(), first.getHeight(), null, 0, first.getWidth());
+        // the same canvases are painted again by another request
+        LegendOptions other = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.HORIZONTAL);
+        other.setBgColor("#000000");
+        builder.buildLegendGraphic(layers, other);
+        assertArrayEquals(pixels, first.getRGB(0, 0, first.getWidth(), first.getHeight(), null, 0, first.getWidth()));
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        IconCanvasPool pool = new IconCanvasPool(2);
+        for (int i = 0; i < 5; i++) {
+            pool.release(new BufferedImage(8, 8, BufferedImage.TYPE_4BYTE_ABGR));
+        }
+        assertEquals(2, pool.size());
+        BufferedImage canvas = pool.acquire(8, 8, true);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, canvas.getType());
+        assertEquals(1, pool.size());
+        // another size or type is allocated
+        assertNotSame(canvas, pool.acquire(8, 8, false));
+        assertEquals(1, pool.getAllocationCount());
+    }
+}
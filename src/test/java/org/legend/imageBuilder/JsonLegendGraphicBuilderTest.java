@@ -0,0 +1,39 @@
+package org.legend.imageBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.JsonLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonLegendGraphicBuilderTest {
+
+    @Test
+    public void testSymbolizersAreResolved() throws Exception {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        byte[] json = new JsonLegendGraphicBuilder().buildLegendJson(ConcurrentLegendGraphicBuilderTest.buildLayers(), options);
+
+        JsonNode legend = new ObjectMapper().readTree(json).get("Legend");
+        assertEquals(2, legend.size());
+
+        JsonNode landCover = legend.get(0);
+        assertEquals("landcover", landCover.get("layerName").asText());
+        assertEquals("Land cover", landCover.get("title").asText());
+        assertEquals("Polygon", landCover.get("geometryType").asText());
+        assertEquals(6, landCover.get("rules").size());
+        JsonNode polygon = landCover.get("rules").get(0).get("symbolizers").get(0).get("Polygon");
+        assertEquals("Land cover 0", landCover.get("rules").get(0).get("title").asText());
+        assertEquals("#FF0000", polygon.get("fill").asText());
+        assertEquals("#000000", polygon.get("stroke").asText());
+        assertEquals(1.0, polygon.get("stroke-width").asDouble(), 0.0);
+
+        JsonNode hedgerows = legend.get(1);
+        assertEquals("LineString", hedgerows.get("geometryType").asText());
+        JsonNode line = hedgerows.get("rules").get(2).get("symbolizers").get(0).get("Line");
+        assertEquals("#0000FF", line.get("stroke").asText());
+        assertEquals(3.0, line.get("stroke-width").asDouble(), 0.0);
+    }
+}
@@ -0,0 +1,75 @@
+package org.legend.imageBuilder;
+
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LabelRasterCache;
+import org.legend.utils.legend.LegendMerger;
+import org.legend.utils.legend.LegendUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LabelRasterCacheTest {
+
+    @Test
+    public void testMergedLegendIsUnchanged() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage expected = new BufferedImageLegendGraphicBuilder(LegendBuilderOptions.builder()
+                .singlePassLayout(false).labelRasterCache(null).build()).buildLegendGraphic(layers, options);
+
+        LabelRasterCache cache = new LabelRasterCache(LabelRasterCache.DEFAULT_MAX_BYTES);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(LegendBuilderOptions.builder()
+                .singlePassLayout(false).labelRasterCache(cache).build());
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, options));
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+        assertTrue(misses > 0);
+
+        // every label of the second request comes from the cache
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, options));
+        assertEquals(misses, cache.getMissCount());
+        assertEquals(hits + misses + hits, cache.getHitCount());
+    }
+
+    @Test
+    public void testLineBreaksShareTheirEntry() {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        LabelRasterCache cache = new LabelRasterCache(LabelRasterCache.DEFAULT_MAX_BYTES);
+        BufferedImage image = new BufferedImage(24, 24, BufferedImage.TYPE_INT_ARGB);
+
+        BufferedImage label = LegendMerger.getRenderedLabel(image, "Land\ncover", options, cache);
+        assertSame(label, LegendMerger.getRenderedLabel(image, "Land\\ncover", options, cache));
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(
+                LegendMerger.getRenderedLabel(image, "Land\ncover", options), label);
+
+        options.setFontColor("#FF0000");
+        assertNotSame(label, LegendMerger.getRenderedLabel(image, "Land\ncover", options, cache));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testCacheIsBoundedByItsBytes() {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage image = new BufferedImage(24, 24, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage label = LegendMerger.getRenderedLabel(image, "Class 0", options);
+        long labelBytes = (long) label.getWidth() * label.getHeight() * 4;
+
+        LabelRasterCache cache = new LabelRasterCache(labelBytes * 3);
+        for (int i = 0; i < 10; i++) {
+            LegendMerger.getRenderedLabel(image, "Class " + i, options, cache);
+            assertTrue(cache.getByteSize() <= cache.getMaxBytes());
+        }
+        assertEquals(3, cache.size());
+        // the most recent labels are kept
+        LegendMerger.getRenderedLabel(image, "Class 9", options, cache);
+        assertEquals(1, cache.getHitCount());
+        LegendMerger.getRenderedLabel(image, "Class 0", options, cache);
+        assertEquals(11, cache.getMissCount());
+    }
+}
@@ -0,0 +1,95 @@
+package org.legend.imageBuilder;
+
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendBatchJob;
+import org.legend.utils.legend.LegendBatchListener;
+import org.legend.utils.legend.LegendBatchReport;
+import org.legend.utils.legend.LegendUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class LegendBatchTest {
+
+    @Test
+    public void testBatchLegendsMatchSingleRequests() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
+        List<LegendBatchJob> jobs = new ArrayList<>();
+        Map<String, byte[]> expected = new ConcurrentHashMap<>();
+        for (int i = 0; i < 12; i++) {
+            LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(16 + i % 3 * 4, 16 + i % 3 * 4,
+                    i % 2 == 0 ? LegendUtils.LegendLayout.VERTICAL : LegendUtils.LegendLayout.HORIZONTAL);
+            // the jobs share the layers, their styles and their schemas
+            List<FeatureLayer> jobLayers = i % 4 == 3 ? layers.subList(0, 1) : layers;
+            jobs.add(new LegendBatchJob("legend-" + i, jobLayers, options));
+            expected.put("legend-" + i, builder.buildLegendPng(jobLayers, options));
+        }
+
+        Map<String, byte[]> legends = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        LegendBatchReport report;
+        try {
+            report = builder.buildLegendBatch(jobs, executor, (job, png) -> legends.put(job.getId(), png));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(12, report.getJobCount());
+        assertEquals(12, report.getSuccessCount());
+        assertEquals(0, report.getFailureCount());
+        assertTrue(report.getLegendsPerSecond() > 0);
+        assertEquals(expected.keySet(), legends.keySet());
+        long totalBytes = 0;
+        for (Map.Entry<String, byte[]> legend : legends.entrySet()) {
+            assertArrayEquals(legend.getKey(), expected.get(legend.getKey()), legend.getValue());
+            totalBytes += legend.getValue().length;
+        }
+        assertEquals(totalBytes, report.getTotalBytes());
+    }
+
+    @Test
+    public void testFailedJobDoesNotStopTheBatch() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        List<LegendBatchJob> jobs = List.of(
+                new LegendBatchJob("first", layers, options),
+                new LegendBatchJob("broken", layers, options),
+                new LegendBatchJob("last", layers, options));
+
+        List<String> rendered = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        LegendBatchReport report = new BufferedImageLegendGraphicBuilder().buildLegendBatch(jobs, null,
+                new LegendBatchListener() {
+                    @Override
+                    public void onLegend(LegendBatchJob job, byte[] png) throws Exception {
+                        if (job.getId().equals("broken")) {
+                            throw new IOException("disk full");
+                        }
+                        rendered.add(job.getId());
+                    }
+
+                    @Override
+                    public void onFailure(LegendBatchJob job, Exception error) {
+                        assertEquals("disk full", error.getMessage());
+                        failed.add(job.getId());
+                    }
+                });
+
+        // without executor the jobs are rendered in order by the calling thread
+        assertEquals(List.of("first", "last"), rendered);
+        assertEquals(List.of("broken"), failed);
+        assertEquals(2, report.getSuccessCount());
+        assertEquals(1, report.getFailureCount());
+    }
+}
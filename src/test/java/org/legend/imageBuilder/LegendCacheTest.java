@@ -0,0 +1,171 @@
+package org.legend.imageBuilder;
+
+import org.geotools.api.style.Style;
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendCache;
+import org.legend.utils.legend.LegendFingerprint;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.legend.PngEncoder;
+import org.legend.utils.legend.RuleIconCache;
+import org.legend.utils.vector.StyleConverterUtil;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LegendCacheTest {
+
+    @Test
+    public void testRuleIconCache() throws Exception {
+        List<FeatureLayer> layers = Collections.singletonList(ConcurrentLegendGraphicBuilderTest.buildLandCoverLayer(20));
+        LegendOptions legendOptions = ConcurrentLegendGraphicBuilderTest.buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage expected = new BufferedImageLegendGraphicBuilder().buildLegendGraphic(layers, legendOptions);
+
+        RuleIconCache iconCache = new RuleIconCache(100);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().iconCache(iconCache).build());
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, legendOptions));
+        assertEquals(0, iconCache.getHitCount());
+        assertEquals(20, iconCache.getMissCount());
+        assertEquals(20, iconCache.size());
+
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, legendOptions));
+        assertEquals(20, iconCache.getHitCount());
+
+        // the size of the icons is part of the key
+        builder.buildLegendGraphic(layers, ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL));
+        assertEquals(40, iconCache.getMissCount());
+    }
+
+    @Test
+    public void testRuleIconCacheEviction() throws Exception {
+        List<FeatureLayer> layers = Collections.singletonList(ConcurrentLegendGraphicBuilderTest.buildLandCoverLayer(20));
+        RuleIconCache iconCache = new RuleIconCache(5);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().iconCache(iconCache).build());
+        builder.buildLegendGraphic(layers, ConcurrentLegendGraphicBuilderTest.buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL));
+        assertEquals(5, iconCache.size());
+    }
+
+    @Test
+    public void testLegendCache() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions legendOptions = ConcurrentLegendGraphicBuilderTest.buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        LegendCache legendCache = new LegendCache();
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().legendCache(legendCache).build());
+
+        byte[] first = builder.buildLegendPng(layers, legendOptions);
+        assertEquals(1, legendCache.getMissCount());
+        byte[] second = builder.buildLegendPng(layers, legendOptions);
+        assertEquals(1, legendCache.getHitCount());
+        assertArrayEquals(first, second);
+        assertEquals(first.length, legendCache.getTotalBytes());
+
+        // an image served from the cache has the pixels of a rendered one
+        BufferedImage expected = new BufferedImageLegendGraphicBuilder().buildLegendGraphic(layers, legendOptions);
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, builder.buildLegendGraphic(layers, legendOptions));
+        assertEquals(2, legendCache.getHitCount());
+
+        // any option is part of the key
+        legendOptions.setTitle("Another title");
+        builder.buildLegendPng(layers, legendOptions);
+        assertEquals(2, legendCache.getMissCount());
+        assertEquals(2, legendCache.size());
+
+        // a modified style gets a new key, the legends of its former content are released
+        layers.get(0).getStyle().featureTypeStyles().get(0).rules().get(0).setName("Renamed");
+        builder.buildLegendPng(layers, legendOptions);
+        assertEquals(3, legendCache.getMissCount());
+        assertEquals(2, legendCache.invalidateStyle(layers.get(0).getStyle()));
+        assertEquals(1, legendCache.size());
+        builder.buildLegendPng(layers, legendOptions);
+        assertEquals(3, legendCache.getHitCount());
+    }
+
+    @Test
+    public void testStyleModifiedInPlaceIsInvalidated() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions legendOptions = ConcurrentLegendGraphicBuilderTest.buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        LegendCache legendCache = new LegendCache();
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().legendCache(legendCache).build());
+        builder.buildLegendPng(layers, legendOptions);
+        assertEquals(1, legendCache.size());
+
+        Style style = layers.get(0).getStyle();
+        // the style is not modified yet, its legend is current
+        assertEquals(0, legendCache.invalidateStyle(style));
+        style.featureTypeStyles().get(0).rules().get(0).setName("Renamed");
+        assertEquals(1, legendCache.invalidateStyle(style));
+        assertEquals(0, legendCache.size());
+    }
+
+    @Test
+    public void testLegendCacheSharedBetweenBuilders() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions legendOptions = ConcurrentLegendGraphicBuilderTest.buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        LegendCache legendCache = new LegendCache();
+        BufferedImageLegendGraphicBuilder singlePass = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().legendCache(legendCache).singlePassLayout(true).build());
+        BufferedImageLegendGraphicBuilder merger = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().legendCache(legendCache).singlePassLayout(false).build());
+        BufferedImageLegendGraphicBuilder storedPng = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().legendCache(legendCache).pngEncoder(new PngEncoder(0, PngEncoder.FilterStrategy.NONE)).build());
+
+        // the settings of the builders changing the output are part of the key
+        assertNotEquals(singlePass.getFingerprint(layers, legendOptions), merger.getFingerprint(layers, legendOptions));
+        assertNotEquals(singlePass.getFingerprint(layers, legendOptions), storedPng.getFingerprint(layers, legendOptions));
+        assertArrayEquals(new BufferedImageLegendGraphicBuilder(LegendBuilderOptions.builder().singlePassLayout(false).build())
+                .buildLegendPng(layers, legendOptions), merger.buildLegendPng(layers, legendOptions));
+        singlePass.buildLegendPng(layers, legendOptions);
+        storedPng.buildLegendPng(layers, legendOptions);
+        assertEquals(3, legendCache.getMissCount());
+        assertEquals(3, legendCache.size());
+    }
+
+    @Test
+    public void testStyleFingerprintIsMemoized() throws Exception {
+        Style style = ConcurrentLegendGraphicBuilderTest.buildLayers().get(0).getStyle();
+        String fingerprint = LegendFingerprint.of(style);
+        assertSame(fingerprint, LegendFingerprint.of(style));
+
+        // the copies served by the style cache share the fingerprint of the parsed style
+        Style first = StyleConverterUtil.getSldStyle("data/sld/rsu_lcz_primary.sld");
+        Style second = StyleConverterUtil.getSldStyle("data/sld/rsu_lcz_primary.sld");
+        assertNotSame(first, second);
+        assertSame(LegendFingerprint.of(first), LegendFingerprint.of(second));
+
+        // a style modified in place gets a new fingerprint
+        style.featureTypeStyles().get(0).rules().get(0).setName("Renamed");
+        assertNotEquals(fingerprint, LegendFingerprint.of(style));
+    }
+
+    @Test
+    public void testLegendCacheByteBudget() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions legendOptions = ConcurrentLegendGraphicBuilderTest.buildOptions(32, 32, LegendUtils.LegendLayout.VERTICAL);
+        int size = new BufferedImageLegendGraphicBuilder().buildLegendPng(layers, legendOptions).length;
+
+        LegendCache legendCache = new LegendCache(size * 2L + size / 2);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().legendCache(legendCache).build());
+        for (int i = 0; i < 5; i++) {
+            legendOptions.setTitle("Title " + i);
+            builder.buildLegendPng(layers, legendOptions);
+            assertTrue(legendCache.getTotalBytes() <= legendCache.getMaxBytes());
+        }
+        assertTrue(legendCache.size() < 5);
+    }
+}
@@ -0,0 +1,149 @@
+package org.legend.imageBuilder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.geotools.map.FeatureLayer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.vector.StyleConverterUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LegendEventsTest {
+
+    private static final String[] EVENTS = {"org.legend.LegendBuild", "org.legend.LayerRender",
+            "org.legend.RuleRender", "org.legend.LabelRender", "org.legend.LegendMerge", "org.legend.StyleParse"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSinglePassLegendEvents() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().singlePassLayout(true).build());
+
+        BufferedImage legend;
+        List<RecordedEvent> events;
+        try (Recording recording = startRecording()) {
+            legend = builder.buildLegendGraphic(layers, options);
+            events = stopRecording(recording);
+        }
+
+        List<RecordedEvent> builds = filter(events, "org.legend.LegendBuild");
+        assertEquals(1, builds.size());
+        assertEquals(2, builds.get(0).getInt("layerCount"));
+        assertEquals(12, builds.get(0).getInt("ruleCount"));
+        assertEquals(legend.getWidth(), builds.get(0).getInt("width"));
+        assertEquals(legend.getHeight(), builds.get(0).getInt("height"));
+        assertTrue(builds.get(0).getLong("allocatedBytes") > 0);
+
+        List<RecordedEvent> layerRenders = filter(events, "org.legend.LayerRender");
+        assertEquals(2, layerRenders.size());
+        assertEquals("Land cover", layerRenders.get(0).getString("layerTitle"));
+        assertEquals(6, layerRenders.get(0).getInt("ruleCount"));
+        assertEquals(24, layerRenders.get(0).getInt("width"));
+
+        List<RecordedEvent> ruleRenders = filter(events, "org.legend.RuleRender");
+        assertEquals(12, ruleRenders.size());
+        assertEquals("Land cover 0", ruleRenders.get(0).getString("ruleName"));
+        assertEquals(1, ruleRenders.get(0).getInt("symbolizerCount"));
+
+        List<RecordedEvent> merges = filter(events, "org.legend.LegendMerge");
+        assertEquals(1, merges.size());
+        assertEquals("layout", merges.get(0).getString("operation"));
+        assertEquals(12, merges.get(0).getInt("ruleCount"));
+        // the single pass layout draws the labels directly
+        assertTrue(filter(events, "org.legend.LabelRender").isEmpty());
+    }
+
+    @Test
+    public void testMergedLegendEvents() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().singlePassLayout(false).labelRasterCache(null).build());
+
+        List<RecordedEvent> events;
+        try (Recording recording = startRecording()) {
+            builder.buildLegendGraphic(layers, options);
+            events = stopRecording(recording);
+        }
+
+        List<String> operations = new ArrayList<>();
+        for (RecordedEvent merge : filter(events, "org.legend.LegendMerge")) {
+            operations.add(merge.getString("operation"));
+        }
+        assertEquals(List.of("mergeLegends", "mergeLegends", "mergeGroups"), operations);
+        List<RecordedEvent> labelRenders = filter(events, "org.legend.LabelRender");
+        assertFalse(labelRenders.isEmpty());
+        for (RecordedEvent labelRender : labelRenders) {
+            assertFalse(labelRender.getBoolean("cached"));
+            assertTrue(labelRender.getInt("width") > 0);
+        }
+    }
+
+    @Test
+    public void testStyleParseEvent() throws Exception {
+        // a copy of the file is not in the style cache yet
+        File sld = folder.newFile();
+        Files.copy(Paths.get("data/sld/rsu_lcz_primary.sld"), sld.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        List<RecordedEvent> events;
+        try (Recording recording = startRecording()) {
+            StyleConverterUtil.getSldStyle(sld.getPath());
+            // served by the style cache, not parsed again
+            StyleConverterUtil.getSldStyle(sld.getPath());
+            events = stopRecording(recording);
+        }
+
+        List<RecordedEvent> parses = filter(events, "org.legend.StyleParse");
+        assertEquals(1, parses.size());
+        assertEquals("SLD", parses.get(0).getString("format"));
+        assertEquals(sld.getPath(), parses.get(0).getString("path"));
+        assertTrue(parses.get(0).getInt("ruleCount") > 0);
+    }
+
+    private static Recording startRecording() {
+        Recording recording = new Recording();
+        for (String event : EVENTS) {
+            recording.enable(event);
+        }
+        recording.start();
+        return recording;
+    }
+
+    private List<RecordedEvent> stopRecording(Recording recording) throws Exception {
+        recording.stop();
+        Path file = folder.newFile("legend.jfr").toPath();
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> filtered = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                filtered.add(event);
+            }
+        }
+        filtered.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+        return filtered;
+    }
+}
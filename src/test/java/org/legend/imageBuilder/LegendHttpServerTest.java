@@ -0,0 +1,153 @@
+package org.legend.imageBuilder;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.legend.options.LegendServerOptions;
+import org.legend.server.LegendHttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class LegendHttpServerTest {
+
+    private static final String LANDCOVER = "layer=shp/landcover2000/landcover2000.shp&style=sld/rsu_lcz_primary.sld";
+
+    private static LegendHttpServer server;
+
+    private static HttpClient client;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = LegendHttpServer.start(LegendServerOptions.builder()
+                .port(0)
+                .dataDirectory("data")
+                .style("lcz", "sld/rsu_lcz_primary.sld")
+                .build());
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testPngLegend() throws Exception {
+        HttpResponse<byte[]> response = get(LANDCOVER + "&width=24&height=24&layerTitle=Land%20cover");
+        assertEquals(200, response.statusCode());
+        assertEquals("image/png", response.headers().firstValue("Content-Type").orElse(null));
+        BufferedImage legend = ImageIO.read(new ByteArrayInputStream(response.body()));
+        assertNotNull(legend);
+        assertTrue(legend.getHeight() > 24);
+    }
+
+    @Test
+    public void testSvgAndJsonLegends() throws Exception {
+        HttpResponse<byte[]> svg = get(LANDCOVER + "&format=svg");
+        assertEquals(200, svg.statusCode());
+        assertEquals("image/svg+xml", svg.headers().firstValue("Content-Type").orElse(null));
+        assertTrue(new String(svg.body(), StandardCharsets.UTF_8).contains("<svg"));
+
+        HttpResponse<byte[]> json = get(LANDCOVER + "&FORMAT=application/json");
+        assertEquals(200, json.statusCode());
+        assertEquals("application/json", json.headers().firstValue("Content-Type").orElse(null));
+        assertTrue(new String(json.body(), StandardCharsets.UTF_8).startsWith("{"));
+    }
+
+    @Test
+    public void testETagAndNotModified() throws Exception {
+        HttpResponse<byte[]> response = get(LANDCOVER);
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        assertNotNull(etag);
+        // the configured ID of the style gives the same legend
+        assertEquals(etag, get("layer=shp/landcover2000/landcover2000.shp&style=lcz")
+                .headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<byte[]> notModified = client.send(request(LANDCOVER).header("If-None-Match", "W/" + etag).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(304, notModified.statusCode());
+        assertEquals(0, notModified.body().length);
+        assertEquals(etag, notModified.headers().firstValue("ETag").orElse(null));
+
+        // other options, other legend
+        HttpResponse<byte[]> other = client.send(request(LANDCOVER + "&bgColor=%23000000")
+                .header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, other.statusCode());
+        assertNotEquals(etag, other.headers().firstValue("ETag").orElse(null));
+    }
+
+    @Test
+    public void testInvalidRequests() throws Exception {
+        assertEquals(400, get("style=sld/rsu_lcz_primary.sld").statusCode());
+        assertEquals(400, get(LANDCOVER + "&format=gif").statusCode());
+        assertEquals(400, get(LANDCOVER + "&width=abc").statusCode());
+        assertEquals(400, get("layer=../pom.xml&style=sld/rsu_lcz_primary.sld").statusCode());
+        assertEquals(404, get("layer=shp/missing.shp&style=sld/rsu_lcz_primary.sld").statusCode());
+        HttpResponse<byte[]> post = client.send(request(LANDCOVER).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(405, post.statusCode());
+    }
+
+    @Test
+    public void testLinksOutsideTheDataDirectoryAreRejected() throws Exception {
+        Path dataDirectory = folder.newFolder().toPath();
+        for (String extension : new String[]{"shp", "shx", "dbf", "prj"}) {
+            Files.copy(Paths.get("data/shp/landcover2000/landcover2000." + extension),
+                    dataDirectory.resolve("landcover2000." + extension));
+        }
+        Files.copy(Paths.get("data/sld/rsu_lcz_primary.sld"), dataDirectory.resolve("inside.sld"));
+        Files.createSymbolicLink(dataDirectory.resolve("outside.sld"), Paths.get("data/sld/rsu_lcz_primary.sld").toAbsolutePath());
+        try (LegendHttpServer linkServer = LegendHttpServer.start(LegendServerOptions.builder()
+                .port(0)
+                .dataDirectory(dataDirectory.toString())
+                .build())) {
+            String url = "http://localhost:" + linkServer.getAddress().getPort() + LegendHttpServer.LEGEND_PATH
+                    + "?layer=landcover2000.shp&style=";
+            assertEquals(200, client.send(HttpRequest.newBuilder(URI.create(url + "inside.sld")).build(),
+                    HttpResponse.BodyHandlers.ofByteArray()).statusCode());
+            assertEquals(400, client.send(HttpRequest.newBuilder(URI.create(url + "outside.sld")).build(),
+                    HttpResponse.BodyHandlers.ofByteArray()).statusCode());
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            responses.add(client.sendAsync(request(LANDCOVER + "&width=" + (16 + i % 4)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        for (CompletableFuture<HttpResponse<byte[]>> response : responses) {
+            assertEquals(200, response.get().statusCode());
+        }
+    }
+
+    private static HttpResponse<byte[]> get(String query) throws Exception {
+        return client.send(request(query).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static HttpRequest.Builder request(String query) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.getAddress().getPort()
+                + LegendHttpServer.LEGEND_PATH + "?" + query));
+    }
+}
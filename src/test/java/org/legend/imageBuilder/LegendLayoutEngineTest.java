@@ -0,0 +1,79 @@
+package org.legend.imageBuilder;
+
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the single pass layout gives the legend the geometry of the images merged by the
+ * {@link org.legend.utils.legend.LegendMerger}. The single pass layout is only used when it is asked
+ * for, until it draws the texts exactly like the merger.
+ */
+public class LegendLayoutEngineTest {
+
+    private final BufferedImageLegendGraphicBuilder singlePass = new BufferedImageLegendGraphicBuilder(
+            LegendBuilderOptions.builder().singlePassLayout(true).build());
+
+    private final BufferedImageLegendGraphicBuilder merged = new BufferedImageLegendGraphicBuilder(
+            LegendBuilderOptions.builder().singlePassLayout(false).build());
+
+    @Test
+    public void testVerticalLayout() throws Exception {
+        assertSameLegend(ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL));
+    }
+
+    @Test
+    public void testHorizontalLayout() throws Exception {
+        assertSameLegend(ConcurrentLegendGraphicBuilderTest.buildOptions(48, 40, LegendUtils.LegendLayout.HORIZONTAL));
+    }
+
+    @Test
+    public void testColumnsAreSplitAtTheMaximumHeight() throws Exception {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(20, 20, LegendUtils.LegendLayout.VERTICAL);
+        options.setMaxHeight(60);
+        assertSameLegend(options);
+    }
+
+    @Test
+    public void testMultiLineTitle() throws Exception {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(20, 20, LegendUtils.LegendLayout.VERTICAL);
+        options.setTitle("Land\\ncover");
+        assertSameLegend(options);
+    }
+
+    private void assertSameLegend(LegendOptions options) throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        BufferedImage expected = merged.buildLegendGraphic(layers, options);
+        BufferedImage actual = singlePass.buildLegendGraphic(layers, options);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        // the icons and the texts are at the same place, only the antialiasing of the black texts on the
+        // white background may differ: a different pixel must be a shade of gray in both legends
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        int[] expectedPixels = expected.getRGB(0, 0, w, h, null, 0, w);
+        int[] actualPixels = actual.getRGB(0, 0, w, h, null, 0, w);
+        for (int i = 0; i < expectedPixels.length; i++) {
+            if (expectedPixels[i] != actualPixels[i]) {
+                assertTrue("pixel (" + i % w + ", " + i / w + ") differs outside the texts",
+                        isGray(expectedPixels[i]) && isGray(actualPixels[i]));
+            }
+        }
+    }
+
+    private static boolean isGray(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return r == g && g == b;
+    }
+}
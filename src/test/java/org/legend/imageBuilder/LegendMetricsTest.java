@@ -0,0 +1,89 @@
+package org.legend.imageBuilder;
+
+import org.junit.After;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.legend.RuleIconCache;
+import org.legend.utils.metrics.HistogramLegendMetrics;
+import org.legend.utils.metrics.LatencyHistogram;
+import org.legend.utils.metrics.LegendMetrics;
+import org.legend.utils.metrics.LegendMetricsRegistry;
+
+import javax.imageio.ImageIO;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class LegendMetricsTest {
+
+    @After
+    public void tearDown() {
+        LegendMetricsRegistry.setMetrics(null);
+    }
+
+    @Test
+    public void testStagesAreTimedAndCounted() throws Exception {
+        HistogramLegendMetrics metrics = new HistogramLegendMetrics();
+        LegendMetricsRegistry.setMetrics(metrics);
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().iconCache(new RuleIconCache()).build());
+
+        byte[] png = builder.buildLegendPng(ConcurrentLegendGraphicBuilderTest.buildLayers(), options);
+        BufferedImage legend = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(2, metrics.getCount(LegendMetrics.Counter.LAYERS));
+        assertEquals(12, metrics.getCount(LegendMetrics.Counter.RULES));
+        assertEquals(12, metrics.getCount(LegendMetrics.Counter.ICON_CACHE_MISSES));
+        assertEquals((long) legend.getWidth() * legend.getHeight(), metrics.getCount(LegendMetrics.Counter.OUTPUT_PIXELS));
+        assertEquals(12, metrics.getHistogram(LegendMetrics.Stage.RULE_PAINT).getCount());
+        assertEquals(2, metrics.getHistogram(LegendMetrics.Stage.SAMPLE_FEATURE).getCount());
+        assertEquals(2, metrics.getHistogram(LegendMetrics.Stage.SYMBOL_SIZE).getCount());
+        assertEquals(1, metrics.getHistogram(LegendMetrics.Stage.MERGE).getCount());
+        assertEquals(1, metrics.getHistogram(LegendMetrics.Stage.ENCODE).getCount());
+        assertTrue(metrics.getHistogram(LegendMetrics.Stage.MERGE).getMax() > 0);
+
+        // the icons of the second request come from the cache
+        builder.buildLegendPng(ConcurrentLegendGraphicBuilderTest.buildLayers(), options);
+        assertEquals(12, metrics.getCount(LegendMetrics.Counter.ICON_CACHE_HITS));
+        assertEquals(12, metrics.getHistogram(LegendMetrics.Stage.RULE_PAINT).getCount());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000L, histogram.getMax());
+        // the buckets keep about 3% of precision
+        assertEquals(50_000_000d, histogram.getValueAtPercentile(50), 50_000_000d * 0.04);
+        assertEquals(99_000_000d, histogram.getValueAtPercentile(99), 99_000_000d * 0.04);
+        assertEquals(100_000_000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testMetricsAreExposedOverJmx() throws Exception {
+        HistogramLegendMetrics metrics = new HistogramLegendMetrics();
+        metrics.record(LegendMetrics.Stage.RULE_PAINT, 2_000_000);
+        metrics.increment(LegendMetrics.Counter.RULES, 5);
+        ObjectName name = metrics.registerMBean();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(5L, server.getAttribute(name, "RULES"));
+            assertEquals(1L, server.getAttribute(name, "RULE_PAINT.count"));
+            assertEquals(2.0, (Double) server.getAttribute(name, "RULE_PAINT.p99Millis"), 0.1);
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "RULES"));
+        } finally {
+            metrics.unregisterMBean();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.legend.imageBuilder;
+
+import org.junit.Test;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.LegendRenderProfile;
+import org.legend.utils.legend.LegendUtils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class LegendRenderProfileTest {
+
+    @Test
+    public void testOptionsAreResolved() {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        options.setBgColor("#102030");
+        options.setFontColor("#FF0000");
+        options.setFontName("Serif");
+        options.setFontSize(14);
+        LegendRenderProfile profile = LegendRenderProfile.of(options);
+
+        assertEquals(new Color(0x10, 0x20, 0x30), profile.getBackgroundColor());
+        assertEquals(0xFF102030, profile.getBackgroundRGB());
+        assertEquals(Color.RED, profile.getLabelFontColor());
+        assertEquals(LegendUtils.getLabelFont(options), profile.getLabelFont());
+
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        profile.applyLabelStyle(graphics);
+        FontMetrics metrics = graphics.getFontMetrics();
+        assertEquals(metrics.getStringBounds("Land cover 0", graphics), profile.getStringBounds("Land cover 0"));
+        assertEquals(metrics.getDescent(), profile.getDescent());
+        assertEquals(metrics.getHeight(), profile.getLineHeight());
+        graphics.dispose();
+    }
+
+    @Test
+    public void testProfilesAreSharedByEqualOptions() {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        LegendRenderProfile profile = LegendRenderProfile.of(options);
+        // the size and the layout do not change the fonts and colors
+        assertSame(profile, LegendRenderProfile.of(
+                ConcurrentLegendGraphicBuilderTest.buildOptions(16, 16, LegendUtils.LegendLayout.HORIZONTAL)));
+
+        options.setBgColor("#000000");
+        LegendRenderProfile black = LegendRenderProfile.of(options);
+        assertNotSame(profile, black);
+        assertEquals(Color.BLACK, black.getBackgroundColor());
+        // the profile compiled before the change is not affected
+        assertEquals(Color.WHITE, profile.getBackgroundColor());
+    }
+}
@@ -0,0 +1,165 @@
+package org.legend.imageBuilder;
+
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendRequestCoalescer;
+import org.legend.utils.legend.LegendUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class LegendRequestCoalescerTest {
+
+    @Test
+    public void testIdenticalRequestsShareOneExecution() throws Exception {
+        LegendRequestCoalescer coalescer = new LegendRequestCoalescer();
+        CountDownLatch release = new CountDownLatch(1);
+        Object result = new Object();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> coalescer.execute("legend", () -> {
+                    release.await();
+                    return result;
+                })));
+            }
+            awaitCoalesced(coalescer, 7);
+            release.countDown();
+            for (Future<Object> future : futures) {
+                assertSame(result, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, coalescer.getExecutionCount());
+        assertEquals(0, coalescer.getInFlightCount());
+
+        // a completed flight is not cached
+        assertEquals("other", coalescer.execute("legend", () -> "other"));
+        assertEquals(2, coalescer.getExecutionCount());
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception {
+        LegendRequestCoalescer coalescer = new LegendRequestCoalescer();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> leader = executor.submit(() -> coalescer.execute("legend", () -> {
+                release.await();
+                throw new IOException("no data");
+            }));
+            awaitInFlight(coalescer);
+            Future<Object> follower = executor.submit(() -> coalescer.execute("legend", () -> "rendered again"));
+            awaitCoalesced(coalescer, 1);
+            release.countDown();
+            for (Future<Object> future : List.of(leader, follower)) {
+                try {
+                    future.get();
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                    assertEquals("no data", e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // the failure is forgotten
+        assertEquals("rendered", coalescer.execute("legend", () -> "rendered"));
+    }
+
+    @Test
+    public void testWaitingCallerTimesOut() throws Exception {
+        LegendRequestCoalescer coalescer = new LegendRequestCoalescer(Duration.ofMillis(50));
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> coalescer.execute("legend", () -> {
+                release.await();
+                return "rendered";
+            }));
+            awaitInFlight(coalescer);
+            try {
+                coalescer.execute("legend", () -> "rendered again");
+                fail();
+            } catch (TimeoutException e) {
+                // expected
+            }
+            // the first caller goes on
+            release.countDown();
+            assertEquals("rendered", leader.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCoalescedLegendsAreCopies() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage expected = new BufferedImageLegendGraphicBuilder().buildLegendGraphic(layers, options);
+        byte[] expectedPng = new BufferedImageLegendGraphicBuilder().buildLegendPng(layers, options);
+
+        LegendRequestCoalescer coalescer = new LegendRequestCoalescer();
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().requestCoalescer(coalescer).build());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<BufferedImage>> legends = new ArrayList<>();
+            List<Future<byte[]>> pngs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                legends.add(executor.submit(() -> builder.buildLegendGraphic(layers, options)));
+                pngs.add(executor.submit(() -> builder.buildLegendPng(layers, options)));
+            }
+            List<BufferedImage> images = new ArrayList<>();
+            for (Future<BufferedImage> legend : legends) {
+                BufferedImage image = legend.get();
+                ConcurrentLegendGraphicBuilderTest.assertSamePixels(expected, image);
+                for (BufferedImage other : images) {
+                    assertNotSame(other, image);
+                }
+                images.add(image);
+            }
+            for (Future<byte[]> png : pngs) {
+                assertArrayEquals(expectedPng, png.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, coalescer.getInFlightCount());
+        assertEquals(16, coalescer.getExecutionCount() + coalescer.getCoalescedCount());
+    }
+
+    private static void awaitCoalesced(LegendRequestCoalescer coalescer, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (coalescer.getCoalescedCount() < count) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitInFlight(LegendRequestCoalescer coalescer) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (coalescer.getInFlightCount() == 0) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
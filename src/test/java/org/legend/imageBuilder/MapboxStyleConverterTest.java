@@ -0,0 +1,89 @@
+package org.legend.imageBuilder;
+
+import org.geotools.api.style.FeatureTypeStyle;
+import org.geotools.api.style.Style;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.legend.utils.vector.MapboxStyleConverter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MapboxStyleConverterTest {
+
+    private static final Path ANKANG_STYLE = Paths.get("data/mbstyle/ankang-style.json");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLayersAreTransformedOnDemand() throws Exception {
+        MapboxStyleConverter converter = new MapboxStyleConverter();
+        List<String> layerIds = converter.getLayerIds(ANKANG_STYLE);
+        assertEquals(50, layerIds.size());
+        assertEquals("r0_sy0_st0", layerIds.get(0));
+        assertEquals(0, converter.getTransformCount());
+
+        Style first = converter.getStyle(ANKANG_STYLE, "r0_sy0_st0");
+        assertFalse(first.featureTypeStyles().isEmpty());
+        assertEquals(1, converter.getTransformCount());
+
+        // the selected layers keep the order of the file
+        Style two = converter.getStyle(ANKANG_STYLE, "r2_sy0_st0", "r0_sy0_st0");
+        assertEquals(2, converter.getTransformCount());
+        Style second = converter.getStyle(ANKANG_STYLE, "r2_sy0_st0");
+        assertEquals(first.featureTypeStyles().size() + second.featureTypeStyles().size(),
+                two.featureTypeStyles().size());
+        assertEquals(first.featureTypeStyles().get(0), two.featureTypeStyles().get(0));
+
+        // a source layer selects all its layers
+        Style all = converter.getStyle(ANKANG_STYLE, "linespace_layer");
+        assertEquals(50, converter.getTransformCount());
+        assertEquals(all.featureTypeStyles().size(), converter.getStyle(ANKANG_STYLE).featureTypeStyles().size());
+        assertEquals(50, converter.getTransformCount());
+        assertEquals(1, converter.getParseCount());
+    }
+
+    @Test
+    public void testStylesAreCopies() throws Exception {
+        MapboxStyleConverter converter = new MapboxStyleConverter();
+        Style style = converter.getStyle(ANKANG_STYLE, "r0_sy0_st0");
+        Style other = converter.getStyle(ANKANG_STYLE, "r0_sy0_st0");
+        assertNotSame(style.featureTypeStyles().get(0), other.featureTypeStyles().get(0));
+
+        style.featureTypeStyles().clear();
+        List<FeatureTypeStyle> featureTypeStyles = converter.getStyle(ANKANG_STYLE, "r0_sy0_st0").featureTypeStyles();
+        assertEquals(other.featureTypeStyles(), featureTypeStyles);
+    }
+
+    @Test
+    public void testModifiedFileIsParsedAgain() throws Exception {
+        Path copy = folder.getRoot().toPath().resolve("style.json");
+        Files.copy(ANKANG_STYLE, copy, StandardCopyOption.REPLACE_EXISTING);
+        MapboxStyleConverter converter = new MapboxStyleConverter();
+        converter.getStyle(copy, "r0_sy0_st0");
+        converter.getStyle(copy, "r0_sy0_st0");
+        assertEquals(1, converter.getParseCount());
+        assertEquals(1, converter.getTransformCount());
+
+        Files.setLastModifiedTime(copy, FileTime.fromMillis(Files.getLastModifiedTime(copy).toMillis() + 60_000));
+        converter.getStyle(copy, "r0_sy0_st0");
+        assertEquals(2, converter.getParseCount());
+        assertEquals(2, converter.getTransformCount());
+
+        converter.invalidate(copy);
+        assertEquals(0, converter.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLayer() throws Exception {
+        new MapboxStyleConverter().getStyle(ANKANG_STYLE, "r0_sy0_st0", "missing");
+    }
+}
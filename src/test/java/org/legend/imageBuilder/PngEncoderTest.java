@@ -0,0 +1,72 @@
+package org.legend.imageBuilder;
+
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.legend.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PngEncoderTest {
+
+    /**
+     * Offset of the color type in the IHDR chunk.
+     */
+    private static final int COLOR_TYPE_OFFSET = 25;
+
+    @Test
+    public void testFlatLegendIsPaletted() throws Exception {
+        BufferedImage legend = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < legend.getHeight(); y++) {
+            for (int x = 0; x < legend.getWidth(); x++) {
+                legend.setRGB(x, y, x < 20 ? 0xFF0000 : 0x00FF00 + y);
+            }
+        }
+        for (PngEncoder.FilterStrategy filterStrategy : PngEncoder.FilterStrategy.values()) {
+            byte[] png = encode(new PngEncoder(9, filterStrategy), legend);
+            assertEquals(3, png[COLOR_TYPE_OFFSET]);
+            ConcurrentLegendGraphicBuilderTest.assertSamePixels(legend, ImageIO.read(new ByteArrayInputStream(png)));
+        }
+    }
+
+    @Test
+    public void testManyColorsAreWrittenAsTrueColor() throws Exception {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xFF000000 | (x << 16) | (y << 8) | (x ^ y));
+            }
+        }
+        byte[] png = encode(new PngEncoder(), image);
+        assertEquals(6, png[COLOR_TYPE_OFFSET]);
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(png)));
+    }
+
+    @Test
+    public void testLegendIsStreamed() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.buildLegendPng(layers, options, null, out);
+        assertArrayEquals(builder.buildLegendPng(layers, options), out.toByteArray());
+        ConcurrentLegendGraphicBuilderTest.assertSamePixels(builder.buildLegendGraphic(layers, options),
+                ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    private static byte[] encode(PngEncoder encoder, BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+        return out.toByteArray();
+    }
+}
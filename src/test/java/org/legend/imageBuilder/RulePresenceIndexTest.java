@@ -0,0 +1,161 @@
+package org.legend.imageBuilder;
+
+import org.geotools.api.data.SimpleFeatureSource;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.filter.FilterFactory;
+import org.geotools.api.style.FeatureTypeStyle;
+import org.geotools.api.style.Rule;
+import org.geotools.api.style.Style;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.map.FeatureLayer;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.legend.RulePresenceIndex;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RulePresenceIndexTest {
+
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory();
+
+    @Test
+    public void testOnlyPresentRulesAreKept() throws Exception {
+        Style style = buildStyle(true);
+        FeatureTypeStyle[] ftStyles = style.featureTypeStyles().toArray(new FeatureTypeStyle[0]);
+        RulePresenceIndex index = new RulePresenceIndex();
+
+        Rule[] present = index.getPresentRules(buildSource("a", "b"), ftStyles);
+        assertArrayEquals(new String[]{"a", "b"}, names(present));
+        // a feature matching no filter shows the else rule
+        present = index.getPresentRules(buildSource("a", "d"), ftStyles);
+        assertArrayEquals(new String[]{"a", "else"}, names(present));
+    }
+
+    @Test
+    public void testPresencesAreCached() throws Exception {
+        FeatureTypeStyle[] ftStyles = buildStyle(false).featureTypeStyles().toArray(new FeatureTypeStyle[0]);
+        SimpleFeatureSource source = buildSource("a", "b", "b");
+        RulePresenceIndex index = new RulePresenceIndex();
+
+        index.getPresentRules(source, ftStyles);
+        assertEquals(3, index.getMissCount());
+        assertEquals(0, index.getHitCount());
+        Rule[] present = index.getPresentRules(source, ftStyles);
+        assertEquals(3, index.getMissCount());
+        assertEquals(3, index.getHitCount());
+        assertArrayEquals(new String[]{"a", "b"}, names(present));
+    }
+
+    @Test
+    public void testMemorySourcesAreNotKeptAlive() throws Exception {
+        FeatureTypeStyle[] ftStyles = buildStyle(false).featureTypeStyles().toArray(new FeatureTypeStyle[0]);
+        SimpleFeatureSource source = buildSource("a");
+        RulePresenceIndex index = new RulePresenceIndex();
+        index.getPresentRules(source, ftStyles);
+
+        String id = RulePresenceIndex.getSourceId(source);
+        assertEquals(id, RulePresenceIndex.getSourceId(source));
+        assertNotEquals(id, RulePresenceIndex.getSourceId(buildSource("a")));
+
+        // the cached presences do not hold the source
+        WeakReference<SimpleFeatureSource> reference = new WeakReference<>(source);
+        source = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void testChangedMemorySourceIsCheckedAgainOnceInvalidated() throws Exception {
+        FeatureTypeStyle[] ftStyles = buildStyle(false).featureTypeStyles().toArray(new FeatureTypeStyle[0]);
+        SimpleFeatureType featureType = DataUtilities.createType("landcover", "the_geom:Point,type:String");
+        MemoryDataStore store = new MemoryDataStore(featureType);
+        store.addFeature(buildFeature(featureType, 0, "a"));
+        SimpleFeatureSource source = store.getFeatureSource("landcover");
+        RulePresenceIndex index = new RulePresenceIndex();
+        assertArrayEquals(new String[]{"a"}, names(index.getPresentRules(source, ftStyles)));
+        String id = RulePresenceIndex.getSourceId(source);
+
+        store.addFeature(buildFeature(featureType, 1, "b"));
+        // the cache can not tell that the store changed
+        assertArrayEquals(new String[]{"a"}, names(index.getPresentRules(source, ftStyles)));
+        index.invalidate(source);
+        assertNotEquals(id, RulePresenceIndex.getSourceId(source));
+        assertArrayEquals(new String[]{"a", "b"}, names(index.getPresentRules(source, ftStyles)));
+    }
+
+    @Test
+    public void testLegendOnlyShowsPresentRules() throws Exception {
+        FeatureLayer layer = new FeatureLayer(buildSource("a"), buildStyle(false));
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(LegendBuilderOptions.builder()
+                .rulePresenceIndex(new RulePresenceIndex())
+                .build());
+
+        LegendOptions all = ConcurrentLegendGraphicBuilderTest.buildOptions(20, 20, LegendUtils.LegendLayout.VERTICAL);
+        LegendOptions present = ConcurrentLegendGraphicBuilderTest.buildOptions(20, 20, LegendUtils.LegendLayout.VERTICAL);
+        present.setShowAllRules(false);
+        BufferedImage allImage = builder.buildLegendGraphic(Collections.singletonList(layer), all);
+        BufferedImage presentImage = builder.buildLegendGraphic(Collections.singletonList(layer), present);
+        assertTrue(presentImage.getHeight() < allImage.getHeight());
+    }
+
+    private static SimpleFeatureSource buildSource(String... types) throws Exception {
+        SimpleFeatureType featureType = DataUtilities.createType("landcover", "the_geom:Point,type:String");
+        ListFeatureCollection features = new ListFeatureCollection(featureType);
+        for (int i = 0; i < types.length; i++) {
+            features.add(buildFeature(featureType, i, types[i]));
+        }
+        return DataUtilities.source(features);
+    }
+
+    private static SimpleFeature buildFeature(SimpleFeatureType featureType, int i, String type) {
+        Point point = new GeometryFactory().createPoint(new org.locationtech.jts.geom.Coordinate(i, i));
+        return SimpleFeatureBuilder.build(featureType, new Object[]{point, type}, "landcover." + i);
+    }
+
+    private static Style buildStyle(boolean withElseRule) {
+        StyleBuilder sb = new StyleBuilder();
+        String[] types = {"a", "b", "c"};
+        Rule[] rules = new Rule[withElseRule ? types.length + 1 : types.length];
+        for (int i = 0; i < types.length; i++) {
+            rules[i] = sb.createRule(sb.createPolygonSymbolizer(Color.RED, Color.BLACK, 1));
+            rules[i].setName(types[i]);
+            rules[i].setFilter(FF.equals(FF.property("type"), FF.literal(types[i])));
+        }
+        if (withElseRule) {
+            Rule elseRule = sb.createRule(sb.createPolygonSymbolizer(Color.GRAY, Color.BLACK, 1));
+            elseRule.setName("else");
+            elseRule.setElseFilter(true);
+            rules[types.length] = elseRule;
+        }
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle("landcover", rules));
+        return style;
+    }
+
+    private static String[] names(Rule[] rules) {
+        String[] names = new String[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            names[i] = rules[i].getName();
+        }
+        return names;
+    }
+}
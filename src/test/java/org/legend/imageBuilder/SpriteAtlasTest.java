@@ -0,0 +1,87 @@
+package org.legend.imageBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendBuilderOptions;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.IconCanvasPool;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.legend.SpriteAtlas;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpriteAtlasTest {
+
+    @Test
+    public void testIconsArePackedWithoutOverlap() throws Exception {
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        SpriteAtlas atlas = new BufferedImageLegendGraphicBuilder().buildSpriteAtlas(
+                ConcurrentLegendGraphicBuilderTest.buildLayers(), options);
+
+        assertEquals(12, atlas.getIcons().size());
+        Rectangle bounds = new Rectangle(0, 0, atlas.getImage().getWidth(), atlas.getImage().getHeight());
+        List<Rectangle> rectangles = new ArrayList<>(atlas.getIcons().values());
+        for (int i = 0; i < rectangles.size(); i++) {
+            assertEquals(24, rectangles.get(i).width);
+            assertTrue(bounds.contains(rectangles.get(i)));
+            for (int j = i + 1; j < rectangles.size(); j++) {
+                assertFalse(rectangles.get(i).intersects(rectangles.get(j)));
+            }
+        }
+        // close to a square rather than a single column
+        assertTrue(atlas.getImage().getHeight() < 12 * 24);
+    }
+
+    @Test
+    public void testIndexIsAMapboxSprite() throws Exception {
+        List<FeatureLayer> layers = new ArrayList<>(ConcurrentLegendGraphicBuilderTest.buildLayers());
+        layers.addAll(ConcurrentLegendGraphicBuilderTest.buildLayers());
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(16, 16, LegendUtils.LegendLayout.VERTICAL);
+        SpriteAtlas atlas = new BufferedImageLegendGraphicBuilder().buildSpriteAtlas(layers, options);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        atlas.writeIndex(out);
+        JsonNode index = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(24, index.size());
+        JsonNode icon = index.get("Land cover 0");
+        assertEquals(16, icon.get("width").asInt());
+        assertEquals(1, icon.get("pixelRatio").asInt());
+        // the names used twice get a suffix
+        assertNotNull(index.get("Land cover 0-2"));
+        Rectangle rectangle = atlas.getIcons().get("Land cover 0");
+        assertEquals(rectangle.x, icon.get("x").asInt());
+        assertEquals(rectangle.y, icon.get("y").asInt());
+    }
+
+    @Test
+    public void testCanvasesAreReleasedWhenTheAtlasFails() throws Exception {
+        List<FeatureLayer> layers = new ArrayList<>(ConcurrentLegendGraphicBuilderTest.buildLayers());
+        FeatureLayer landCover = layers.get(0);
+        layers.add(new FeatureLayer(landCover.getFeatureSource(), landCover.getStyle()) {
+            @Override
+            public String getTitle() {
+                throw new IllegalStateException("broken layer");
+            }
+        });
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(16, 16, LegendUtils.LegendLayout.VERTICAL);
+        IconCanvasPool pool = new IconCanvasPool(64);
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder(
+                LegendBuilderOptions.builder().iconCanvasPool(pool).build());
+        try {
+            builder.buildSpriteAtlas(layers, options);
+            fail();
+        } catch (IllegalStateException e) {
+            // the icons of the layers rendered before the broken one are given back
+            assertEquals(12, pool.getAllocationCount());
+            assertEquals(12, pool.size());
+        }
+    }
+}
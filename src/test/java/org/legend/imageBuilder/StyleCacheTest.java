@@ -0,0 +1,119 @@
+package org.legend.imageBuilder;
+
+import org.geotools.api.style.Style;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.legend.utils.vector.SldNormalizer;
+import org.legend.utils.vector.StyleCache;
+import org.legend.utils.vector.StyleConverterUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class StyleCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParsedStyleIsCachedAndCopied() throws Exception {
+        File sld = copyToTemp("data/sld/rsu_lcz_primary.sld");
+        StyleCache cache = StyleConverterUtil.getSldStyleCache();
+        cache.clear();
+
+        Style first = StyleConverterUtil.getSldStyle(sld.getPath());
+        Style second = StyleConverterUtil.getSldStyle(sld.getPath());
+        assertEquals(1, cache.size());
+        assertNotSame(first, second);
+        assertNotSame(first.featureTypeStyles().get(0).rules().get(0), second.featureTypeStyles().get(0).rules().get(0));
+        assertEquals(first, second);
+
+        // a caller changing its copy does not alter the cache
+        first.featureTypeStyles().get(0).rules().get(0).setName("changed");
+        Style third = StyleConverterUtil.getSldStyle(sld.getPath());
+        assertEquals(second, third);
+    }
+
+    @Test
+    public void testModifiedFileIsParsedAgain() throws Exception {
+        File sld = copyToTemp("data/sld/sld_zone.sld");
+        Style before = StyleConverterUtil.getSldStyle(sld.getPath());
+        int ruleCount = before.featureTypeStyles().get(0).rules().size();
+
+        File other = copyToTemp("data/sld/rsu_lcz_primary.sld");
+        Files.copy(other.toPath(), sld.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(sld.toPath(), FileTime.fromMillis(sld.lastModified() + 10_000));
+
+        Style after = StyleConverterUtil.getSldStyle(sld.getPath());
+        assertNotEquals(ruleCount, after.featureTypeStyles().get(0).rules().size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStyleIsEvicted() throws Exception {
+        StyleCache cache = new StyleCache(2);
+        File first = copyToTemp("data/sld/sld_zone.sld");
+        File second = copyToTemp("data/sld/rsu_lcz_primary.sld");
+        File third = copyToTemp("data/sld/building_urban_typo.sld");
+        int[] loads = new int[1];
+        StyleCache.StyleLoader loader = path -> {
+            loads[0]++;
+            return StyleConverterUtil.getSldStyle(path.toString());
+        };
+        cache.get(first.toPath(), loader);
+        cache.get(second.toPath(), loader);
+        cache.get(first.toPath(), loader);
+        cache.get(third.toPath(), loader);
+        assertEquals(2, cache.size());
+        assertEquals(3, loads[0]);
+
+        // the second style was the least recently used
+        cache.get(first.toPath(), loader);
+        assertEquals(3, loads[0]);
+        cache.get(second.toPath(), loader);
+        assertEquals(4, loads[0]);
+    }
+
+    @Test
+    public void testStyleFileIsNotRewritten() throws Exception {
+        File sld = copyToTemp("data/sld/rsu_lcz_primary_edited.sld");
+        byte[] content = Files.readAllBytes(sld.toPath());
+        long lastModified = sld.lastModified();
+
+        Style style = StyleConverterUtil.getSldStyle(sld.getPath());
+        assertFalse(style.featureTypeStyles().get(0).rules().isEmpty());
+        assertArrayEquals(content, Files.readAllBytes(sld.toPath()));
+        assertEquals(lastModified, sld.lastModified());
+    }
+
+    @Test
+    public void testDocumentIsNormalized() throws Exception {
+        String sld = "<sld:StyledLayerDescriptor xmlns:sld=\"http://www.opengis.net/sld\" xmlns:se=\"http://www.opengis.net/se\">"
+                + "<se:SvgParameter name=\"fill\">sld</se:SvgParameter></sld:StyledLayerDescriptor>";
+        Document document = SldNormalizer.normalize(new ByteArrayInputStream(sld.getBytes(StandardCharsets.UTF_8)));
+        Element root = document.getDocumentElement();
+        assertEquals("http://www.opengis.net/se", root.getNamespaceURI());
+        assertEquals("StyledLayerDescriptor", root.getLocalName());
+        Element parameter = (Element) root.getFirstChild();
+        assertEquals("http://www.opengis.net/se", parameter.getNamespaceURI());
+        assertEquals("CssParameter", parameter.getLocalName());
+        // values are left untouched
+        assertEquals("fill", parameter.getAttribute("name"));
+        assertEquals("sld", parameter.getTextContent());
+    }
+
+    private File copyToTemp(String path) throws Exception {
+        File copy = folder.newFile();
+        Files.copy(Paths.get(path), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+}
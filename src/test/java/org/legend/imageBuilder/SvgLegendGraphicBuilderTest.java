@@ -0,0 +1,56 @@
+package org.legend.imageBuilder;
+
+import org.geotools.map.FeatureLayer;
+import org.junit.Test;
+import org.legend.options.LegendOptions;
+import org.legend.utils.legend.BufferedImageLegendGraphicBuilder;
+import org.legend.utils.legend.LegendUtils;
+import org.legend.utils.legend.SvgLegendGraphicBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SvgLegendGraphicBuilderTest {
+
+    private static final String SVG = "http://www.w3.org/2000/svg";
+
+    @Test
+    public void testSvgLegendHasTheSizeOfTheRasterLegend() throws Exception {
+        List<FeatureLayer> layers = ConcurrentLegendGraphicBuilderTest.buildLayers();
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.VERTICAL);
+        BufferedImage raster = new BufferedImageLegendGraphicBuilder().buildLegendGraphic(layers, options);
+
+        Document svg = parse(new SvgLegendGraphicBuilder().buildLegendSvg(layers, options));
+        Element root = svg.getDocumentElement();
+        assertEquals("svg", root.getLocalName());
+        assertEquals(String.valueOf(raster.getWidth()), root.getAttribute("width"));
+        assertEquals(String.valueOf(raster.getHeight()), root.getAttribute("height"));
+        assertEquals(12, svg.getElementsByTagNameNS(SVG, "use").getLength());
+        assertEquals(12, svg.getElementsByTagNameNS(SVG, "symbol").getLength());
+    }
+
+    @Test
+    public void testSymbolsAreShared() throws Exception {
+        // the same styles twice: every symbol is defined once and used twice
+        List<FeatureLayer> layers = new ArrayList<>(ConcurrentLegendGraphicBuilderTest.buildLayers());
+        layers.addAll(ConcurrentLegendGraphicBuilderTest.buildLayers());
+        LegendOptions options = ConcurrentLegendGraphicBuilderTest.buildOptions(24, 24, LegendUtils.LegendLayout.HORIZONTAL);
+
+        Document svg = parse(new SvgLegendGraphicBuilder().buildLegendSvg(layers, options));
+        assertEquals(24, svg.getElementsByTagNameNS(SVG, "use").getLength());
+        assertEquals(12, svg.getElementsByTagNameNS(SVG, "symbol").getLength());
+    }
+
+    private static Document parse(byte[] svg) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(svg));
+    }
+}